@@ -0,0 +1,343 @@
+package jv;
+
+import jv.components.EditorTextArea;
+import jv.components.LargeFileView;
+import jv.components.LineNumberComponent;
+import jv.controller.DocumentSpill;
+import jv.controller.EditJournal;
+import jv.controller.FileFollower;
+import jv.controller.FileLoader;
+import jv.controller.FileWatcher;
+import jv.controller.TabMemoryBudget;
+import jv.model.DocumentModel;
+import jv.model.TextStatistics;
+import jv.model.UndoHistory;
+import jv.syntax.Language;
+import jv.syntax.SyntaxHighlighter;
+import jv.util.Constants;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+/**
+ * One tab of the main window: a document with its undo history, edit
+ * journal and file watcher, and the text area that shows it, or the large
+ * file view in its place.
+ * <p>
+ * While the tab is in the background its text may be dropped to keep all
+ * tabs within their memory budget; see {@link DocumentSpill}. The caret is
+ * put back where it was when the text returns.
+ */
+public class EditorTab extends JPanel implements TabMemoryBudget.Tab {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DocumentModel documentModel;
+    private final UndoHistory undoHistory;
+    private final EditJournal editJournal;
+    private final FileWatcher fileWatcher;
+    private final DocumentSpill spill;
+    private final TextStatistics statistics;
+    private final SyntaxHighlighter highlighter;
+
+    private final EditorTextArea textArea;
+    private final JScrollPane editorScrollPane;
+    private final LineNumberComponent lineNumberComponent;
+    private LargeFileView largeFileView;
+
+    private FileLoader fileLoader;
+    private FileFollower fileFollower;
+    private FileWatcher.Change pendingChange;
+    private boolean shown;
+    private int evictedCaret;
+
+    /**
+     * Creates a tab holding an empty document.
+     *
+     * @param font          The font of the text area
+     * @param changeHandler Told when another program changes the file of the
+     *                      document
+     */
+    public EditorTab(Font font, BiConsumer<EditorTab, FileWatcher.Change> changeHandler) {
+        super(new BorderLayout());
+        documentModel = new DocumentModel();
+        undoHistory = new UndoHistory(Constants.UNDO_MEMORY_BUDGET);
+        editJournal = new EditJournal(documentModel);
+        fileWatcher = new FileWatcher(documentModel, change -> changeHandler.accept(this, change));
+        spill = new DocumentSpill(documentModel, editJournal);
+        statistics = new TextStatistics(documentModel);
+
+        textArea = new EditorTextArea(documentModel.getDocument());
+        textArea.setFont(font);
+        highlighter = new SyntaxHighlighter(documentModel, textArea);
+        textArea.setSyntaxHighlighter(highlighter);
+        editorScrollPane = new JScrollPane(textArea);
+        editorScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
+        editorScrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        lineNumberComponent = new LineNumberComponent(textArea);
+        editorScrollPane.setRowHeaderView(lineNumberComponent);
+        add(editorScrollPane, BorderLayout.CENTER);
+
+        documentModel.getDocument().addUndoableEditListener(undoHistory);
+        documentModel.addPropertyChangeListener(e -> {
+            if (DocumentModel.PROPERTY_CONTENT.equals(e.getPropertyName())) {
+                // Loads are not undoable, so earlier edits no longer apply
+                undoHistory.discardAllEdits();
+            }
+            highlighter.setLanguage(Language.forFile(documentModel.getCurrentFile()));
+            updateTabTitle();
+        });
+    }
+
+    public DocumentModel getDocumentModel() {
+        return documentModel;
+    }
+
+    public UndoHistory getUndoHistory() {
+        return undoHistory;
+    }
+
+    public EditJournal getEditJournal() {
+        return editJournal;
+    }
+
+    public DocumentSpill getSpill() {
+        return spill;
+    }
+
+    public TextStatistics getStatistics() {
+        return statistics;
+    }
+
+    public SyntaxHighlighter getSyntaxHighlighter() {
+        return highlighter;
+    }
+
+    public JTextArea getTextArea() {
+        return textArea;
+    }
+
+    public LineNumberComponent getLineNumberComponent() {
+        return lineNumberComponent;
+    }
+
+    public FileLoader getFileLoader() {
+        return fileLoader;
+    }
+
+    public void setFileLoader(FileLoader fileLoader) {
+        this.fileLoader = fileLoader;
+        updateEditable();
+    }
+
+    public FileFollower getFileFollower() {
+        return fileFollower;
+    }
+
+    public void setFileFollower(FileFollower fileFollower) {
+        this.fileFollower = fileFollower;
+        updateEditable();
+        updateTabTitle();
+    }
+
+    /**
+     * Gets the change of the file that happened while the tab was in the
+     * background, to be asked about when it is shown.
+     *
+     * @return The change, or null
+     */
+    public FileWatcher.Change takePendingChange() {
+        FileWatcher.Change change = pendingChange;
+        pendingChange = null;
+        return change;
+    }
+
+    public void setPendingChange(FileWatcher.Change pendingChange) {
+        this.pendingChange = pendingChange;
+    }
+
+    /**
+     * Gets the large file view shown in place of the text area.
+     *
+     * @return The view, or null when the text area is shown
+     */
+    public LargeFileView getLargeFileView() {
+        return largeFileView;
+    }
+
+    /**
+     * Shows a large file view in place of the text area, or the text area
+     * again. A view shown before is closed.
+     *
+     * @param view The view, or null for the text area
+     */
+    public void setLargeFileView(LargeFileView view) {
+        if (largeFileView != null) {
+            largeFileView.close();
+            remove(largeFileView);
+        } else {
+            remove(editorScrollPane);
+        }
+        largeFileView = view;
+        add(view != null ? view : editorScrollPane, BorderLayout.CENTER);
+        updateEditable();
+        updateTabTitle();
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Checks if the document is read-only for now: it is being loaded or
+     * followed, a large file is shown instead, or its text was evicted.
+     *
+     * @return true if the document must not be edited
+     */
+    public boolean isBusy() {
+        return fileLoader != null || fileFollower != null || largeFileView != null || spill.isEvicted();
+    }
+
+    /**
+     * Checks if the tab holds an untouched new document, which a file being
+     * opened may take over instead of opening a tab of its own.
+     *
+     * @return true if the tab is empty and unused
+     */
+    public boolean isPristine() {
+        return !isBusy() && !spill.isSpilling() && documentModel.getCurrentFile() == null
+                && !documentModel.isModified() && documentModel.getLength() == 0;
+    }
+
+    /**
+     * Checks if the document has unsaved changes, even while its text is
+     * evicted.
+     *
+     * @return true if there are unsaved changes
+     */
+    public boolean isModified() {
+        return spill.isModified();
+    }
+
+    /**
+     * Gets the file shown in the tab.
+     *
+     * @return The file, or null for a new document
+     */
+    public File getFile() {
+        if (largeFileView != null) {
+            return largeFileView.getFile().getFile();
+        }
+        return fileFollower != null ? fileFollower.getFile() : documentModel.getCurrentFile();
+    }
+
+    /**
+     * Gets the caret position the tab had when its text was evicted.
+     *
+     * @return The caret position
+     */
+    public int getEvictedCaret() {
+        return evictedCaret;
+    }
+
+    /**
+     * Brings the text of an evicted tab back, with the caret where it was.
+     *
+     * @return true if the text is back, false if it must be loaded from the
+     *         file again
+     * @throws IOException if the spill file could not be read
+     * @see DocumentSpill#restore()
+     */
+    public boolean restore() throws IOException {
+        boolean restored = spill.restore();
+        updateEditable();
+        if (restored) {
+            textArea.setCaretPosition(Math.min(evictedCaret, documentModel.getLength()));
+        }
+        return restored;
+    }
+
+    /**
+     * Tells the tab whether it is the one shown in the window.
+     *
+     * @param shown true if the tab is selected
+     */
+    public void setShown(boolean shown) {
+        this.shown = shown;
+    }
+
+    /**
+     * Updates the title of the tab: the name of its file, marked when it has
+     * unsaved changes.
+     */
+    public void updateTabTitle() {
+        if (!(getParent() instanceof JTabbedPane)) {
+            return;
+        }
+        JTabbedPane tabs = (JTabbedPane) getParent();
+        int index = tabs.indexOfComponent(this);
+        if (index < 0) {
+            return;
+        }
+        File file = getFile();
+        String name = file != null ? file.getName() : documentModel.getDisplayName();
+        tabs.setTitleAt(index, isModified() ? Constants.TITLE_MODIFIED_MARKER + name : name);
+        tabs.setToolTipTextAt(index, file != null ? file.getAbsolutePath() : null);
+    }
+
+    private void updateEditable() {
+        textArea.setEditable(!isBusy());
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        if (spill.isEvicted() || spill.isSpilling() || largeFileView != null) {
+            return 0;
+        }
+        return TabMemoryBudget.estimateMemory(documentModel, undoHistory);
+    }
+
+    @Override
+    public boolean isEvictable() {
+        return !shown && !isBusy() && !spill.isSpilling() && documentModel.getLength() > 0;
+    }
+
+    @Override
+    public void evict() {
+        int caret = textArea.getCaretPosition();
+        spill.evict(() -> !shown && !isBusy(), () -> {
+            evictedCaret = caret;
+            updateEditable();
+            updateTabTitle();
+        });
+    }
+
+    /**
+     * Stops everything the tab runs and deletes its journal and spill file.
+     * Called when the tab is closed, after its changes were saved or
+     * discarded. The journal of changes whose text could not be read back
+     * is kept for recovery instead.
+     */
+    public void close() {
+        if (fileLoader != null) {
+            fileLoader.cancel();
+            fileLoader = null;
+        }
+        if (fileFollower != null) {
+            fileFollower.stop();
+            fileFollower = null;
+        }
+        if (largeFileView != null) {
+            largeFileView.close();
+        }
+        if (spill.isEvicted() && spill.isModified()) {
+            // The text could not be read back; only the journal still has it
+            editJournal.release();
+        } else {
+            editJournal.close();
+        }
+        fileWatcher.close();
+        spill.discard();
+    }
+}
@@ -4,13 +4,27 @@ import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import jv.components.MatchHighlighter;
+import jv.model.PieceTableDocument;
+import jv.search.RegexSearch;
+import jv.search.TextSearcher;
 
 public class Find extends JFrame implements ActionListener {
 
@@ -18,9 +32,38 @@ public class Find extends JFrame implements ActionListener {
     private JButton fndButton, findNext, replace, replaceAll, cancel;
     private JTextArea txt;
     JTextField textF, textR;
-    JLabel lab1, lab2;
+    JLabel lab1, lab2, status;
+    JCheckBox regex, highlightAll;
     int startIndex = 0;
     int select_start = -1;
+    private TextSearcher searcher;
+    private RegexSearch regexSearch;
+    private boolean selectPending;
+    private MatchHighlighter highlighter;
+
+    // Any change to the query or the text makes a running regex search stale
+    private final DocumentListener invalidator = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            cancelRegexSearch();
+            if (e.getDocument() == textF.getDocument()) {
+                updateHighlighter();
+            }
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            cancelRegexSearch();
+            if (e.getDocument() == textF.getDocument()) {
+                updateHighlighter();
+            }
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // Attribute changes do not affect matches
+        }
+    };
 
     public Find(JTextArea text) {
         this.txt = text;
@@ -34,6 +77,9 @@ public class Find extends JFrame implements ActionListener {
         replace = new JButton("Replace");
         replaceAll = new JButton("Replace All");
         cancel = new JButton("Cancel");
+        regex = new JCheckBox("Regex");
+        highlightAll = new JCheckBox("Highlight all");
+        status = new JLabel();
 
         setLayout(null);
 
@@ -49,6 +95,14 @@ public class Find extends JFrame implements ActionListener {
         add(lab2);
         textR.setBounds(10 + labWidth, 20 + labHeight, 120, 20);
         add(textR);
+        regex.setBounds(6, 30 + 2 * labHeight, 80, labHeight);
+        add(regex);
+        regex.addActionListener(this);
+        highlightAll.setBounds(86, 30 + 2 * labHeight, 130, labHeight);
+        add(highlightAll);
+        highlightAll.addActionListener(this);
+        status.setBounds(10, 40 + 3 * labHeight, 210, labHeight);
+        add(status);
 
         // Add buttons
         fndButton.setBounds(225, 6, 115, 20);
@@ -80,6 +134,19 @@ public class Find extends JFrame implements ActionListener {
         setLocation(center.x - width / 2, center.y - height / 2);
         setVisible(true);
         setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+
+        textF.getDocument().addDocumentListener(invalidator);
+        txt.getDocument().addDocumentListener(invalidator);
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentHidden(ComponentEvent e) {
+                // A hidden dialog is never shown again, so stop listening
+                cancelRegexSearch();
+                txt.getDocument().removeDocumentListener(invalidator);
+                highlightAll.setSelected(false);
+                updateHighlighter();
+            }
+        });
     }
 
     @Override
@@ -94,11 +161,44 @@ public class Find extends JFrame implements ActionListener {
             replaceAll();
         } else if (e.getSource() == cancel) {
             this.setVisible(false);
+        } else if (e.getSource() == regex) {
+            // Replacing works on literal matches only
+            cancelRegexSearch();
+            replace.setEnabled(!regex.isSelected());
+            replaceAll.setEnabled(!regex.isSelected());
+            updateHighlighter();
+        } else if (e.getSource() == highlightAll) {
+            updateHighlighter();
         }
     }
 
     private void replaceAll() {
-        txt.setText(txt.getText().toLowerCase().replaceAll(textF.getText().toLowerCase(), textR.getText()));
+        String query = textF.getText();
+        if (query.isEmpty()) {
+            return;
+        }
+        Document doc = txt.getDocument();
+        int[] starts = searcher(query).findAll(doc);
+        if (starts.length == 0) {
+            JOptionPane.showMessageDialog(this, "Could not find " + query);
+            return;
+        }
+        try {
+            if (doc instanceof PieceTableDocument) {
+                ((PieceTableDocument) doc).replaceAll(starts, query.length(), textR.getText());
+            } else {
+                // Replace from the end so earlier match positions stay valid
+                for (int i = starts.length - 1; i >= 0; i--) {
+                    doc.remove(starts[i], query.length());
+                    doc.insertString(starts[i], textR.getText(), null);
+                }
+            }
+        } catch (BadLocationException e) {
+            JOptionPane.showMessageDialog(this, "Could not replace: " + e.getMessage());
+            return;
+        }
+        startIndex = 0;
+        JOptionPane.showMessageDialog(this, "Replaced " + starts.length + " occurrence(s)");
     }
 
     private void replace() {
@@ -111,6 +211,10 @@ public class Find extends JFrame implements ActionListener {
     }
 
     private void findNext() {
+        if (regex.isSelected()) {
+            findRegex(false);
+            return;
+        }
         String selection = txt.getSelectedText();
 
         // Get search text from selection or input field
@@ -125,39 +229,149 @@ public class Find extends JFrame implements ActionListener {
             }
         }
 
-        // Perform the search
-        int select_start = txt.getText().toLowerCase().indexOf(selection.toLowerCase(), startIndex);
+        // Perform the search, wrapping around at the end
+        int select_start = searcher(selection).findWrapped(txt.getDocument(), startIndex);
         if (select_start == -1) {
-            // Not found from current position, wrap around
-            select_start = txt.getText().toLowerCase().indexOf(selection.toLowerCase(), 0);
-            if (select_start == -1) {
-                JOptionPane.showMessageDialog(this, "Could not find: " + selection);
-                return;
-            }
+            JOptionPane.showMessageDialog(this, "Could not find: " + selection);
+            return;
         }
 
         int select_end = select_start + selection.length();
         txt.select(select_start, select_end);
-        startIndex = select_end + 1;
-
-        // Reset to beginning if we've reached the last occurrence
-        if (select_start == txt.getText().toLowerCase().lastIndexOf(selection.toLowerCase())) {
-            startIndex = 0;
-        }
+        startIndex = select_end;
     }
 
     private void find() {
-        select_start = txt.getText().toLowerCase().indexOf(textF.getText().toLowerCase());
+        if (regex.isSelected()) {
+            findRegex(true);
+            return;
+        }
+        select_start = searcher(textF.getText()).find(txt.getDocument(), 0);
         if (select_start == -1) {
             startIndex = 0;
             JOptionPane.showMessageDialog(null, "Could not find " + textF.getText());
             return;
         }
-        if (select_start == txt.getText().toLowerCase().lastIndexOf(textF.getText().toLowerCase())) {
-            startIndex = 0;
-        }
         int select_end = select_start + textF.getText().length();
         txt.select(select_start, select_end);
+        startIndex = select_end;
+    }
+
+    /**
+     * Selects the next regex match, starting a background search of the whole
+     * text if the pattern has none yet. When the match has not been reached
+     * yet, it is selected as soon as the search finds it.
+     */
+    private void findRegex(boolean fromStart) {
+        String query = textF.getText();
+        if (query.isEmpty()) {
+            return;
+        }
+        if (regexSearch == null) {
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(query, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.MULTILINE);
+            } catch (PatternSyntaxException e) {
+                status.setText("Invalid pattern: " + e.getDescription());
+                return;
+            }
+            startRegexSearch(pattern);
+        }
+        if (fromStart) {
+            startIndex = 0;
+        }
+        selectPending = true;
+        selectNextRegexMatch();
+    }
+
+    private void startRegexSearch(Pattern pattern) {
+        Document doc = txt.getDocument();
+        CharSequence text;
+        if (doc instanceof PieceTableDocument) {
+            text = ((PieceTableDocument) doc).snapshot().chars();
+        } else {
+            try {
+                text = doc.getText(0, doc.getLength());
+            } catch (BadLocationException e) {
+                return;
+            }
+        }
+        status.setText("Searching...");
+        regexSearch = new RegexSearch(pattern, text, new RegexSearch.Listener() {
+            @Override
+            public void searchProgress(int matchCount) {
+                status.setText(String.format("%,d matches so far", matchCount));
+                if (selectPending) {
+                    selectNextRegexMatch();
+                }
+            }
+
+            @Override
+            public void searchFinished(int matchCount) {
+                status.setText(String.format("%,d matches", matchCount));
+                if (selectPending) {
+                    selectNextRegexMatch();
+                }
+            }
+        });
+        regexSearch.start();
+    }
+
+    private void selectNextRegexMatch() {
+        int index = regexSearch.indexOf(startIndex);
+        if (index < 0 && !regexSearch.isFinished()) {
+            return; // Still searching; try again when more matches arrive
+        }
+        selectPending = false;
+        if (index < 0 && regexSearch.getMatchCount() > 0) {
+            index = 0; // Wrap around to the first match
+        }
+        if (index < 0) {
+            startIndex = 0;
+            JOptionPane.showMessageDialog(this, "Could not find " + regexSearch.getPattern().pattern());
+            return;
+        }
+        int start = regexSearch.getStart(index);
+        int end = regexSearch.getEnd(index);
+        txt.select(start, end);
+        startIndex = end > start ? end : end + 1; // Step over empty matches
+    }
+
+    private void cancelRegexSearch() {
+        if (regexSearch != null) {
+            regexSearch.cancel();
+            regexSearch = null;
+            selectPending = false;
+            status.setText("");
+        }
+    }
+
+    /**
+     * Shows, updates or removes the highlights of all visible matches.
+     */
+    private void updateHighlighter() {
+        if (!highlightAll.isSelected()) {
+            if (highlighter != null) {
+                highlighter.dispose();
+                highlighter = null;
+            }
+            return;
+        }
+        if (highlighter == null) {
+            highlighter = new MatchHighlighter(txt);
+        }
+        highlighter.setQuery(textF.getText(), regex.isSelected());
+    }
+
+    /**
+     * Gets a case-insensitive searcher for the query, reusing the previous
+     * one while the query stays the same.
+     */
+    private TextSearcher searcher(String query) {
+        if (searcher == null || !searcher.isFor(query, true)) {
+            searcher = new TextSearcher(query, true);
+        }
+        return searcher;
     }
 
 }
@@ -1,6 +1,13 @@
 package jv;
 
+import jv.controller.EditJournal;
+import jv.util.DialogUtils;
+import jv.util.ResourceManager;
+import jv.util.StartupTimer;
+
+import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
+import java.util.List;
 
 /**
  * Main entry point for the Javitor text editor application.
@@ -11,13 +18,56 @@ import javax.swing.SwingUtilities;
 public class SimpleJavaTextEditor {
 
 	public static void main(String[] args) {
+		StartupTimer.mark("main");
+
 		// Set application name for macOS
 		System.setProperty("apple.awt.application.name", "Javitor");
-		
+
+		// A scripted launch that trains the class data sharing archive
+		if (args.length > 0 && args[0].equals("--training-run")) {
+			TrainingRun.run();
+			return;
+		}
+
+		// Startup benchmarks only time the launch up to the first frame
+		boolean exitWhenInteractive = args.length > 0 && args[0].equals("--exit-when-interactive");
+
+		// Load the icons in parallel while the window is being built
+		ResourceManager.preloadIcons();
+
 		// Run UI creation on the Event Dispatch Thread for thread safety
 		SwingUtilities.invokeLater(() -> {
 			UI ui = new UI();
+			StartupTimer.mark("window built");
+			if (exitWhenInteractive) {
+				ui.whenInteractive(() -> {
+					ui.dispose();
+					System.exit(0);
+				});
+			} else {
+				// Replay the journals left by sessions that crashed once the
+				// window is up; a benchmark leaves them for the next real launch
+				ui.whenInteractive(() -> EditJournal.recoverOrphans(recoveries -> offerRecoveries(ui, recoveries)));
+			}
 			ui.setVisible(true);
 		});
 	}
+
+	/**
+	 * Asks whether to restore each recovered document. Each one restored
+	 * opens in a tab of the main window, the first one taking the place of
+	 * its empty document.
+	 */
+	private static void offerRecoveries(UI ui, List<EditJournal.Recovery> recoveries) {
+		for (EditJournal.Recovery recovery : recoveries) {
+			String name = recovery.getFile() != null ? recovery.getFile().getName() : "Untitled";
+			int choice = DialogUtils.confirmRecovery(ui, name, recovery.getEditCount(),
+					recovery.getLastEdited());
+			if (choice == JOptionPane.YES_OPTION) {
+				ui.restore(recovery);
+			} else if (choice == JOptionPane.NO_OPTION) {
+				recovery.discard();
+			}
+		}
+	}
 }
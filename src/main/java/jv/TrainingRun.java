@@ -0,0 +1,147 @@
+package jv;
+
+import jv.actions.EditActions;
+import jv.actions.FileActions;
+import jv.actions.FindActions;
+import jv.components.UIMenuBar;
+import jv.components.UIToolBar;
+import jv.controller.FileLoader;
+import jv.controller.FileManager;
+import jv.controller.FileSaver;
+import jv.search.TextSearcher;
+import jv.util.Constants;
+import jv.util.ResourceManager;
+import jv.util.StartupTimer;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A scripted launch of the editor that goes through what a short session
+ * does: build the window, load, edit, search, undo and save a file, then
+ * exit. Run with {@code -XX:ArchiveClassesAtExit} it records the classes a
+ * real launch needs in an AppCDS archive, which later launches map instead
+ * of loading and verifying those classes again.
+ * <p>
+ * Without a display only the components are built, not shown; with one the
+ * main window is shown too and the run ends once it is interactive, which
+ * also makes it a startup benchmark.
+ */
+final class TrainingRun {
+
+    private static final String SAMPLE_LINE = "The quick brown fox jumps over the lazy dog 0123456789\r\n";
+    private static final int SAMPLE_LINES = 20_000;
+
+    /**
+     * Runs the training session and exits the JVM.
+     */
+    static void run() {
+        try {
+            ResourceManager.preloadIcons();
+            exerciseEditing();
+            if (GraphicsEnvironment.isHeadless()) {
+                StartupTimer.mark("ready");
+                System.exit(0);
+            }
+            SwingUtilities.invokeLater(() -> {
+                UI ui = new UI();
+                StartupTimer.mark("window built");
+                ui.whenInteractive(() -> {
+                    ui.dispose();
+                    System.exit(0);
+                });
+                ui.setVisible(true);
+            });
+        } catch (Exception e) {
+            System.err.println("Training run failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Builds the components of a tab, the menus and the tool bar, then
+     * loads, edits, searches and saves a sample file.
+     */
+    private static void exerciseEditing() throws Exception {
+        File file = Files.createTempFile("javitor-training-", ".txt").toFile();
+        try {
+            Files.writeString(file.toPath(), SAMPLE_LINE.repeat(SAMPLE_LINES), StandardCharsets.UTF_8);
+            EditorTab[] tab = new EditorTab[1];
+            CountDownLatch loaded = new CountDownLatch(1);
+            SwingUtilities.invokeAndWait(() -> {
+                tab[0] = new EditorTab(new Font(Constants.DEFAULT_FONT_NAME, Constants.DEFAULT_FONT_STYLE,
+                        Constants.DEFAULT_FONT_SIZE), (t, change) -> {
+                        });
+                buildMenus(tab[0]);
+                new FileLoader(file, tab[0].getDocumentModel(), new FileLoader.Listener() {
+                    @Override
+                    public void loadStarted() {
+                    }
+
+                    @Override
+                    public void loadProgress(long bytesRead, long totalBytes) {
+                    }
+
+                    @Override
+                    public void loadFinished() {
+                        loaded.countDown();
+                    }
+
+                    @Override
+                    public void loadFailed(IOException e) {
+                        System.err.println("Training load failed: " + e.getMessage());
+                        loaded.countDown();
+                    }
+                }).start();
+            });
+            loaded.await();
+            SwingUtilities.invokeAndWait(() -> {
+                JTextArea textArea = tab[0].getTextArea();
+                textArea.setCaretPosition(0);
+                textArea.insert("Edited by the training run\n", 0);
+                textArea.replaceRange("", 0, 7);
+                tab[0].getUndoHistory().undo();
+                tab[0].getUndoHistory().redo();
+                new TextSearcher("LAZY DOG", true).findAll(textArea.getDocument());
+            });
+            IOException error = new FileSaver(file, tab[0].getDocumentModel().snapshot(), null).saveAndWait();
+            if (error != null) {
+                System.err.println("Training save failed: " + error.getMessage());
+            }
+            SwingUtilities.invokeAndWait(tab[0]::close);
+        } finally {
+            if (!file.delete()) {
+                System.err.println("Could not delete training file " + file);
+            }
+        }
+    }
+
+    private static void buildMenus(EditorTab tab) {
+        FileManager fileManager = new FileManager();
+        Action newFile = new FileActions.NewFileAction(tab, tab::getDocumentModel, fileManager, tab::getTextArea);
+        Action open = new FileActions.OpenFileAction(tab, tab::getDocumentModel, fileManager, tab::getTextArea);
+        Action openLarge = new FileActions.OpenLargeFileAction(tab, tab::getDocumentModel, fileManager,
+                tab::getTextArea);
+        Action follow = new FileActions.FollowAction(tab, fileManager);
+        Action save = new FileActions.SaveFileAction(tab, tab::getDocumentModel, fileManager);
+        Action closeTab = new FileActions.CloseTabAction(tab);
+        Action close = new FileActions.CloseAction(tab, tab::getDocumentModel, fileManager);
+        Action clear = new EditActions.ClearAction(tab, tab::getDocumentModel, tab::getTextArea);
+        Action undo = new EditActions.UndoAction(tab::getUndoHistory);
+        Action redo = new EditActions.RedoAction(tab::getUndoHistory);
+        Action goToLine = new EditActions.GoToLineAction(tab, tab::getTextArea);
+        Action find = new FindActions.FindAction(null, tab::getTextArea);
+        new UIMenuBar(null, newFile, open, openLarge, follow, save, closeTab, close, undo, redo, clear, goToLine,
+                find);
+        new UIToolBar(null, newFile, open, save, close, undo, redo, clear, find);
+        new JFileChooser();
+    }
+
+    private TrainingRun() {
+    }
+}
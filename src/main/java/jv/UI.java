@@ -3,83 +3,109 @@ package jv;
 import jv.actions.EditActions;
 import jv.actions.FileActions;
 import jv.actions.FindActions;
+import jv.controller.EditJournal;
+import jv.controller.FileFollower;
+import jv.controller.FileLoader;
 import jv.controller.FileManager;
+import jv.controller.FileSaver;
+import jv.controller.FileWatcher;
+import jv.controller.TabMemoryBudget;
 import jv.model.DocumentModel;
+import jv.model.FileFormat;
+import jv.model.FileLayout;
+import jv.model.MappedTextFile;
+import jv.model.TextStatistics;
+import jv.model.UndoHistory;
 import jv.util.Constants;
-import jv.components.LineNumberComponent;
+import jv.util.DialogUtils;
+import jv.util.StartupTimer;
+import jv.components.LargeFileView;
 import jv.components.StatusBar;
 import jv.components.UIMenuBar;
 import jv.components.UIToolBar;
 
 import javax.swing.*;
-import javax.swing.event.DocumentEvent;
-import javax.swing.event.DocumentListener;
-import javax.swing.undo.UndoManager;
+import javax.swing.text.Caret;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Main UI frame for the Javitor text editor.
  * Refactored to use MVC pattern with separated concerns.
+ * <p>
+ * Each open document has a tab of its own; see {@link EditorTab}. The
+ * actions work on the current tab. The text of tabs left in the background
+ * is dropped once all tabs together hold more than
+ * {@link Constants#TAB_MEMORY_BUDGET}, least recently used first, and
+ * brought back when the tab is shown again.
  */
 public class UI extends JFrame {
 
     private static final long serialVersionUID = 1L;
 
-    // Model and Controllers
-    private final DocumentModel documentModel;
+    // Controllers
     private final FileManager fileManager;
+    private final TabMemoryBudget memoryBudget;
 
     // UI Components
-    private final JTextArea textArea;
+    private final JTabbedPane tabs;
     private final StatusBar statusBar;
+    private final Timer statusRefresh;
+    private final Font editorFont;
+    private EditorTab currentTab;
 
     // Actions
     private FileActions.NewFileAction newFileAction;
     private FileActions.OpenFileAction openFileAction;
+    private FileActions.OpenLargeFileAction openLargeFileAction;
+    private FileActions.FollowAction followAction;
     private FileActions.SaveFileAction saveFileAction;
+    private FileActions.CloseTabAction closeTabAction;
     private FileActions.CloseAction closeAction;
     private EditActions.ClearAction clearAction;
     private EditActions.UndoAction undoAction;
     private EditActions.RedoAction redoAction;
+    private EditActions.GoToLineAction goToLineAction;
     private FindActions.FindAction findAction;
 
-    // Undo Manager
-    private final UndoManager undoManager;
-
-    // State flags
-    private boolean isLoading = false;
+    private boolean saving;
+    private boolean closeWhenSaved;
+    private boolean fileChangePending;
+    private boolean painted;
+    private boolean interactive;
+    private Runnable interactiveTask;
 
     public UI() {
-        // Initialize model and controllers
-        documentModel = new DocumentModel();
+        // Initialize controllers
         fileManager = new FileManager();
-
-        // Initialize undo manager
-        undoManager = new UndoManager();
+        memoryBudget = new TabMemoryBudget(Constants.TAB_MEMORY_BUDGET);
 
         // Initialize UI components
-        textArea = new JTextArea("", 0, 0);
-        textArea.setFont(
-                new Font(Constants.DEFAULT_FONT_NAME, Constants.DEFAULT_FONT_STYLE, Constants.DEFAULT_FONT_SIZE));
+        editorFont = new Font(Constants.DEFAULT_FONT_NAME, Constants.DEFAULT_FONT_STYLE, Constants.DEFAULT_FONT_SIZE);
+        tabs = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
         statusBar = new StatusBar();
+        statusRefresh = new Timer(Constants.STATUS_REFRESH_INTERVAL_MS, e -> updateStatusBar());
+        statusRefresh.setRepeats(false);
 
         // Setup the UI
         initializeFrame();
         initializeActions();
-        setupUndoManager();
-        setupUndoManager();
 
-        setJMenuBar(new UIMenuBar(this, newFileAction, openFileAction, saveFileAction, closeAction, undoAction,
-                redoAction, clearAction, findAction));
+        setJMenuBar(new UIMenuBar(this, newFileAction, openFileAction, openLargeFileAction, followAction,
+                saveFileAction, closeTabAction, closeAction, undoAction, redoAction, clearAction, goToLineAction,
+                findAction));
         add(new UIToolBar(this, newFileAction, openFileAction, saveFileAction, closeAction, undoAction, redoAction,
                 clearAction, findAction), BorderLayout.NORTH);
+        add(tabs, BorderLayout.CENTER);
         add(statusBar, BorderLayout.SOUTH);
 
-        setupTextArea();
         setupListeners();
-        updateStatusBar();
+        setupSaveProgress();
+        newTab();
     }
 
     /**
@@ -87,7 +113,7 @@ public class UI extends JFrame {
      */
     private void initializeFrame() {
         setSize(Constants.DEFAULT_WINDOW_WIDTH, Constants.DEFAULT_WINDOW_HEIGHT);
-        setTitle(documentModel.getWindowTitle());
+        setTitle(Constants.TITLE_UNTITLED);
         setDefaultCloseOperation(DO_NOTHING_ON_CLOSE); // Handle closing manually
         getContentPane().setLayout(new BorderLayout());
     }
@@ -96,100 +122,727 @@ public class UI extends JFrame {
      * Initializes all action objects.
      */
     private void initializeActions() {
-        newFileAction = new FileActions.NewFileAction(this, documentModel, fileManager, textArea);
-        openFileAction = new FileActions.OpenFileAction(this, documentModel, fileManager, textArea);
-        saveFileAction = new FileActions.SaveFileAction(this, documentModel, fileManager);
-        closeAction = new FileActions.CloseAction(this, documentModel, fileManager);
-        clearAction = new EditActions.ClearAction(this, documentModel, textArea);
-        undoAction = new EditActions.UndoAction(undoManager);
-        redoAction = new EditActions.RedoAction(undoManager);
-        findAction = new FindActions.FindAction(this, textArea);
+        newFileAction = new FileActions.NewFileAction(this, this::getDocumentModel, fileManager, this::getTextArea);
+        openFileAction = new FileActions.OpenFileAction(this, this::getDocumentModel, fileManager, this::getTextArea);
+        openLargeFileAction = new FileActions.OpenLargeFileAction(this, this::getDocumentModel, fileManager,
+                this::getTextArea);
+        followAction = new FileActions.FollowAction(this, fileManager);
+        saveFileAction = new FileActions.SaveFileAction(this, this::getDocumentModel, fileManager);
+        closeTabAction = new FileActions.CloseTabAction(this);
+        closeAction = new FileActions.CloseAction(this, this::getDocumentModel, fileManager);
+        clearAction = new EditActions.ClearAction(this, this::getDocumentModel, this::getTextArea);
+        undoAction = new EditActions.UndoAction(this::getUndoHistory);
+        redoAction = new EditActions.RedoAction(this::getUndoHistory);
+        goToLineAction = new EditActions.GoToLineAction(this, this::getTextArea);
+        findAction = new FindActions.FindAction(this, this::getTextArea);
     }
 
     /**
-     * Sets up the text area with scroll pane.
+     * Sets up event listeners for tab switches and window closing.
      */
-    private void setupTextArea() {
-        // CRITICAL FIX: Add scroll pane!
-        JScrollPane scrollPane = new JScrollPane(textArea);
-        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
-        scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+    private void setupListeners() {
+        tabs.addChangeListener(e -> tabSelected());
 
-        // Add line numbers
-        LineNumberComponent lineNumberComponent = new LineNumberComponent(textArea);
-        scrollPane.setRowHeaderView(lineNumberComponent);
+        // Handle window closing with unsaved changes check
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (saving) {
+                    closeWhenSaved = true; // Exiting now would cut the save short
+                    return;
+                }
+                closeAction.actionPerformed(null);
+            }
+        });
+    }
 
-        getContentPane().add(scrollPane, BorderLayout.CENTER);
+    /**
+     * Shows the progress of saves in the status bar and reports the
+     * throughput when a save completes.
+     */
+    private void setupSaveProgress() {
+        fileManager.setSaveListener(new FileSaver.Listener() {
+            @Override
+            public void saveStarted(File file) {
+                saving = true; // One save at a time
+                updateActions();
+                statusBar.startProgress("Saving " + file.getName(), null);
+            }
+
+            @Override
+            public void saveProgress(long charsWritten, long totalChars) {
+                statusBar.setProgress(charsWritten, totalChars);
+            }
+
+            @Override
+            public void saveFinished(File file, long bytesWritten, long nanos, IOException error) {
+                saving = false;
+                updateActions();
+                updateProgress();
+                if (closeWhenSaved) {
+                    // Asked once the saved document has its new state
+                    closeWhenSaved = false;
+                    SwingUtilities.invokeLater(() -> closeAction.actionPerformed(null));
+                }
+                if (error == null) {
+                    double seconds = Math.max(nanos, 1) / 1e9;
+                    double megabytes = bytesWritten / (1024.0 * 1024.0);
+                    statusBar.setMessage(String.format("Saved %s: %.1f MB in %.2f s (%.1f MB/s)", file.getName(),
+                            megabytes, seconds, megabytes / seconds));
+                }
+                updateTitle();
+                updateStatusBar();
+            }
+        });
     }
 
     /**
-     * Sets up the undo manager and attaches it to the text area's document.
+     * Records the first paint of the window for the startup log. Once the
+     * events queued meanwhile are handled the window is interactive, and the
+     * file chooser is prepared while the editor is idle.
      */
-    private void setupUndoManager() {
-        textArea.getDocument().addUndoableEditListener(undoManager);
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!painted) {
+            painted = true;
+            StartupTimer.mark("first paint");
+            SwingUtilities.invokeLater(() -> {
+                interactive = true;
+                StartupTimer.mark("interactive");
+                fileManager.prewarmFileChooser();
+                if (interactiveTask != null) {
+                    interactiveTask.run();
+                    interactiveTask = null;
+                }
+            });
+        }
     }
 
     /**
-     * Sets up event listeners for document changes and window closing.
+     * Runs a task once the window has painted and become interactive, such
+     * as ending a scripted startup run.
+     *
+     * @param task The task, run on the Event Dispatch Thread
      */
-    private void setupListeners() {
-        // Listen for text changes to update modification state
-        textArea.getDocument().addDocumentListener(new DocumentListener() {
+    public void whenInteractive(Runnable task) {
+        if (interactive) {
+            task.run();
+        } else {
+            interactiveTask = task;
+        }
+    }
+
+    /**
+     * Gets the document model of the current tab.
+     *
+     * @return The document model
+     */
+    public DocumentModel getDocumentModel() {
+        return currentTab.getDocumentModel();
+    }
+
+    /**
+     * Gets the text area of the current tab.
+     *
+     * @return The text area
+     */
+    public JTextArea getTextArea() {
+        return currentTab.getTextArea();
+    }
+
+    /**
+     * Gets the undo history of the current tab.
+     *
+     * @return The undo history
+     */
+    public UndoHistory getUndoHistory() {
+        return currentTab.getUndoHistory();
+    }
+
+    /**
+     * Opens a new tab with an empty document and shows it.
+     *
+     * @return The new tab
+     */
+    public EditorTab newTab() {
+        EditorTab tab = new EditorTab(editorFont, this::fileChanged);
+        DocumentModel model = tab.getDocumentModel();
+
+        // Keep the counts in the status bar current as the text or the
+        // selection changes
+        tab.getStatistics().addChangeListener(e -> documentChanged(tab));
+        tab.getTextArea().addCaretListener(e -> documentChanged(tab));
+
+        // The model tracks dirtiness itself; reflect changes in the title
+        model.addPropertyChangeListener(e -> {
+            if (DocumentModel.PROPERTY_MODIFIED.equals(e.getPropertyName()) && tab == currentTab) {
+                updateTitle();
+                updateStatusBar();
+            }
+        });
+
+        memoryBudget.add(tab);
+        tabs.addTab(model.getDisplayName(), tab);
+        tab.updateTabTitle();
+        tabs.setSelectedComponent(tab);
+        return tab;
+    }
+
+    /**
+     * Updates the status bar after a change in a tab, at most once per frame
+     * however fast the changes come.
+     */
+    private void documentChanged(EditorTab tab) {
+        if (tab == currentTab && !statusRefresh.isRunning()) {
+            statusRefresh.start();
+        }
+    }
+
+    /**
+     * Gets the tab to open a file in: the current one if it holds an
+     * untouched new document, otherwise a new one.
+     */
+    private EditorTab targetTab() {
+        return currentTab != null && currentTab.isPristine() ? currentTab : newTab();
+    }
+
+    /**
+     * Gets the tab a file is open in.
+     *
+     * @param file The file
+     * @return The tab, or null if the file is not open
+     */
+    private EditorTab findTab(File file) {
+        File absolute = file.getAbsoluteFile();
+        for (int i = 0; i < tabs.getTabCount(); i++) {
+            EditorTab tab = (EditorTab) tabs.getComponentAt(i);
+            if (tab.getFile() != null && tab.getFile().getAbsoluteFile().equals(absolute)) {
+                return tab;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Makes the selected tab the current one: brings back its text if it was
+     * evicted and shows its state. Other tabs may be evicted now to stay
+     * within the memory budget.
+     */
+    private void tabSelected() {
+        EditorTab tab = (EditorTab) tabs.getSelectedComponent();
+        if (tab == currentTab) {
+            return;
+        }
+        if (currentTab != null) {
+            currentTab.setShown(false);
+        }
+        currentTab = tab;
+        if (tab == null) {
+            return; // The last tab was closed
+        }
+        tab.setShown(true);
+        memoryBudget.touch(tab);
+        FileWatcher.Change change = tab.takePendingChange();
+        if (!rehydrate(tab)) {
+            change = null; // Read from the file as it is now anyway
+        }
+        followAction.putValue(Action.SELECTED_KEY, tab.getFileFollower() != null);
+        updateActions();
+        updateProgress();
+        updateTitle();
+        updateStatusBar();
+        memoryBudget.enforce();
+        if (change != null) {
+            FileWatcher.Change pending = change;
+            SwingUtilities.invokeLater(() -> fileChanged(tab, pending));
+        }
+    }
+
+    /**
+     * Brings back the text of an evicted tab, from its spill file or from
+     * its file.
+     *
+     * @return false if the file is being loaded again
+     */
+    private boolean rehydrate(EditorTab tab) {
+        if (!tab.getSpill().isEvicted()) {
+            return true;
+        }
+        try {
+            if (tab.restore()) {
+                return true;
+            }
+            loadFile(tab, tab.getDocumentModel().getCurrentFile(), tab.getEvictedCaret());
+            return false;
+        } catch (IOException e) {
+            DialogUtils.showError(this, Constants.MSG_FILE_READ_ERROR_TITLE,
+                    Constants.MSG_FILE_READ_ERROR + e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Opens a file in the editor, in a tab of its own unless it is open
+     * already. The file is read in the background; its text appears as it
+     * is decoded and the status bar shows the progress with a button to
+     * cancel.
+     *
+     * @param file The file to open
+     */
+    public void openFile(File file) {
+        EditorTab open = findTab(file);
+        if (open != null) {
+            tabs.setSelectedComponent(open);
+            return;
+        }
+        loadFile(targetTab(), file, 0);
+    }
+
+    private void loadFile(EditorTab tab, File file, int caret) {
+        cancelLoad(tab);
+        if (tab.getLargeFileView() != null) {
+            tab.setLargeFileView(null);
+        }
+        tab.setFileLoader(new FileLoader(file, tab.getDocumentModel(), createLoadListener(tab, caret)));
+        startLoad(tab);
+    }
+
+    /**
+     * Reads the text another program appended to the file of the document
+     * and adds it to the end, the way a file is loaded.
+     */
+    private void loadAppendedText(EditorTab tab) {
+        int caret = tab.getTextArea().getCaretPosition();
+        tab.setFileLoader(FileLoader.appended(tab.getDocumentModel(), createLoadListener(tab, caret)));
+        startLoad(tab);
+    }
+
+    private void startLoad(EditorTab tab) {
+        FileLoader loader = tab.getFileLoader();
+        if (tab == currentTab) {
+            updateActions();
+            updateProgress();
+        }
+        loader.start();
+    }
+
+    /**
+     * Follows a file that keeps growing, in a tab of its own: shows its last
+     * {@link Constants#FOLLOW_MAX_LINES} lines, numbered as in the file, and
+     * adds new lines as they are written. The tab is read-only meanwhile.
+     *
+     * @param file The file to follow
+     */
+    public void followFile(File file) {
+        EditorTab tab = targetTab();
+        JTextArea textArea = tab.getTextArea();
+        FileFollower follower = new FileFollower(file, tab.getDocumentModel(), new FileFollower.Listener() {
             @Override
-            public void insertUpdate(DocumentEvent e) {
-                if (!isLoading)
-                    updateDocumentState();
+            public void followed(long firstLineNumber) {
+                tab.getLineNumberComponent().setFirstLineNumber(firstLineNumber);
+                textArea.setCaretPosition(textArea.getDocument().getLength());
+                documentChanged(tab);
             }
 
             @Override
-            public void removeUpdate(DocumentEvent e) {
-                if (!isLoading)
-                    updateDocumentState();
+            public void followFailed(IOException e) {
+                stopFollowing(tab);
+                DialogUtils.showError(UI.this, Constants.MSG_FILE_READ_ERROR_TITLE,
+                        Constants.MSG_FILE_READ_ERROR + e.getMessage());
             }
+        }, Constants.FOLLOW_MAX_LINES);
+        tab.setFileFollower(follower);
+        follower.start();
+        followAction.putValue(Action.SELECTED_KEY, true);
+        statusBar.setMessage(String.format(Constants.MSG_FOLLOWING, file.getName()));
+        updateActions();
+        updateTitle();
+        updateStatusBar();
+    }
 
+    /**
+     * Checks if the current tab follows a file.
+     *
+     * @return true while the current tab shows the end of a growing file
+     */
+    public boolean isFollowing() {
+        return currentTab != null && currentTab.getFileFollower() != null;
+    }
+
+    /**
+     * Gets the number in its file of the first line of the current document,
+     * which is past 1 once following a file has dropped lines from its start.
+     *
+     * @return The line number, starting at 1
+     */
+    public long getFirstLineNumber() {
+        return isFollowing() ? currentTab.getFileFollower().getFirstLineNumber() : 1;
+    }
+
+    /**
+     * Stops following a file in the current tab.
+     */
+    public void stopFollowing() {
+        stopFollowing(currentTab);
+    }
+
+    /**
+     * Stops following a file. The lines shown stay in the tab as an untitled
+     * document, since they may be only the end of the file.
+     */
+    private void stopFollowing(EditorTab tab) {
+        FileFollower follower = tab.getFileFollower();
+        if (follower == null) {
+            return;
+        }
+        follower.stop();
+        tab.setFileFollower(null);
+        DocumentModel model = tab.getDocumentModel();
+        JTextArea textArea = tab.getTextArea();
+        model.setCurrentFile(null);
+        model.load(textArea.getText()); // Detached from the file
+        tab.getLineNumberComponent().setFirstLineNumber(1);
+        textArea.setCaretPosition(model.getLength());
+        if (tab == currentTab) {
+            followAction.putValue(Action.SELECTED_KEY, false);
+            statusBar.setMessage(String.format(Constants.MSG_FOLLOW_STOPPED, follower.getFile().getName()));
+            updateActions();
+            updateTitle();
+            updateStatusBar();
+        }
+    }
+
+    private FileLoader.Listener createLoadListener(EditorTab tab, int caret) {
+        JTextArea textArea = tab.getTextArea();
+        return new FileLoader.Listener() {
             @Override
-            public void changedUpdate(DocumentEvent e) {
-                if (!isLoading)
-                    updateDocumentState();
+            public void loadStarted() {
+                textArea.setCaretPosition(0);
+                tab.updateTabTitle();
+                if (tab == currentTab) {
+                    updateTitle();
+                    updateStatusBar();
+                }
             }
 
-            private void updateDocumentState() {
-                documentModel.setText(textArea.getText(), true);
-                setTitle(documentModel.getWindowTitle());
-                updateStatusBar();
+            @Override
+            public void loadProgress(long bytesRead, long totalBytes) {
+                if (tab == currentTab) {
+                    statusBar.setProgress(bytesRead, totalBytes);
+                }
             }
-        });
 
-        // Handle window closing with unsaved changes check
-        addWindowListener(new WindowAdapter() {
             @Override
-            public void windowClosing(WindowEvent e) {
-                closeAction.actionPerformed(null);
+            public void loadFinished() {
+                endLoad(tab);
+                textArea.setCaretPosition(Math.min(caret, textArea.getDocument().getLength()));
             }
-        });
+
+            @Override
+            public void loadFailed(IOException e) {
+                endLoad(tab);
+                DialogUtils.showError(UI.this, Constants.MSG_FILE_READ_ERROR_TITLE,
+                        Constants.MSG_FILE_READ_ERROR + e.getMessage());
+            }
+        };
     }
 
     /**
-     * Loads content into the text area without triggering the modification
-     * listener.
-     * 
-     * @param text The text to load
+     * Offers to reload the file after another program changed it. When it
+     * only grew and the document is unmodified, only the added text is read.
+     * While one question is open, further changes are not asked about; the
+     * answer covers them, as the file is read as it is then. Changes to the
+     * file of a background tab are asked about when the tab is shown.
+     *
+     * @param tab    The tab showing the file
+     * @param change The change of the file
      */
-    public void loadContent(String text) {
-        isLoading = true;
+    private void fileChanged(EditorTab tab, FileWatcher.Change change) {
+        if (tab != currentTab) {
+            tab.setPendingChange(change);
+            return;
+        }
+        if (fileChangePending || tab.isBusy()) {
+            return;
+        }
+        File file = change.getFile();
+        if (change.getKind() == FileWatcher.Kind.DELETED) {
+            statusBar.setMessage(String.format(Constants.MSG_FILE_DELETED, file.getName()));
+            return;
+        }
+        fileChangePending = true;
         try {
-            textArea.setText(text);
-            textArea.setCaretPosition(0);
+            if (change.getKind() == FileWatcher.Kind.APPENDED && canLoadAppendedText(tab, change)) {
+                if (DialogUtils.confirmAction(this, Constants.MSG_FILE_CHANGED_TITLE, String.format(
+                        Constants.MSG_FILE_GREW, file.getName(), change.getNewSize() - change.getOldSize()))) {
+                    loadAppendedText(tab);
+                }
+                return;
+            }
+            String message = tab.getDocumentModel().isModified() ? Constants.MSG_FILE_CHANGED_LOSE_EDITS
+                    : Constants.MSG_FILE_CHANGED;
+            if (DialogUtils.confirmAction(this, Constants.MSG_FILE_CHANGED_TITLE,
+                    String.format(message, file.getName()))) {
+                loadFile(tab, file, 0);
+            }
         } finally {
-            isLoading = false;
+            fileChangePending = false;
+        }
+    }
+
+    /**
+     * Checks that the document still holds exactly the text the file had
+     * before it grew. A carriage return ending that text may be the first
+     * half of a line separator, which only a full reload puts together.
+     */
+    private boolean canLoadAppendedText(EditorTab tab, FileWatcher.Change change) {
+        DocumentModel model = tab.getDocumentModel();
+        FileLayout layout = model.getFileLayout();
+        if (model.isModified() || layout == null || layout.getText() == null
+                || layout.getSize() != change.getOldSize()) {
+            return false;
+        }
+        int length = layout.getText().length();
+        return model.getFileFormat().getLineSeparator() != FileFormat.LineSeparator.CRLF
+                || length == 0 || layout.getText().charAt(length - 1) != '\r';
+    }
+
+    /**
+     * Shows a document recovered from the journal of a crashed session, in a
+     * tab of its own. The document is marked as modified, and its journal
+     * continues from the recovered text.
+     *
+     * @param recovery The recovered document
+     */
+    public void restore(EditJournal.Recovery recovery) {
+        EditorTab tab = targetTab();
+        DocumentModel model = tab.getDocumentModel();
+        model.setCurrentFile(recovery.getFile());
+        model.setFileFormat(recovery.getFormat());
+        model.load(recovery.getText());
+        model.setModified(true);
+        tab.getEditJournal().adopt(recovery);
+        tab.getTextArea().setCaretPosition(0);
+        tab.updateTabTitle();
+        updateTitle();
+        updateStatusBar();
+    }
+
+    /**
+     * Closes the current tab, asking to save its changes first. Closing the
+     * last tab leaves a new empty one. Nothing is closed while a save runs.
+     */
+    public void closeTab() {
+        EditorTab tab = currentTab;
+        if (tab == null || saving || !checkUnsavedChanges(tab)) {
+            return;
+        }
+        tab.close();
+        memoryBudget.remove(tab);
+        tabs.remove(tab);
+        if (tabs.getTabCount() == 0) {
+            newTab();
         }
     }
 
     /**
-     * Updates the status bar with current file and document information.
+     * Asks to save the changes of every tab that has any, showing each in
+     * turn.
+     *
+     * @return true if it is safe to close all tabs, false if the user
+     *         cancelled or a save is running
+     */
+    public boolean checkAllUnsavedChanges() {
+        if (saving) {
+            return false;
+        }
+        for (int i = 0; i < tabs.getTabCount(); i++) {
+            EditorTab tab = (EditorTab) tabs.getComponentAt(i);
+            if (!tab.isModified()) {
+                continue;
+            }
+            tabs.setSelectedComponent(tab); // Brings back evicted text
+            if (!checkUnsavedChanges(tab)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Asks to save the changes of a tab before it is closed. When the text of
+     * an evicted tab could not be read back, its changes can be neither
+     * checked nor saved: the tab is only closed if the user insists, and its
+     * journal is then kept so the changes are offered on the next start.
+     *
+     * @return true if the tab may be closed
+     */
+    private boolean checkUnsavedChanges(EditorTab tab) {
+        if (tab.getSpill().isEvicted() && tab.isModified()) {
+            File file = tab.getFile();
+            String name = file != null ? file.getName() : tab.getDocumentModel().getDisplayName();
+            return DialogUtils.confirmAction(this, Constants.MSG_UNSAVED_CHANGES_TITLE,
+                    String.format(Constants.MSG_UNSAVED_CHANGES_UNREADABLE, name));
+        }
+        return fileManager.checkUnsavedChanges(this, tab.getDocumentModel());
+    }
+
+    /**
+     * Deletes the edit journals and spill files before closing: by now the
+     * changes have been saved or the user chose to discard them. Once the
+     * window is gone, waits a moment for the journals to be deleted.
+     */
+    @Override
+    public void dispose() {
+        for (int i = 0; i < tabs.getTabCount(); i++) {
+            ((EditorTab) tabs.getComponentAt(i)).close();
+        }
+        super.dispose();
+        EditJournal.awaitWrites(Constants.JOURNAL_EXIT_WAIT_MS);
+    }
+
+    /**
+     * Cancels a file load in progress in the current tab, leaving an empty
+     * document, or stops following a file.
+     */
+    public void cancelLoad() {
+        cancelLoad(currentTab);
+    }
+
+    private void cancelLoad(EditorTab tab) {
+        stopFollowing(tab);
+        if (tab.getFileLoader() != null) {
+            tab.getFileLoader().cancel();
+            endLoad(tab);
+        }
+    }
+
+    private void endLoad(EditorTab tab) {
+        tab.setFileLoader(null);
+        if (tab == currentTab) {
+            updateActions();
+            updateProgress();
+            updateTitle();
+            updateStatusBar();
+        }
+        memoryBudget.enforce();
+    }
+
+    /**
+     * Shows a file memory-mapped and read-only, in a tab of its own unless it
+     * is shown already.
+     *
+     * @param file The file to show
+     * @return true if the file could be mapped
+     */
+    public boolean showLargeFile(File file) {
+        EditorTab open = findTab(file);
+        if (open != null && open.getLargeFileView() != null) {
+            tabs.setSelectedComponent(open);
+            return true;
+        }
+        MappedTextFile mapped = fileManager.openMapped(this, file);
+        if (mapped == null) {
+            return false;
+        }
+        EditorTab tab = targetTab();
+        LargeFileView view = new LargeFileView(mapped, editorFont);
+        tab.setLargeFileView(view);
+        view.startIndexing(() -> documentChanged(tab));
+        updateActions();
+        updateTitle();
+        updateStatusBar();
+        return true;
+    }
+
+    /**
+     * Gets the large file view shown in the current tab.
+     *
+     * @return The view, or null when the current tab shows the editor
+     */
+    public LargeFileView getLargeFileView() {
+        return currentTab != null ? currentTab.getLargeFileView() : null;
+    }
+
+    /**
+     * Enables the actions that modify the document when the current tab can
+     * be edited. Saving and closing wait for a running save.
+     */
+    private void updateActions() {
+        boolean enabled = currentTab != null && !currentTab.isBusy();
+        saveFileAction.setEnabled(enabled && !saving);
+        closeTabAction.setEnabled(!saving);
+        closeAction.setEnabled(!saving);
+        clearAction.setEnabled(enabled);
+        undoAction.setEnabled(enabled);
+        redoAction.setEnabled(enabled);
+    }
+
+    /**
+     * Shows the progress of the load in the current tab, if any. The
+     * progress of a save is shown until it completes.
+     */
+    private void updateProgress() {
+        if (saving) {
+            return;
+        }
+        EditorTab tab = currentTab;
+        if (tab != null && tab.getFileLoader() != null) {
+            statusBar.startProgress("Loading " + tab.getFileLoader().getFile().getName(), () -> cancelLoad(tab));
+        } else {
+            statusBar.stopProgress();
+        }
+    }
+
+    /**
+     * Updates the window title for the editor or the large file view of the
+     * current tab.
+     */
+    private void updateTitle() {
+        EditorTab tab = currentTab;
+        if (tab == null) {
+            return;
+        }
+        if (tab.getLargeFileView() != null) {
+            setTitle(tab.getFile().getName() + Constants.TITLE_READ_ONLY_MARKER + " - " + Constants.APP_NAME);
+        } else if (tab.getFileFollower() != null) {
+            setTitle(tab.getFile().getName() + Constants.TITLE_FOLLOWING_MARKER + " - " + Constants.APP_NAME);
+        } else {
+            setTitle(tab.getDocumentModel().getWindowTitle());
+        }
+    }
+
+    /**
+     * Updates the status bar with the file and document information of the
+     * current tab.
      */
     public void updateStatusBar() {
-        int lineCount = textArea.getLineCount();
-        statusBar.updateStatus(documentModel.getCurrentFile(), documentModel.isModified(), lineCount);
+        EditorTab tab = currentTab;
+        if (tab == null) {
+            return;
+        }
+        LargeFileView largeFileView = tab.getLargeFileView();
+        if (largeFileView != null) {
+            statusBar.updateStatus(largeFileView.getFile().getFile(), false, 0);
+            statusBar.setLineCount(largeFileView.getLineCount(), largeFileView.isIndexComplete());
+            statusBar.setFileFormat(StandardCharsets.UTF_8.name(), null); // Always viewed as UTF-8
+            statusBar.clearStatistics();
+            return;
+        }
+        DocumentModel model = tab.getDocumentModel();
+        TextStatistics statistics = tab.getStatistics();
+        int lineCount = statistics.getLineCount();
+        statusBar.updateStatus(model.getCurrentFile(), model.isModified(), lineCount);
+        Caret caret = tab.getTextArea().getCaret();
+        statusBar.setStatistics(statistics.getWordCount(), statistics.getCharCount(),
+                Math.abs(caret.getDot() - caret.getMark()));
+        FileFollower follower = tab.getFileFollower();
+        if (follower != null) {
+            // Count the lines dropped from the start as well
+            statusBar.setLineCount(follower.getFirstLineNumber() - 1 + lineCount, true);
+        }
+        FileFormat format = model.getFileFormat();
+        statusBar.setFileFormat(format.getEncodingName(), format.getLineSeparator().name());
     }
 }
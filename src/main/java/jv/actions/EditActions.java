@@ -1,14 +1,20 @@
 package jv.actions;
 
+import jv.UI;
+import jv.components.LargeFileView;
 import jv.model.DocumentModel;
+import jv.model.UndoHistory;
+import jv.util.Constants;
+import jv.util.DialogUtils;
 
 import javax.swing.*;
-import javax.swing.undo.UndoManager;
+import javax.swing.text.Element;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.util.function.Supplier;
 
 /**
- * Swing Actions for edit operations (Clear, Undo, Redo, etc.).
+ * Swing Actions for edit operations (Clear, Undo, Redo, Go to Line, etc.).
  */
 public class EditActions {
 
@@ -17,10 +23,10 @@ public class EditActions {
      */
     public static class ClearAction extends AbstractAction {
         private final Component parent;
-        private final DocumentModel model;
-        private final JTextArea textArea;
+        private final Supplier<DocumentModel> model;
+        private final Supplier<JTextArea> textArea;
 
-        public ClearAction(Component parent, DocumentModel model, JTextArea textArea) {
+        public ClearAction(Component parent, Supplier<DocumentModel> model, Supplier<JTextArea> textArea) {
             super("Clear");
             this.parent = parent;
             this.model = model;
@@ -29,10 +35,9 @@ public class EditActions {
 
         @Override
         public void actionPerformed(ActionEvent e) {
-            textArea.setText("");
-            model.setText("", true); // Mark as modified
+            textArea.get().setText(""); // The model marks itself modified
             if (parent instanceof JFrame) {
-                ((JFrame) parent).setTitle(model.getWindowTitle());
+                ((JFrame) parent).setTitle(model.get().getWindowTitle());
             }
         }
     }
@@ -41,17 +46,18 @@ public class EditActions {
      * Action to undo the last change.
      */
     public static class UndoAction extends AbstractAction {
-        private final UndoManager undoManager;
+        private final Supplier<UndoHistory> undoHistory;
 
-        public UndoAction(UndoManager undoManager) {
+        public UndoAction(Supplier<UndoHistory> undoHistory) {
             super("Undo");
-            this.undoManager = undoManager;
+            this.undoHistory = undoHistory;
         }
 
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (undoManager.canUndo()) {
-                undoManager.undo();
+            UndoHistory undoHistory = this.undoHistory.get();
+            if (undoHistory.canUndo()) {
+                undoHistory.undo();
             }
         }
     }
@@ -60,19 +66,91 @@ public class EditActions {
      * Action to redo the last undone change.
      */
     public static class RedoAction extends AbstractAction {
-        private final UndoManager undoManager;
+        private final Supplier<UndoHistory> undoHistory;
 
-        public RedoAction(UndoManager undoManager) {
+        public RedoAction(Supplier<UndoHistory> undoHistory) {
             super("Redo");
-            this.undoManager = undoManager;
+            this.undoHistory = undoHistory;
         }
 
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (undoManager.canRedo()) {
-                undoManager.redo();
+            UndoHistory undoHistory = this.undoHistory.get();
+            if (undoHistory.canRedo()) {
+                undoHistory.redo();
             }
         }
     }
-}
 
+    /**
+     * Action to move the caret to a line and column typed as
+     * {@code line[:column]}, both counted from 1. The start of a line comes
+     * from the line elements of the document, which are kept up to date by
+     * every edit and looked up by index, or from the line index of the large
+     * file view when one is shown. Lines are numbered as in the gutter, so
+     * in a followed file they count the lines dropped from its start.
+     */
+    public static class GoToLineAction extends AbstractAction {
+        private final Component parent;
+        private final Supplier<JTextArea> textArea;
+        private String lastInput = "";
+
+        public GoToLineAction(Component parent, Supplier<JTextArea> textArea) {
+            super("Go to Line");
+            this.parent = parent;
+            this.textArea = textArea;
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            String input = DialogUtils.showInputDialog(parent, Constants.MSG_GO_TO_LINE_TITLE,
+                    Constants.MSG_GO_TO_LINE, lastInput);
+            if (input == null || input.isBlank()) {
+                return;
+            }
+            long[] position = parsePosition(input.trim());
+            if (position == null) {
+                DialogUtils.showError(parent, Constants.MSG_GO_TO_LINE_TITLE, Constants.MSG_INVALID_LINE + input);
+                return;
+            }
+            lastInput = input.trim();
+            int column = (int) Math.min(position[1], Integer.MAX_VALUE);
+            long line = position[0];
+            if (parent instanceof UI) {
+                UI ui = (UI) parent;
+                if (ui.getLargeFileView() != null) {
+                    ui.getLargeFileView().goToLine(line, column);
+                    return;
+                }
+                // A followed file is numbered from the lines dropped before it
+                line -= ui.getFirstLineNumber() - 1;
+            }
+            goToLine(textArea.get(), line, column);
+        }
+
+        private static void goToLine(JTextArea textArea, long line, int column) {
+            Element root = textArea.getDocument().getDefaultRootElement();
+            Element lineElement = root.getElement((int) Math.max(Math.min(line - 1, root.getElementCount() - 1), 0));
+            int start = lineElement.getStartOffset();
+            int end = Math.min(lineElement.getEndOffset() - 1, textArea.getDocument().getLength());
+            textArea.setCaretPosition(start + Math.min(column - 1, end - start));
+            textArea.requestFocusInWindow();
+        }
+
+        /**
+         * Parses {@code line[:column]}.
+         *
+         * @return The line and the column, or null if the input is not valid
+         */
+        private static long[] parsePosition(String input) {
+            int colon = input.indexOf(':');
+            try {
+                long line = Long.parseLong((colon < 0 ? input : input.substring(0, colon)).trim());
+                long column = colon < 0 ? 1 : Long.parseLong(input.substring(colon + 1).trim());
+                return line >= 1 && column >= 1 ? new long[] { line, column } : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -7,22 +7,27 @@ import jv.model.DocumentModel;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.io.File;
+import java.util.function.Supplier;
 
 /**
- * Swing Actions for file operations (New, Open, Save, Close).
+ * Swing Actions for file operations (New, Open, Follow, Save, Close).
+ * Actions act on the document of the current tab, which they get when
+ * performed.
  */
 public class FileActions {
 
     /**
-     * Action to create a new document.
+     * Action to create a new document, in a new tab of the main window.
      */
     public static class NewFileAction extends AbstractAction {
         private final Component parent;
-        private final DocumentModel model;
+        private final Supplier<DocumentModel> model;
         private final FileManager fileManager;
-        private final JTextArea textArea;
+        private final Supplier<JTextArea> textArea;
 
-        public NewFileAction(Component parent, DocumentModel model, FileManager fileManager, JTextArea textArea) {
+        public NewFileAction(Component parent, Supplier<DocumentModel> model, FileManager fileManager,
+                Supplier<JTextArea> textArea) {
             super("New");
             this.parent = parent;
             this.model = model;
@@ -32,69 +37,143 @@ public class FileActions {
 
         @Override
         public void actionPerformed(ActionEvent e) {
+            if (parent instanceof UI) {
+                ((UI) parent).newTab();
+                return;
+            }
+            DocumentModel model = this.model.get();
             if (fileManager.checkUnsavedChanges(parent, model)) {
                 model.clear();
-                if (parent instanceof UI) {
-                    ((UI) parent).loadContent("");
-                } else {
-                    textArea.setText("");
-                }
+                textArea.get().setCaretPosition(0);
                 if (parent instanceof JFrame) {
                     ((JFrame) parent).setTitle(model.getWindowTitle());
                 }
-                if (parent instanceof UI) {
-                    ((UI) parent).updateStatusBar();
-                }
             }
         }
     }
 
     /**
-     * Action to open an existing file.
+     * Action to open an existing file, in a new tab of the main window. Files
+     * of at least {@link jv.util.Constants#LARGE_FILE_THRESHOLD} bytes are
+     * opened memory-mapped and read-only.
      */
     public static class OpenFileAction extends AbstractAction {
         private final Component parent;
-        private final DocumentModel model;
+        private final Supplier<DocumentModel> model;
         private final FileManager fileManager;
-        private final JTextArea textArea;
+        private final Supplier<JTextArea> textArea;
 
-        public OpenFileAction(Component parent, DocumentModel model, FileManager fileManager, JTextArea textArea) {
-            super("Open");
+        public OpenFileAction(Component parent, Supplier<DocumentModel> model, FileManager fileManager,
+                Supplier<JTextArea> textArea) {
+            this("Open", parent, model, fileManager, textArea);
+        }
+
+        protected OpenFileAction(String name, Component parent, Supplier<DocumentModel> model,
+                FileManager fileManager, Supplier<JTextArea> textArea) {
+            super(name);
             this.parent = parent;
             this.model = model;
             this.fileManager = fileManager;
             this.textArea = textArea;
         }
 
+        /**
+         * Decides whether a file is opened in the read-only large file view.
+         *
+         * @param file The file about to be opened
+         * @return true to memory-map the file instead of loading it
+         */
+        protected boolean shouldMap(File file) {
+            return FileManager.isLargeFile(file);
+        }
+
         @Override
         public void actionPerformed(ActionEvent e) {
+            if (parent instanceof UI) {
+                // Opens in a tab of its own, so nothing needs saving first
+                File file = fileManager.chooseFileToOpen(parent);
+                if (file == null) {
+                    return;
+                }
+                if (shouldMap(file)) {
+                    ((UI) parent).showLargeFile(file);
+                } else {
+                    ((UI) parent).openFile(file); // Reads in the background
+                }
+                return;
+            }
+            DocumentModel model = this.model.get();
             if (fileManager.checkUnsavedChanges(parent, model)) {
-                if (fileManager.openFile(parent, model)) {
-                    if (parent instanceof UI) {
-                        ((UI) parent).loadContent(model.getText());
-                    } else {
-                        textArea.setText(model.getText());
-                    }
+                File file = fileManager.chooseFileToOpen(parent);
+                if (file != null && fileManager.loadFile(parent, model, file)) {
+                    textArea.get().setCaretPosition(0);
                     if (parent instanceof JFrame) {
                         ((JFrame) parent).setTitle(model.getWindowTitle());
                     }
-                    if (parent instanceof UI) {
-                        ((UI) parent).updateStatusBar();
-                    }
                 }
             }
         }
     }
 
+    /**
+     * Action to open a file memory-mapped and read-only regardless of its size.
+     */
+    public static class OpenLargeFileAction extends OpenFileAction {
+
+        public OpenLargeFileAction(Component parent, Supplier<DocumentModel> model, FileManager fileManager,
+                Supplier<JTextArea> textArea) {
+            super("Open Large File", parent, model, fileManager, textArea);
+        }
+
+        @Override
+        protected boolean shouldMap(File file) {
+            return true;
+        }
+    }
+
+    /**
+     * Action to follow a file that keeps growing, such as a log, showing its
+     * last lines as they are written, in a new tab. Selected while the current
+     * tab follows a file; performing it again stops following.
+     */
+    public static class FollowAction extends AbstractAction {
+        private final Component parent;
+        private final FileManager fileManager;
+
+        public FollowAction(Component parent, FileManager fileManager) {
+            super("Follow File");
+            this.parent = parent;
+            this.fileManager = fileManager;
+            putValue(SELECTED_KEY, false);
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (!(parent instanceof UI)) {
+                return;
+            }
+            UI ui = (UI) parent;
+            if (ui.isFollowing()) {
+                ui.stopFollowing();
+            } else {
+                File file = fileManager.chooseFileToOpen(parent);
+                if (file != null) {
+                    ui.followFile(file);
+                }
+            }
+            putValue(SELECTED_KEY, ui.isFollowing());
+        }
+    }
+
     /**
      * Action to save the current document.
      */
     public static class SaveFileAction extends AbstractAction {
         private final Component parent;
-        private final DocumentModel model;
+        private final Supplier<DocumentModel> model;
         private final FileManager fileManager;
 
-        public SaveFileAction(Component parent, DocumentModel model, FileManager fileManager) {
+        public SaveFileAction(Component parent, Supplier<DocumentModel> model, FileManager fileManager) {
             super("Save");
             this.parent = parent;
             this.model = model;
@@ -103,6 +182,7 @@ public class FileActions {
 
         @Override
         public void actionPerformed(ActionEvent e) {
+            DocumentModel model = this.model.get();
             if (fileManager.saveFile(parent, model)) {
                 if (parent instanceof JFrame) {
                     ((JFrame) parent).setTitle(model.getWindowTitle());
@@ -115,14 +195,34 @@ public class FileActions {
     }
 
     /**
-     * Action to close the application.
+     * Action to close the current tab, asking to save its changes first.
+     */
+    public static class CloseTabAction extends AbstractAction {
+        private final Component parent;
+
+        public CloseTabAction(Component parent) {
+            super("Close Tab");
+            this.parent = parent;
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (parent instanceof UI) {
+                ((UI) parent).closeTab();
+            }
+        }
+    }
+
+    /**
+     * Action to close the application, asking to save the changes of every
+     * tab first.
      */
     public static class CloseAction extends AbstractAction {
         private final Component parent;
-        private final DocumentModel model;
+        private final Supplier<DocumentModel> model;
         private final FileManager fileManager;
 
-        public CloseAction(Component parent, DocumentModel model, FileManager fileManager) {
+        public CloseAction(Component parent, Supplier<DocumentModel> model, FileManager fileManager) {
             super("Close");
             this.parent = parent;
             this.model = model;
@@ -131,7 +231,9 @@ public class FileActions {
 
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (fileManager.checkUnsavedChanges(parent, model)) {
+            boolean safe = parent instanceof UI ? ((UI) parent).checkAllUnsavedChanges()
+                    : fileManager.checkUnsavedChanges(parent, model.get());
+            if (safe) {
                 if (parent instanceof Window) {
                     ((Window) parent).dispose();
                 }
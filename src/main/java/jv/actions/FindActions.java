@@ -1,9 +1,14 @@
 package jv.actions;
 
 import jv.Find;
+import jv.UI;
+import jv.components.LargeFileView;
+import jv.util.Constants;
+import jv.util.DialogUtils;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
+import java.util.function.Supplier;
 
 /**
  * Swing Actions for find/search operations.
@@ -11,25 +16,50 @@ import java.awt.event.ActionEvent;
 public class FindActions {
 
     /**
-     * Action to open the find dialog.
+     * Action to open the find dialog, or to search the mapped file when a
+     * large file is shown.
      */
     public static class FindAction extends AbstractAction {
-        private final JTextArea textArea;
+        private final JFrame parent;
+        private final Supplier<JTextArea> textArea;
         private Find findDialog;
+        private JTextArea findTextArea;
+        private String lastQuery = "";
 
-        public FindAction(JFrame parent, JTextArea textArea) {
+        public FindAction(JFrame parent, Supplier<JTextArea> textArea) {
             super("Find");
+            this.parent = parent;
             this.textArea = textArea;
         }
 
         @Override
         public void actionPerformed(ActionEvent e) {
+            if (parent instanceof UI && ((UI) parent).getLargeFileView() != null) {
+                findInLargeFile(((UI) parent).getLargeFileView());
+                return;
+            }
+            JTextArea current = textArea.get();
+            if (findDialog != null && findDialog.isVisible() && findTextArea != current) {
+                findDialog.setVisible(false); // Searching another tab now
+            }
             if (findDialog == null || !findDialog.isVisible()) {
-                findDialog = new Find(textArea);
+                findDialog = new Find(current);
+                findTextArea = current;
             } else {
                 findDialog.toFront();
                 findDialog.requestFocus();
             }
         }
+
+        private void findInLargeFile(LargeFileView view) {
+            String query = DialogUtils.showInputDialog(parent, Constants.MENU_ITEM_FIND, Constants.MSG_FIND, lastQuery);
+            if (query == null || query.isEmpty()) {
+                return;
+            }
+            lastQuery = query;
+            if (!view.findNext(query)) {
+                DialogUtils.showInfo(parent, Constants.MENU_ITEM_FIND, Constants.MSG_SEARCH_NOT_FOUND + query);
+            }
+        }
     }
 }
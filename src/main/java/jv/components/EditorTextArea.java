@@ -0,0 +1,126 @@
+package jv.components;
+
+import jv.syntax.SyntaxHighlighter;
+
+import javax.swing.*;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.TextAction;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import java.awt.event.ActionEvent;
+
+/**
+ * The text area of an editor tab. Its lines are painted by a
+ * {@link SyntaxView}, which colors them as the given highlighter lexes them,
+ * or by a {@link LongLineView} without one; with line wrapping or
+ * bidirectional text it falls back to the usual views. Home and End go to
+ * the ends of the line by its element rather than by scanning the row one
+ * offset at a time, which takes as long as the line is.
+ */
+public class EditorTextArea extends JTextArea {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient SyntaxHighlighter highlighter;
+
+    /**
+     * Creates a text area showing a document.
+     *
+     * @param doc The document
+     */
+    public EditorTextArea(Document doc) {
+        super(doc, null, 0, 0);
+        ActionMap actions = getActionMap();
+        actions.put(DefaultEditorKit.beginLineAction,
+                new LineEdgeAction(DefaultEditorKit.beginLineAction, false, false));
+        actions.put(DefaultEditorKit.selectionBeginLineAction,
+                new LineEdgeAction(DefaultEditorKit.selectionBeginLineAction, false, true));
+        actions.put(DefaultEditorKit.endLineAction, new LineEdgeAction(DefaultEditorKit.endLineAction, true, false));
+        actions.put(DefaultEditorKit.selectionEndLineAction,
+                new LineEdgeAction(DefaultEditorKit.selectionEndLineAction, true, true));
+    }
+
+    public SyntaxHighlighter getSyntaxHighlighter() {
+        return highlighter;
+    }
+
+    /**
+     * Sets the highlighter coloring the text and rebuilds the views.
+     *
+     * @param highlighter The highlighter, or null to paint plain text
+     */
+    public void setSyntaxHighlighter(SyntaxHighlighter highlighter) {
+        this.highlighter = highlighter;
+        updateUI();
+    }
+
+    @Override
+    public void updateUI() {
+        setUI(new EditorTextAreaUI());
+    }
+
+    /**
+     * Creates syntax views for the lines while there is a highlighter.
+     */
+    private static final class EditorTextAreaUI extends BasicTextAreaUI {
+
+        @Override
+        public View create(Element elem) {
+            EditorTextArea area = (EditorTextArea) getComponent();
+            Object i18n = elem.getDocument().getProperty("i18n");
+            if (area.getLineWrap() || Boolean.TRUE.equals(i18n)) {
+                return super.create(elem);
+            }
+            return area.highlighter != null ? new SyntaxView(elem, area.highlighter) : new LongLineView(elem);
+        }
+    }
+
+    /**
+     * Moves the caret to the start or end of its line, or of its row when
+     * lines wrap.
+     */
+    private static final class LineEdgeAction extends TextAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean end;
+        private final boolean select;
+
+        LineEdgeAction(String name, boolean end, boolean select) {
+            super(name);
+            this.end = end;
+            this.select = select;
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            JTextComponent target = getTextComponent(e);
+            if (target == null) {
+                return;
+            }
+            int offset = target.getCaretPosition();
+            try {
+                if (target instanceof JTextArea && ((JTextArea) target).getLineWrap()) {
+                    offset = end ? Utilities.getRowEnd(target, offset) : Utilities.getRowStart(target, offset);
+                } else {
+                    Element root = target.getDocument().getDefaultRootElement();
+                    Element line = root.getElement(root.getElementIndex(offset));
+                    offset = end ? line.getEndOffset() - 1 : line.getStartOffset();
+                }
+            } catch (BadLocationException ex) {
+                UIManager.getLookAndFeel().provideErrorFeedback(target);
+                return;
+            }
+            if (select) {
+                target.moveCaretPosition(offset);
+            } else {
+                target.setCaretPosition(offset);
+            }
+        }
+    }
+}
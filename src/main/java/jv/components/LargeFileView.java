@@ -0,0 +1,356 @@
+package jv.components;
+
+import jv.model.MappedTextFile;
+import jv.model.SparseLineIndex;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only, virtualized view of a {@link MappedTextFile}.
+ * The text area only ever holds the lines that fit on screen; a separate
+ * scroll bar spans the whole file and every scroll decodes just the newly
+ * visible window, so files far larger than the heap can be browsed.
+ */
+public class LargeFileView extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_WINDOW_BYTES = 1 << 20;
+    private static final int WHEEL_LINES = 3;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final MappedTextFile file;
+    private final SparseLineIndex index;
+    private final JTextArea textArea;
+    private final JScrollBar scrollBar;
+    private final LineNumberComponent lineNumbers;
+
+    private volatile boolean closed;
+    private long lastProgressNanos;
+    private Runnable onProgress = () -> {
+    };
+
+    private long topLine;
+    private long windowStart;
+    private int windowLines;
+    private int visibleRows = 1;
+    private boolean adjusting;
+    private long searchFrom;
+    private long pendingLine = -1;
+    private int pendingColumn;
+
+    /**
+     * Creates a view over a mapped file.
+     *
+     * @param file The file to display
+     * @param font The font to display the text in
+     */
+    public LargeFileView(MappedTextFile file, Font font) {
+        super(new BorderLayout());
+        this.file = file;
+        this.index = new SparseLineIndex(file);
+
+        textArea = new JTextArea();
+        textArea.setFont(font);
+        textArea.setEditable(false);
+        lineNumbers = new LineNumberComponent(textArea);
+
+        scrollBar = new JScrollBar(JScrollBar.VERTICAL, 0, 1, 0, 1);
+        scrollBar.addAdjustmentListener(e -> {
+            if (!adjusting) {
+                cancelPendingLine();
+                showWindow(e.getValue());
+            }
+        });
+
+        JScrollPane scrollPane = new JScrollPane(textArea);
+        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_NEVER);
+        scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        scrollPane.setRowHeaderView(lineNumbers);
+        scrollPane.setWheelScrollingEnabled(false);
+        scrollPane.addMouseWheelListener(e -> scrollBar.setValue(scrollBar.getValue() + e.getWheelRotation() * WHEEL_LINES));
+
+        add(scrollPane, BorderLayout.CENTER);
+        add(scrollBar, BorderLayout.EAST);
+
+        scrollPane.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                int lineHeight = textArea.getFontMetrics(textArea.getFont()).getHeight();
+                visibleRows = Math.max(1, e.getComponent().getHeight() / lineHeight);
+                updateScrollRange();
+                showWindow(topLine);
+            }
+        });
+
+        installKeyBindings();
+    }
+
+    /**
+     * Starts building the line index on a background thread.
+     *
+     * @param onProgress Called on the Event Dispatch Thread as indexing advances
+     */
+    public void startIndexing(Runnable onProgress) {
+        this.onProgress = onProgress;
+        Thread indexer = new Thread(() -> index.build(() -> closed, this::indexProgress), "line-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+        showWindow(0);
+    }
+
+    /**
+     * Stops indexing and releases the file.
+     */
+    public void close() {
+        closed = true;
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + file.getFile() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the mapped file shown by this view.
+     *
+     * @return The file
+     */
+    public MappedTextFile getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the number of lines indexed so far.
+     *
+     * @return The line count
+     */
+    public long getLineCount() {
+        return index.getLineCount();
+    }
+
+    /**
+     * Checks if the line count is final.
+     *
+     * @return true if the whole file has been indexed
+     */
+    public boolean isIndexComplete() {
+        return index.isComplete();
+    }
+
+    /**
+     * Scrolls to a line and places the caret in it. The start of the line is
+     * found from the nearest checkpoint of the line index, so any line of the
+     * indexed part is reached at once. A line past the indexed part is gone
+     * to once indexing reaches it, rather than by scanning the file on the
+     * Event Dispatch Thread; scrolling meanwhile cancels the jump.
+     *
+     * @param line   The one-based line number
+     * @param column The one-based column, limited to the length of the line
+     */
+    public void goToLine(long line, int column) {
+        long target = Math.max(0, line - 1);
+        if (!index.isComplete() && target >= index.getLineCount()) {
+            pendingLine = target;
+            pendingColumn = column;
+            setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+            return;
+        }
+        if (index.isComplete()) {
+            target = Math.min(target, index.getLineCount() - 1);
+        }
+        scrollTo(Math.max(0, target - visibleRows / 3));
+        try {
+            int row = (int) Math.min(target - topLine, textArea.getLineCount() - 1);
+            int lineStart = textArea.getLineStartOffset(row);
+            int lineEnd = row == textArea.getLineCount() - 1
+                    ? textArea.getDocument().getLength() : textArea.getLineEndOffset(row) - 1;
+            textArea.setCaretPosition(lineStart + Math.min(Math.max(column - 1, 0), lineEnd - lineStart));
+        } catch (BadLocationException e) {
+            textArea.setCaretPosition(0);
+        }
+        textArea.requestFocusInWindow();
+    }
+
+    private void cancelPendingLine() {
+        if (pendingLine >= 0) {
+            pendingLine = -1;
+            setCursor(Cursor.getDefaultCursor());
+        }
+    }
+
+    /**
+     * Finds the next occurrence of a string, ignoring case, and selects it.
+     * Searches the mapped bytes directly and wraps around at the end.
+     *
+     * @param query The text to find
+     * @return true if an occurrence was found
+     */
+    public boolean findNext(String query) {
+        if (query == null || query.isEmpty()) {
+            return false;
+        }
+        byte[] needle = query.getBytes(StandardCharsets.UTF_8);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        try {
+            long found = file.indexOfIgnoreCase(needle, searchFrom);
+            if (found < 0 && searchFrom > 0) {
+                found = file.indexOfIgnoreCase(needle, 0);
+            }
+            if (found < 0) {
+                return false;
+            }
+            searchFrom = found + 1;
+            long line = index.lineOf(found);
+            scrollTo(Math.max(0, line - visibleRows / 3));
+            int start = file.decode(windowStart, found).length();
+            int end = Math.min(start + query.length(), textArea.getDocument().getLength());
+            textArea.select(start, end);
+            textArea.getCaret().setSelectionVisible(true);
+            return true;
+        } finally {
+            setCursor(Cursor.getDefaultCursor());
+        }
+    }
+
+    private void scrollTo(long top) {
+        cancelPendingLine();
+        showWindow(top);
+        adjusting = true;
+        try {
+            scrollBar.setValue((int) Math.min(topLine, Integer.MAX_VALUE));
+        } finally {
+            adjusting = false;
+        }
+    }
+
+    /**
+     * Decodes the lines starting at the given line into the text area.
+     */
+    private void showWindow(long top) {
+        if (closed) {
+            return;
+        }
+        if (index.isComplete()) {
+            top = Math.min(top, Math.max(0, index.getLineCount() - visibleRows));
+        }
+        top = Math.max(0, top);
+        long start = index.lineStart(top);
+        long end = index.lineStart(top + visibleRows);
+        if (end - start > MAX_WINDOW_BYTES) {
+            end = start + MAX_WINDOW_BYTES;
+        } else if (end > start && file.byteAt(end - 1) == '\n') {
+            end--;
+        }
+
+        topLine = top;
+        windowStart = start;
+        textArea.setText(file.decode(start, end));
+        textArea.setCaretPosition(0);
+        windowLines = textArea.getLineCount();
+        lineNumbers.setFirstLineNumber(top + 1);
+    }
+
+    private void updateScrollRange() {
+        int max = (int) Math.min(index.getLineCount(), Integer.MAX_VALUE);
+        adjusting = true;
+        try {
+            scrollBar.setValues((int) Math.min(topLine, Integer.MAX_VALUE), Math.min(visibleRows, max), 0, max);
+            scrollBar.setBlockIncrement(Math.max(1, visibleRows - 1));
+        } finally {
+            adjusting = false;
+        }
+    }
+
+    /**
+     * Called on the indexing thread; forwards progress to the Event Dispatch
+     * Thread at most ten times per second.
+     */
+    private void indexProgress() {
+        long now = System.nanoTime();
+        if (!index.isComplete() && now - lastProgressNanos < PROGRESS_INTERVAL_NANOS) {
+            return;
+        }
+        lastProgressNanos = now;
+        SwingUtilities.invokeLater(() -> {
+            if (closed) {
+                return;
+            }
+            updateScrollRange();
+            if (pendingLine >= 0 && (pendingLine < index.getLineCount() || index.isComplete())) {
+                goToLine(pendingLine + 1, pendingColumn);
+            } else if (windowLines < visibleRows) {
+                showWindow(topLine);
+            }
+            onProgress.run();
+        });
+    }
+
+    private void installKeyBindings() {
+        bind("PAGE_DOWN", "window-page-down", () -> scrollBy(Math.max(1, visibleRows - 1)));
+        bind("PAGE_UP", "window-page-up", () -> scrollBy(-Math.max(1, visibleRows - 1)));
+        bind("ctrl HOME", "window-begin", () -> scrollTo(0));
+        bind("ctrl END", "window-end", () -> scrollTo(index.getLineCount()));
+
+        Action up = textArea.getActionMap().get(DefaultEditorKit.upAction);
+        Action down = textArea.getActionMap().get(DefaultEditorKit.downAction);
+        bindEdge("UP", "window-up", up, -1);
+        bindEdge("DOWN", "window-down", down, 1);
+    }
+
+    private void scrollBy(long lines) {
+        scrollTo(topLine + lines);
+    }
+
+    private void bind(String keyStroke, String name, Runnable runnable) {
+        textArea.getInputMap().put(KeyStroke.getKeyStroke(keyStroke), name);
+        textArea.getActionMap().put(name, new AbstractAction(name) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                runnable.run();
+            }
+        });
+    }
+
+    /**
+     * Moves the caret with the default action, scrolling the window by one
+     * line when the caret is already on its first or last line.
+     */
+    private void bindEdge(String keyStroke, String name, Action fallback, int direction) {
+        textArea.getInputMap().put(KeyStroke.getKeyStroke(keyStroke), name);
+        textArea.getActionMap().put(name, new AbstractAction(name) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                try {
+                    int row = textArea.getLineOfOffset(textArea.getCaretPosition());
+                    boolean atEdge = direction < 0 ? row == 0 : row >= visibleRows - 1;
+                    if (atEdge) {
+                        int column = textArea.getCaretPosition() - textArea.getLineStartOffset(row);
+                        scrollBy(direction);
+                        int target = Math.min(row, textArea.getLineCount() - 1);
+                        int lineStart = textArea.getLineStartOffset(target);
+                        int lineEnd = textArea.getLineEndOffset(target);
+                        textArea.setCaretPosition(Math.min(lineStart + column, Math.max(lineStart, lineEnd - 1)));
+                        return;
+                    }
+                } catch (BadLocationException ex) {
+                    // Fall through to the default caret movement
+                }
+                fallback.actionPerformed(e);
+            }
+        });
+    }
+}
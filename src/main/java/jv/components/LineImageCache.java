@@ -0,0 +1,201 @@
+package jv.components;
+
+import jv.util.Constants;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps rendered lines as images, so that repainting a line shown before,
+ * as happens all the time while scrolling, copies its pixels instead of
+ * laying out and rasterizing its glyphs again.
+ * <p>
+ * An image is looked up by a key describing everything its pixels depend on,
+ * such as the text of a line, its font and colors, together with the
+ * background and the scale of the screen, which are added by the cache. Keys
+ * built from content rather than from positions stay valid when lines move,
+ * so an edit needs no invalidation: a changed line simply has a new key.
+ * Images are opaque, so that text is antialiased the same way as when drawn
+ * on the component, and are drawn at whole device pixels. The images used
+ * least recently are dropped once all images together would exceed the
+ * budget. Lines whose image would take more than a small part of the budget,
+ * and graphics that rotate or shear, are painted directly.
+ * <p>
+ * The cache must only be used on the Event Dispatch Thread.
+ */
+public class LineImageCache {
+
+    private static final LineImageCache SHARED = new LineImageCache(Constants.LINE_IMAGE_CACHE_BUDGET);
+
+    // Larger images than this part of the budget are not kept
+    private static final int MAX_IMAGE_SHARE = 64;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final long budget;
+    private final Map<Key, BufferedImage> images = new LinkedHashMap<>(256, 0.75f, true);
+    private long size;
+
+    /**
+     * Paints a line into a graphics context whose origin is the top left
+     * corner of the line.
+     */
+    public interface Renderer {
+
+        void render(Graphics2D g);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param budget The number of bytes all images together may take
+     */
+    public LineImageCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the cache shared by all text areas and their line numbers.
+     *
+     * @return The shared cache
+     */
+    public static LineImageCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Draws a line from its image, rendering the image first if it is not
+     * cached.
+     *
+     * @param g          The graphics context to draw into
+     * @param key        Identifies the pixels of the line; equal keys must
+     *                   render the same, given the same background
+     * @param x          The left edge of the line
+     * @param y          The top edge of the line
+     * @param width      The width of the line
+     * @param height     The height of the line
+     * @param background The color behind the line
+     * @param renderer   Paints the line when its image is rendered
+     */
+    public void draw(Graphics2D g, Object key, double x, double y, double width, double height,
+                     Color background, Renderer renderer) {
+        AffineTransform transform = g.getTransform();
+        double scaleX = transform.getScaleX();
+        double scaleY = transform.getScaleY();
+        int type = transform.getType() & ~(AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_MASK_SCALE);
+        int imageWidth = (int) Math.ceil(width * scaleX);
+        int imageHeight = (int) Math.ceil(height * scaleY);
+        if (type != 0 || scaleX <= 0 || scaleY <= 0 || imageWidth <= 0 || imageHeight <= 0
+                || (long) imageWidth * imageHeight * BYTES_PER_PIXEL > budget / MAX_IMAGE_SHARE) {
+            drawDirectly(g, x, y, renderer);
+            return;
+        }
+
+        Key imageKey = new Key(key, background, scaleX, scaleY);
+        BufferedImage image = images.get(imageKey);
+        if (image == null) {
+            image = render(g, imageWidth, imageHeight, scaleX, scaleY, background, renderer);
+            put(imageKey, image);
+        }
+        int deviceX = (int) Math.round(x * scaleX + transform.getTranslateX());
+        int deviceY = (int) Math.round(y * scaleY + transform.getTranslateY());
+        g.setTransform(new AffineTransform());
+        try {
+            g.drawImage(image, deviceX, deviceY, null);
+        } finally {
+            g.setTransform(transform);
+        }
+    }
+
+    /**
+     * Drops all images.
+     */
+    public void clear() {
+        images.clear();
+        size = 0;
+    }
+
+    private static void drawDirectly(Graphics2D g, double x, double y, Renderer renderer) {
+        Graphics2D lineGraphics = (Graphics2D) g.create();
+        try {
+            lineGraphics.translate(x, y);
+            renderer.render(lineGraphics);
+        } finally {
+            lineGraphics.dispose();
+        }
+    }
+
+    private static BufferedImage render(Graphics2D g, int width, int height, double scaleX, double scaleY,
+                                        Color background, Renderer renderer) {
+        GraphicsConfiguration config = g.getDeviceConfiguration();
+        BufferedImage image = config != null
+                ? config.createCompatibleImage(width, height, Transparency.OPAQUE)
+                : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D imageGraphics = image.createGraphics();
+        try {
+            imageGraphics.setColor(background);
+            imageGraphics.fillRect(0, 0, width, height);
+            imageGraphics.setRenderingHints(g.getRenderingHints());
+            imageGraphics.scale(scaleX, scaleY);
+            imageGraphics.setFont(g.getFont());
+            renderer.render(imageGraphics);
+        } finally {
+            imageGraphics.dispose();
+        }
+        return image;
+    }
+
+    private void put(Key key, BufferedImage image) {
+        images.put(key, image);
+        size += bytes(image);
+        Iterator<BufferedImage> eldest = images.values().iterator();
+        while (size > budget && eldest.hasNext()) {
+            size -= bytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long bytes(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * The key of an image: the key given for the line, and what the cache
+     * adds to it.
+     */
+    private static final class Key {
+
+        private final Object line;
+        private final Color background;
+        private final double scaleX;
+        private final double scaleY;
+        private final int hash;
+
+        Key(Object line, Color background, double scaleX, double scaleY) {
+            this.line = line;
+            this.background = background;
+            this.scaleX = scaleX;
+            this.scaleY = scaleY;
+            hash = Objects.hash(line, background, scaleX, scaleY);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && scaleX == other.scaleX && scaleY == other.scaleY
+                    && Objects.equals(background, other.background) && line.equals(other.line);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -14,12 +14,23 @@ import javax.swing.text.JTextComponent;
 import java.awt.*;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
+import java.awt.geom.Rectangle2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * A component that displays line numbers for a JTextComponent.
  * This class is designed to be used as a row header in a JScrollPane.
+ * <p>
+ * Painting only touches the lines inside the clip. Without line wrapping
+ * every line is one row high, so the position of a line is computed from its
+ * index. With wrapping, the positions of the lines last painted are cached
+ * and only the part of the cache after an edit is dropped. Numbers are drawn
+ * from images kept in the shared {@link LineImageCache}, so scrolling back
+ * copies pixels; a number not cached yet is drawn from a reused buffer of
+ * digits into its image.
  */
 public class LineNumberComponent extends JComponent
         implements DocumentListener, CaretListener, PropertyChangeListener, ComponentListener {
@@ -28,10 +39,27 @@ public class LineNumberComponent extends JComponent
 
     private static final int LEFT_PADDING = 5;
     private static final int RIGHT_PADDING = 5;
+    private static final int MAX_DIGITS = 19;
+    private static final int MAX_CACHED_LINES = 4096;
 
     private final JTextComponent component;
     private final int maxDigits;
     private int lastDigits;
+    private long firstLineNumber = 1;
+
+    // Reused while painting
+    private final char[] digits = new char[MAX_DIGITS];
+    private final Rectangle clip = new Rectangle();
+    private final Insets insets = new Insets(0, 0, 0, 0);
+    private final Point point = new Point();
+    private FontMetrics metrics;
+    private final LineImageCache imageCache = LineImageCache.getShared();
+
+    // Positions of a run of wrapped lines: lineY[i] is the top of line
+    // cacheStart + i, known for the lines before cacheEnd
+    private int[] lineY = new int[64];
+    private int cacheStart;
+    private int cacheEnd;
 
     /**
      * Constructs a new LineNumberComponent for the given JTextComponent.
@@ -57,13 +85,24 @@ public class LineNumberComponent extends JComponent
         setOpaque(true);
     }
 
+    /**
+     * Sets the number shown for the first line of the component. Used when
+     * the component only holds a window of a larger file.
+     *
+     * @param firstLineNumber the number of the first line
+     */
+    public void setFirstLineNumber(long firstLineNumber) {
+        this.firstLineNumber = firstLineNumber;
+        updateSize();
+        repaint();
+    }
+
     /**
      * Updates the preferred size of the component based on the number of lines.
      */
     private void updateSize() {
-        int digits = Math
-                .max(String.valueOf(component.getDocument().getDefaultRootElement().getElementCount()).length(),
-                        maxDigits);
+        long lastLineNumber = component.getDocument().getDefaultRootElement().getElementCount() + firstLineNumber - 1;
+        int digits = Math.max(digitCount(lastLineNumber), maxDigits);
 
         if (digits != lastDigits || component.getHeight() != getHeight()) {
             lastDigits = digits;
@@ -81,62 +120,124 @@ public class LineNumberComponent extends JComponent
 
         Font font = component.getFont();
         g.setFont(font);
+        if (metrics == null || metrics.getFont() != font) {
+            metrics = getFontMetrics(font);
+        }
+        int fontAscent = metrics.getAscent();
+        int lineHeight = metrics.getHeight();
+
+        g.getClipBounds(clip);
+        int clipBottom = clip.y + clip.height;
+        Element root = component.getDocument().getDefaultRootElement();
+        int lineCount = root.getElementCount();
+        int right = getWidth() - RIGHT_PADDING - 2; // -2 for border
 
-        FontMetrics fm = getFontMetrics(font);
-        int fontAscent = fm.getAscent();
-
-        Rectangle clip = g.getClipBounds();
-        int startOffset = component.viewToModel2D(new Point(0, clip.y));
-        int endOffset = component.viewToModel2D(new Point(0, clip.y + clip.height));
-
-        while (startOffset <= endOffset) {
-            try {
-                String text = component.getText(startOffset, endOffset - startOffset);
-                if (text.indexOf('\n') != -1) {
-                    // If we have newlines, we might need to be careful, but viewToModel usually
-                    // handles this.
-                    // Actually, simpler approach: iterate through lines.
-                    break;
-                }
-            } catch (BadLocationException e) {
+        if (!isWrapping()) {
+            int top = component.getInsets(insets).top;
+            int first = Math.max((clip.y - top) / lineHeight, 0);
+            int last = Math.min((clipBottom - top) / lineHeight, lineCount - 1);
+            for (int i = first; i <= last; i++) {
+                drawLineNumber(g, i, right, top + i * lineHeight + fontAscent);
+            }
+            return;
+        }
+
+        point.setLocation(0, clip.y);
+        int first = root.getElementIndex(Math.max(component.viewToModel2D(point), 0));
+        for (int i = first; i < lineCount; i++) {
+            int y = lineY(root, i);
+            if (y < 0 || y >= clipBottom) {
                 break;
             }
-            startOffset++;
+            drawLineNumber(g, i, right, y + fontAscent);
         }
+    }
 
-        // Better approach: Iterate over root elements (lines)
-        Element root = component.getDocument().getDefaultRootElement();
-        int startLine = root.getElementIndex(startOffset);
-        int endLine = root.getElementIndex(endOffset);
-
-        for (int i = startLine; i <= endLine; i++) {
-            Element line = root.getElement(i);
-            int lineStartOffset = line.getStartOffset();
-
-            try {
-                Rectangle r = component.modelToView2D(lineStartOffset).getBounds();
-                if (r != null) {
-                    String lineNumber = String.valueOf(i + 1);
-                    int stringWidth = fm.stringWidth(lineNumber);
-                    int x = getWidth() - stringWidth - RIGHT_PADDING - 2; // -2 for border
-                    int y = r.y + fontAscent;
-
-                    g.drawString(lineNumber, x, y);
-                }
-            } catch (BadLocationException e) {
-                e.printStackTrace();
+    /**
+     * Draws the number of a line right-aligned at the given position.
+     */
+    private void drawLineNumber(Graphics g, int line, int right, int baseline) {
+        long number = line + firstLineNumber;
+        int start = digits.length;
+        do {
+            digits[--start] = (char) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0 && start > 0);
+        int first = start;
+        int length = digits.length - start;
+        int width = metrics.charsWidth(digits, first, length);
+        int ascent = metrics.getAscent();
+        Color color = getForeground();
+        NumberKey key = new NumberKey(line + firstLineNumber, metrics.getFont(), color);
+        imageCache.draw((Graphics2D) g, key, right - width, baseline - ascent, width, metrics.getHeight(),
+                getBackground(), numberGraphics -> {
+                    numberGraphics.setColor(color);
+                    numberGraphics.drawChars(digits, first, length, 0, ascent);
+                });
+    }
+
+    /**
+     * Gets the top of a wrapped line from the cache, measuring the lines of
+     * the visible run that are not cached yet.
+     *
+     * @return The y coordinate, or -1 if it cannot be determined
+     */
+    private int lineY(Element root, int line) {
+        if (line < cacheStart || line > cacheEnd || line - cacheStart >= MAX_CACHED_LINES) {
+            // Outside the cached run and not extending it: start a new one
+            cacheStart = line;
+            cacheEnd = line;
+        }
+        int index = line - cacheStart;
+        if (line < cacheEnd) {
+            return lineY[index];
+        }
+        if (index == lineY.length) {
+            lineY = Arrays.copyOf(lineY, lineY.length * 2);
+        }
+        try {
+            Rectangle2D r = component.modelToView2D(root.getElement(line).getStartOffset());
+            if (r == null) {
+                return -1;
             }
+            lineY[index] = (int) r.getY();
+            cacheEnd = line + 1;
+            return lineY[index];
+        } catch (BadLocationException e) {
+            return -1;
+        }
+    }
+
+    private boolean isWrapping() {
+        return component instanceof JTextArea && ((JTextArea) component).getLineWrap();
+    }
+
+    /**
+     * Drops the cached positions of the lines from the given one on.
+     */
+    private void invalidateFrom(int line) {
+        cacheEnd = Math.max(Math.min(cacheEnd, line), cacheStart);
+    }
+
+    private static int digitCount(long number) {
+        int count = 1;
+        while (number >= 10) {
+            number /= 10;
+            count++;
         }
+        return count;
     }
 
     @Override
     public void insertUpdate(DocumentEvent e) {
+        invalidateFrom(e.getDocument().getDefaultRootElement().getElementIndex(e.getOffset()));
         updateSize();
         repaint();
     }
 
     @Override
     public void removeUpdate(DocumentEvent e) {
+        invalidateFrom(e.getDocument().getDefaultRootElement().getElementIndex(e.getOffset()));
         updateSize();
         repaint();
     }
@@ -159,6 +260,7 @@ public class LineNumberComponent extends JComponent
         if (evt.getPropertyName().equals("font")) {
             if (evt.getNewValue() instanceof Font) {
                 setFont((Font) evt.getNewValue());
+                invalidateFrom(0);
                 updateSize();
                 repaint();
             }
@@ -167,6 +269,8 @@ public class LineNumberComponent extends JComponent
 
     @Override
     public void componentResized(ComponentEvent e) {
+        // Wrapped lines reflow when the width changes
+        invalidateFrom(0);
         updateSize();
     }
 
@@ -181,4 +285,34 @@ public class LineNumberComponent extends JComponent
     @Override
     public void componentHidden(ComponentEvent e) {
     }
+
+    /**
+     * The key of the image of a line number.
+     */
+    private static final class NumberKey {
+
+        private final long number;
+        private final Font font;
+        private final Color color;
+
+        NumberKey(long number, Font font, Color color) {
+            this.number = number;
+            this.font = font;
+            this.color = color;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NumberKey)) {
+                return false;
+            }
+            NumberKey other = (NumberKey) o;
+            return number == other.number && font.equals(other.font) && color.equals(other.color);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(number, font, color);
+        }
+    }
 }
@@ -0,0 +1,740 @@
+package jv.components;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Caret;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A view of unwrapped plain text that stays responsive with very long lines,
+ * such as minified JSON or a log written as one line.
+ * <p>
+ * {@code PlainView} measures a whole line to place the caret, to map a click
+ * to an offset, to paint it and after every edit of the longest line, which
+ * takes seconds once a line is megabytes long. This view measures text with
+ * advances cached per character, and keeps a layout for recently used long
+ * lines: whether every character of the line has the same advance, as in a
+ * monospaced font without tabs, and otherwise the position at every few
+ * thousand characters. Positions on such a line are then computed directly
+ * or from the nearest stored one, and only the part of the line inside the
+ * clip is painted. Edits of a line with the same advance everywhere keep its
+ * layout; other long lines are measured again when next used.
+ * <p>
+ * Other lines are drawn from images kept in the shared
+ * {@link LineImageCache}, keyed by their text, so scrolling back over them
+ * copies pixels instead of drawing glyphs. Lines under a highlight, such as
+ * the selection, are drawn directly, since their images would hide it.
+ */
+public class LongLineView extends View implements TabExpander {
+
+    // Lines at least this long are laid out and painted in slices
+    private static final int LONG_LINE_CHARS = 4096;
+    // Characters between the stored positions of a long line
+    private static final int BLOCK_CHARS = 4096;
+    // Long lines whose layout is kept
+    private static final int MAX_LAYOUTS = 64;
+
+    private final Segment drawText = new Segment();
+    private final Segment scanText = new Segment();
+
+    private Font font;
+    private FontMetrics metrics;
+    private FontRenderContext frc;
+    private final float[][] advancePages = new float[256][];
+    private float charAdvance;
+    private double maxAdvance;
+    private double tabSize;
+    private int tabBase;
+    private boolean scanUniform;
+
+    // Set while painting
+    private int sel0;
+    private int sel1;
+    private Color unselected;
+    private Color selected;
+    private Color background;
+    private int[] highlights = new int[16];
+    private int highlightCount;
+
+    private final LineImageCache imageCache = LineImageCache.getShared();
+
+    private Element longLine;
+    private double longWidth;
+    private final Map<Element, LineLayout> layouts = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The layout of a long line: its width, and the position at the start of
+     * each block of characters unless all characters have the same advance.
+     */
+    private static final class LineLayout {
+        int length;
+        double width;
+        boolean uniform;
+        double[] blockX;
+    }
+
+    /**
+     * The key of the image of a line: its text and everything else it is
+     * drawn with.
+     */
+    private static final class LineKey {
+
+        private final String text;
+        private final Font font;
+        private final Color color;
+        private final double tabSize;
+        private final Object style;
+        private final int hash;
+
+        LineKey(String text, Font font, Color color, double tabSize, Object style) {
+            this.text = text;
+            this.font = font;
+            this.color = color;
+            this.tabSize = tabSize;
+            this.style = style;
+            hash = Objects.hash(text, font, color, tabSize, style);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LineKey)) {
+                return false;
+            }
+            LineKey other = (LineKey) o;
+            return hash == other.hash && tabSize == other.tabSize && text.equals(other.text)
+                    && font.equals(other.font) && color.equals(other.color) && Objects.equals(style, other.style);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Creates a view of the lines of a document.
+     *
+     * @param elem The root element of the document
+     */
+    public LongLineView(Element elem) {
+        super(elem);
+        scanText.setPartialReturn(true);
+    }
+
+    /**
+     * Gets the number of characters a tab expands to, from the tab size
+     * property of the document.
+     *
+     * @return The tab size
+     */
+    protected int getTabSize() {
+        Integer size = (Integer) getDocument().getProperty(PlainDocument.tabSizeAttribute);
+        return size != null ? size : 8;
+    }
+
+    /**
+     * Checks if the font changed and measures the lines again if it did.
+     */
+    protected void updateMetrics() {
+        Component host = getContainer();
+        Font f = host.getFont();
+        FontMetrics fm = host.getFontMetrics(f);
+        if (font == f && fm.equals(metrics)) {
+            return;
+        }
+        font = f;
+        metrics = fm;
+        frc = fm.getFontRenderContext();
+        Arrays.fill(advancePages, null);
+        charAdvance = advance('m');
+        tabSize = getTabSize() * charAdvance;
+        maxAdvance = Math.max(Math.max(fm.getMaxAdvance(), charAdvance), tabSize);
+        layouts.clear();
+        calculateLongestLine(null);
+    }
+
+    // ---- Measuring -------------------------------------------------------
+
+    private float advance(char c) {
+        float[] page = advancePages[c >> 8];
+        if (page == null) {
+            page = new float[256];
+            Arrays.fill(page, -1);
+            advancePages[c >> 8] = page;
+        }
+        float advance = page[c & 0xFF];
+        if (advance < 0) {
+            advance = (float) font.getStringBounds(new char[] { c }, 0, 1, frc).getWidth();
+            page[c & 0xFF] = advance;
+        }
+        return advance;
+    }
+
+    private double nextTab(double x) {
+        return tabSize == 0 ? x : ((int) (x / tabSize) + 1) * tabSize;
+    }
+
+    private static int lineEnd(Element line) {
+        return Math.min(line.getEndOffset() - 1, line.getDocument().getLength());
+    }
+
+    /**
+     * Measures a range of the document, starting at a position relative to
+     * the start of its line. Clears {@link #scanUniform} if a character does
+     * not have the usual advance.
+     */
+    private double measure(double x, int from, int to) {
+        try {
+            while (from < to) {
+                getDocument().getText(from, to - from, scanText);
+                char[] array = scanText.array;
+                for (int i = scanText.offset, end = i + scanText.count; i < end; i++) {
+                    char c = array[i];
+                    if (c == '\t') {
+                        x = nextTab(x);
+                        scanUniform = false;
+                    } else {
+                        float advance = advance(c);
+                        x += advance;
+                        scanUniform &= advance == charAdvance;
+                    }
+                }
+                from += scanText.count;
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return x;
+    }
+
+    /**
+     * Finds the offset nearest to a position, scanning a range of the
+     * document that starts at another position.
+     */
+    private int offsetAt(double x, int from, int to, double target) {
+        try {
+            while (from < to) {
+                getDocument().getText(from, to - from, scanText);
+                char[] array = scanText.array;
+                for (int i = scanText.offset, end = i + scanText.count; i < end; i++) {
+                    char c = array[i];
+                    double next = c == '\t' ? nextTab(x) : x + advance(c);
+                    if (target < (x + next) / 2) {
+                        return from + i - scanText.offset;
+                    }
+                    x = next;
+                }
+                from += scanText.count;
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return to;
+    }
+
+    private LineLayout layout(Element line) {
+        LineLayout layout = layouts.get(line);
+        if (layout != null) {
+            return layout;
+        }
+        int start = line.getStartOffset();
+        int end = lineEnd(line);
+        layout = new LineLayout();
+        layout.length = end - start;
+        double[] blockX = new double[layout.length / BLOCK_CHARS + 1];
+        double x = 0;
+        scanUniform = true;
+        for (int block = 0; block < blockX.length; block++) {
+            blockX[block] = x;
+            int from = start + block * BLOCK_CHARS;
+            x = measure(x, from, Math.min(end, from + BLOCK_CHARS));
+        }
+        layout.width = x;
+        layout.uniform = scanUniform;
+        layout.blockX = scanUniform ? null : blockX;
+        layouts.put(line, layout);
+        if (layouts.size() > MAX_LAYOUTS) {
+            Iterator<LineLayout> eldest = layouts.values().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return layout;
+    }
+
+    /**
+     * Gets the position of an offset relative to the start of its line.
+     */
+    private double xAt(Element line, int pos) {
+        int start = line.getStartOffset();
+        int end = lineEnd(line);
+        pos = Math.max(start, Math.min(pos, end));
+        if (end - start < LONG_LINE_CHARS) {
+            return measure(0, start, pos);
+        }
+        LineLayout layout = layout(line);
+        if (layout.uniform) {
+            return (double) (pos - start) * charAdvance;
+        }
+        int block = (pos - start) / BLOCK_CHARS;
+        return measure(layout.blockX[block], start + block * BLOCK_CHARS, pos);
+    }
+
+    /**
+     * Gets the offset of a line nearest to a position relative to the start
+     * of the line.
+     */
+    private int offsetAt(Element line, double x) {
+        int start = line.getStartOffset();
+        int end = lineEnd(line);
+        if (x <= 0) {
+            return start;
+        }
+        if (end - start < LONG_LINE_CHARS) {
+            return offsetAt(0, start, end, x);
+        }
+        LineLayout layout = layout(line);
+        if (layout.uniform) {
+            return (int) Math.min(end, start + (long) (x / charAdvance + 0.5));
+        }
+        int block = Arrays.binarySearch(layout.blockX, x);
+        block = block >= 0 ? block : Math.max(0, -block - 2);
+        return offsetAt(layout.blockX[block], start + block * BLOCK_CHARS, end, x);
+    }
+
+    private double lineWidth(Element line) {
+        int start = line.getStartOffset();
+        int end = lineEnd(line);
+        return end - start < LONG_LINE_CHARS ? measure(0, start, end) : layout(line).width;
+    }
+
+    /**
+     * Finds the widest line. Lines too short to be wider than the widest
+     * found so far, even if every character had the largest advance, are not
+     * measured.
+     *
+     * @param candidate A line likely to be the widest, or null
+     */
+    private void calculateLongestLine(Element candidate) {
+        longLine = candidate;
+        longWidth = candidate != null ? lineWidth(candidate) : 0;
+        Element map = getElement();
+        for (int i = 0, count = map.getElementCount(); i < count; i++) {
+            Element line = map.getElement(i);
+            int length = lineEnd(line) - line.getStartOffset();
+            if (line == candidate || (longLine != null && length * maxAdvance <= longWidth)) {
+                continue;
+            }
+            double width = lineWidth(line);
+            if (longLine == null || width > longWidth) {
+                longLine = line;
+                longWidth = width;
+            }
+        }
+    }
+
+    // ---- Painting --------------------------------------------------------
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        Rectangle alloc = a.getBounds();
+        JTextComponent host = (JTextComponent) getContainer();
+        Highlighter h = host.getHighlighter();
+        g.setFont(host.getFont());
+        updateMetrics();
+        tabBase = alloc.x;
+        sel0 = host.getSelectionStart();
+        sel1 = host.getSelectionEnd();
+        unselected = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+        Caret caret = host.getCaret();
+        selected = caret.isSelectionVisible() && h != null ? host.getSelectedTextColor() : unselected;
+        background = host.isOpaque() ? host.getBackground() : null;
+
+        Rectangle clip = g.getClipBounds();
+        int lineHeight = metrics.getHeight();
+        if (lineHeight <= 0) {
+            return;
+        }
+        Element map = getElement();
+        int count = map.getElementCount();
+        int first = Math.max(0, (clip.y - alloc.y) / lineHeight);
+        int last = Math.min(count - 1, (clip.y + clip.height - alloc.y) / lineHeight);
+        LayeredHighlighter dh = h instanceof LayeredHighlighter ? (LayeredHighlighter) h : null;
+        collectHighlights(h, map.getElement(Math.max(first, 0)).getStartOffset(),
+                map.getElement(Math.max(last, 0)).getEndOffset());
+        int y = alloc.y + first * lineHeight + metrics.getAscent();
+        for (int line = first; line <= last; line++) {
+            Element lineElement = map.getElement(line);
+            if (dh != null) {
+                int end = line == count - 1 ? lineElement.getEndOffset() : lineElement.getEndOffset() - 1;
+                dh.paintLayeredHighlights(g, lineElement.getStartOffset(), end, a, host, this);
+            }
+            try {
+                drawLine(line, (Graphics2D) g, alloc.x, y);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException("Can't render line: " + line, e);
+            }
+            y += lineHeight;
+        }
+    }
+
+    /**
+     * Notes the ranges of the highlights that touch the lines being painted.
+     */
+    private void collectHighlights(Highlighter h, int start, int end) {
+        highlightCount = 0;
+        if (h == null) {
+            return;
+        }
+        for (Highlighter.Highlight highlight : h.getHighlights()) {
+            int p0 = highlight.getStartOffset();
+            int p1 = highlight.getEndOffset();
+            if (p0 != p1 && p0 <= end && p1 >= start) {
+                if (highlightCount + 2 > highlights.length) {
+                    highlights = Arrays.copyOf(highlights, highlights.length * 2);
+                }
+                highlights[highlightCount++] = p0;
+                highlights[highlightCount++] = p1;
+            }
+        }
+    }
+
+    private boolean isHighlighted(int p0, int p1) {
+        for (int i = 0; i < highlightCount; i += 2) {
+            if (highlights[i] <= p1 && highlights[i + 1] >= p0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets what the look of a line depends on besides its text, font and
+     * color. Lines with equal text and style share their cached image.
+     *
+     * @param lineIndex The index of the line
+     * @return The style, or null if the line is drawn in one color
+     */
+    protected Object getLineStyle(int lineIndex) {
+        return null;
+    }
+
+    /**
+     * Draws a line, or only the part of it inside the clip if it is long.
+     *
+     * @param lineIndex The index of the line
+     * @param g         The graphics context
+     * @param x         The position of the start of the line
+     * @param y         The baseline of the line
+     * @throws BadLocationException if the line is not in the document
+     */
+    protected void drawLine(int lineIndex, Graphics2D g, float x, float y) throws BadLocationException {
+        Element line = getElement().getElement(lineIndex);
+        int p0 = line.getStartOffset();
+        int p1 = lineEnd(line);
+        if (p1 - p0 < LONG_LINE_CHARS) {
+            if (p1 > p0 && background != null && !isHighlighted(p0, p1)) {
+                drawCached(lineIndex, g, x, y, p0, p1);
+            } else {
+                drawRange(g, x, y, p0, p1);
+            }
+            return;
+        }
+        Rectangle clip = g.getClipBounds();
+        double left = clip.x - x;
+        int s0 = Math.max(p0, offsetAt(line, left) - 1);
+        int s1 = Math.min(p1, offsetAt(line, left + clip.width) + 1);
+        double sliceX = xAt(line, s0);
+        // Far along a long line float positions are too coarse to place
+        // glyphs, so the slice is drawn near an origin moved to the tab stop
+        // before it
+        double origin = x + (tabSize > 0 ? Math.floor(sliceX / tabSize) * tabSize : Math.floor(sliceX));
+        int base = tabBase;
+        g.translate(origin, 0);
+        tabBase = 0;
+        try {
+            drawRange(g, (float) (x + sliceX - origin), y, s0, s1);
+        } finally {
+            g.translate(-origin, 0);
+            tabBase = base;
+        }
+    }
+
+    /**
+     * Draws a line from its image in the cache.
+     */
+    private void drawCached(int lineIndex, Graphics2D g, float x, float y, int p0, int p1)
+            throws BadLocationException {
+        LineKey key = new LineKey(getDocument().getText(p0, p1 - p0), font, unselected, tabSize,
+                getLineStyle(lineIndex));
+        // Leave room for glyphs reaching past their advance
+        double width = measure(0, p0, p1) + charAdvance;
+        int ascent = metrics.getAscent();
+        imageCache.draw(g, key, x, y - ascent, width, metrics.getHeight(), background, lineGraphics -> {
+            int base = tabBase;
+            tabBase = 0;
+            try {
+                drawRange(lineGraphics, 0, ascent, p0, p1);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                tabBase = base;
+            }
+        });
+    }
+
+    /**
+     * Draws a range of a line, in the selection color where it is selected.
+     */
+    private void drawRange(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        if (sel0 == sel1 || selected == unselected) {
+            drawUnselectedText(g, x, y, p0, p1);
+            return;
+        }
+        int s0 = Math.max(p0, Math.min(sel0, p1));
+        int s1 = Math.max(p0, Math.min(sel1, p1));
+        x = drawUnselectedText(g, x, y, p0, s0);
+        x = drawSelectedText(g, x, y, s0, s1);
+        drawUnselectedText(g, x, y, s1, p1);
+    }
+
+    /**
+     * Draws a range of text that is not selected.
+     *
+     * @param g  The graphics context
+     * @param x  The position to start at
+     * @param y  The baseline
+     * @param p0 The start of the range
+     * @param p1 The end of the range
+     * @return The position after the range
+     * @throws BadLocationException if the range is not in the document
+     */
+    protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1)
+            throws BadLocationException {
+        return drawText(g, x, y, p0, p1, unselected);
+    }
+
+    /**
+     * Draws a range of selected text.
+     *
+     * @param g  The graphics context
+     * @param x  The position to start at
+     * @param y  The baseline
+     * @param p0 The start of the range
+     * @param p1 The end of the range
+     * @return The position after the range
+     * @throws BadLocationException if the range is not in the document
+     */
+    protected float drawSelectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        return drawText(g, x, y, p0, p1, selected);
+    }
+
+    /**
+     * Draws a range of text in a color, expanding tabs.
+     *
+     * @return The position after the range
+     */
+    protected float drawText(Graphics2D g, float x, float y, int p0, int p1, Color color)
+            throws BadLocationException {
+        if (p1 <= p0) {
+            return x;
+        }
+        getDocument().getText(p0, p1 - p0, drawText);
+        g.setColor(color);
+        return Utilities.drawTabbedText(drawText, x, y, g, this, p0);
+    }
+
+    // ---- View methods ----------------------------------------------------
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        return switch (axis) {
+            case X_AXIS -> (float) Math.ceil(longWidth);
+            case Y_AXIS -> getElement().getElementCount() * metrics.getHeight();
+            default -> throw new IllegalArgumentException("Invalid axis: " + axis);
+        };
+    }
+
+    @Override
+    public void setSize(float width, float height) {
+        super.setSize(width, height);
+        updateMetrics();
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        if (pos < 0 || pos > getDocument().getLength()) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Element map = getElement();
+        int lineIndex = map.getElementIndex(pos);
+        double x = alloc.x + xAt(map.getElement(lineIndex), pos);
+        int lineHeight = metrics.getHeight();
+        return new Rectangle2D.Double(x, alloc.y + lineIndex * lineHeight, 1, lineHeight);
+    }
+
+    @Override
+    public int viewToModel(float x, float y, Shape a, Position.Bias[] bias) {
+        bias[0] = Position.Bias.Forward;
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        if (y < alloc.y) {
+            return getStartOffset();
+        } else if (y > alloc.y + alloc.height) {
+            return getEndOffset() - 1;
+        }
+        Element map = getElement();
+        int lineHeight = metrics.getHeight();
+        int lineIndex = lineHeight > 0 ? (int) ((y - alloc.y) / lineHeight) : map.getElementCount() - 1;
+        if (lineIndex >= map.getElementCount()) {
+            return getEndOffset() - 1;
+        }
+        tabBase = alloc.x;
+        return offsetAt(map.getElement(lineIndex), x - alloc.x);
+    }
+
+    /**
+     * Moves up and down by line index, keeping the magic caret position,
+     * instead of going back to the start of the row one offset at a time as
+     * {@code View} does, which takes as long as the line is.
+     */
+    @Override
+    public int getNextVisualPositionFrom(int pos, Position.Bias b, Shape a, int direction,
+            Position.Bias[] biasRet) throws BadLocationException {
+        if ((direction != NORTH && direction != SOUTH) || pos < 0) {
+            return super.getNextVisualPositionFrom(pos, b, a, direction, biasRet);
+        }
+        if (pos > getDocument().getLength()) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+        biasRet[0] = Position.Bias.Forward;
+        Element map = getElement();
+        int lineIndex = map.getElementIndex(pos) + (direction == NORTH ? -1 : 1);
+        if (lineIndex < 0 || lineIndex >= map.getElementCount()) {
+            return pos;
+        }
+        updateMetrics();
+        Caret caret = ((JTextComponent) getContainer()).getCaret();
+        Point magic = caret != null ? caret.getMagicCaretPosition() : null;
+        double x = magic != null ? magic.x - a.getBounds().x : xAt(map.getElement(map.getElementIndex(pos)), pos);
+        return offsetAt(map.getElement(lineIndex), x);
+    }
+
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabSize == 0) {
+            return x;
+        }
+        int tabs = (int) ((x - tabBase) / tabSize);
+        return (float) (tabBase + (tabs + 1) * tabSize);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+        updateDamage(changes, a);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+        updateDamage(changes, a);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+        updateDamage(changes, a);
+    }
+
+    /**
+     * Updates the layout of the changed line and the widest line, and
+     * repaints what changed.
+     */
+    private void updateDamage(DocumentEvent changes, Shape a) {
+        Component host = getContainer();
+        updateMetrics();
+        Element map = getElement();
+        DocumentEvent.ElementChange change = changes.getChange(map);
+        if (change != null) {
+            boolean lostLongest = false;
+            for (Element removed : change.getChildrenRemoved()) {
+                layouts.remove(removed);
+                lostLongest |= removed == longLine;
+            }
+            if (lostLongest) {
+                calculateLongestLine(null);
+            } else {
+                for (Element added : change.getChildrenAdded()) {
+                    double width = lineWidth(added);
+                    if (width > longWidth) {
+                        longLine = added;
+                        longWidth = width;
+                    }
+                }
+            }
+            preferenceChanged(null, true, true);
+            host.repaint();
+            return;
+        }
+
+        int lineIndex = map.getElementIndex(changes.getOffset());
+        Element line = map.getElement(lineIndex);
+        lineEdited(line, changes);
+        if (a != null) {
+            Rectangle alloc = a.getBounds();
+            int lineHeight = metrics.getHeight();
+            host.repaint(alloc.x, alloc.y + lineIndex * lineHeight, alloc.width, lineHeight);
+        }
+        double width = lineWidth(line);
+        if (line == longLine && width < longWidth) {
+            calculateLongestLine(line);
+            preferenceChanged(null, true, false);
+        } else if (line == longLine || width > longWidth) {
+            longLine = line;
+            longWidth = width;
+            preferenceChanged(null, true, false);
+        }
+    }
+
+    /**
+     * Keeps the layout of an edited line with the same advance everywhere if
+     * the inserted text has it too, and drops other layouts of the line.
+     */
+    private void lineEdited(Element line, DocumentEvent changes) {
+        LineLayout layout = layouts.get(line);
+        if (layout == null) {
+            return;
+        }
+        if (layout.uniform && changes.getType() == DocumentEvent.EventType.INSERT) {
+            scanUniform = true;
+            measure(0, changes.getOffset(), changes.getOffset() + changes.getLength());
+        } else {
+            scanUniform = layout.uniform && changes.getType() == DocumentEvent.EventType.REMOVE;
+        }
+        if (scanUniform) {
+            layout.length = lineEnd(line) - line.getStartOffset();
+            layout.width = (double) layout.length * charAdvance;
+        } else {
+            layouts.remove(line);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package jv.components;
+
+import jv.search.TextSearcher;
+
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Highlights every match of a query in the visible part of a text component.
+ * Only the lines inside the viewport are searched, and the highlights are
+ * kept in a pool whose tags are moved to the new matches instead of being
+ * removed and added again. The matches are recomputed after the view scrolls
+ * or resizes and after each edit, once per event burst.
+ */
+public class MatchHighlighter implements ChangeListener, DocumentListener {
+
+    private static final int MAX_HIGHLIGHTS = 2000;
+    private static final Color HIGHLIGHT_COLOR = new Color(255, 230, 120);
+
+    private final JTextComponent component;
+    private final JViewport viewport;
+    private final Highlighter.HighlightPainter painter;
+    private final List<Object> tags;
+    private final Segment segment;
+    private int used;
+
+    private TextSearcher searcher;
+    private Pattern pattern;
+    private boolean updatePending;
+    private boolean disposed;
+    private boolean stale;
+    private int shownStart = -1;
+    private int shownEnd = -1;
+
+    /**
+     * Creates a highlighter for a text component, which should be the view of
+     * a scroll pane. Nothing is highlighted until a query is set.
+     *
+     * @param component The text component to highlight in
+     */
+    public MatchHighlighter(JTextComponent component) {
+        this.component = component;
+        this.viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, component);
+        this.painter = new DefaultHighlighter.DefaultHighlightPainter(HIGHLIGHT_COLOR);
+        this.tags = new ArrayList<>();
+        this.segment = new Segment();
+
+        if (viewport != null) {
+            viewport.addChangeListener(this);
+        }
+        component.getDocument().addDocumentListener(this);
+    }
+
+    /**
+     * Sets the text to highlight. Matching ignores case, as in the Find
+     * dialog.
+     *
+     * @param query The text or pattern to highlight, or an empty string to
+     *              highlight nothing
+     * @param regex Whether the query is a regular expression
+     */
+    public void setQuery(String query, boolean regex) {
+        searcher = null;
+        pattern = null;
+        if (!query.isEmpty()) {
+            if (regex) {
+                try {
+                    pattern = Pattern.compile(query, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.MULTILINE);
+                } catch (PatternSyntaxException e) {
+                    // Highlight nothing until the pattern is complete
+                }
+            } else {
+                searcher = new TextSearcher(query, true);
+            }
+        }
+        stale = true;
+        scheduleUpdate();
+    }
+
+    /**
+     * Removes all highlights and stops following the component.
+     */
+    public void dispose() {
+        disposed = true;
+        if (viewport != null) {
+            viewport.removeChangeListener(this);
+        }
+        component.getDocument().removeDocumentListener(this);
+        Highlighter highlighter = component.getHighlighter();
+        for (Object tag : tags) {
+            highlighter.removeHighlight(tag);
+        }
+        tags.clear();
+        used = 0;
+    }
+
+    @Override
+    public void stateChanged(ChangeEvent e) {
+        scheduleUpdate();
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        stale = true;
+        scheduleUpdate();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        stale = true;
+        scheduleUpdate();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes do not affect matches
+    }
+
+    /**
+     * Defers the update until the view has caught up with the change, and
+     * folds a burst of scroll or edit events into one update.
+     */
+    private void scheduleUpdate() {
+        if (!updatePending) {
+            updatePending = true;
+            SwingUtilities.invokeLater(this::update);
+        }
+    }
+
+    private void update() {
+        updatePending = false;
+        if (disposed) {
+            return;
+        }
+        Document doc = component.getDocument();
+        Rectangle view = viewport != null ? viewport.getViewRect() : component.getVisibleRect();
+        Element root = doc.getDefaultRootElement();
+        int top = component.viewToModel2D(new Point(view.x, view.y));
+        int bottom = component.viewToModel2D(new Point(view.x + view.width, view.y + view.height));
+        if (top < 0 || bottom < 0) {
+            return;
+        }
+        int start = root.getElement(root.getElementIndex(top)).getStartOffset();
+        int end = Math.min(root.getElement(root.getElementIndex(bottom)).getEndOffset(), doc.getLength());
+        if (!stale && start == shownStart && end == shownEnd) {
+            return;
+        }
+        stale = false;
+        shownStart = start;
+        shownEnd = end;
+
+        int count = 0;
+        try {
+            if (searcher != null) {
+                int length = searcher.length();
+                for (int at = searcher.find(doc, start, end); at >= 0 && count < MAX_HIGHLIGHTS;
+                        at = searcher.find(doc, at + length, end)) {
+                    show(count++, at, at + length);
+                }
+            } else if (pattern != null) {
+                doc.getText(start, end - start, segment);
+                Matcher matcher = pattern.matcher(segment);
+                while (matcher.find() && count < MAX_HIGHLIGHTS) {
+                    if (matcher.end() > matcher.start()) {
+                        show(count++, start + matcher.start(), start + matcher.end());
+                    }
+                }
+            }
+        } catch (BadLocationException e) {
+            System.err.println("Could not highlight matches: " + e.getMessage());
+        } finally {
+            segment.array = null;
+        }
+
+        // Park the tags that are not needed now at an empty range, ready to be
+        // moved again
+        Highlighter highlighter = component.getHighlighter();
+        for (int i = count; i < used; i++) {
+            try {
+                highlighter.changeHighlight(tags.get(i), 0, 0);
+            } catch (BadLocationException e) {
+                // Offset 0 is always valid
+            }
+        }
+        used = count;
+    }
+
+    private void show(int index, int start, int end) throws BadLocationException {
+        Highlighter highlighter = component.getHighlighter();
+        if (index < tags.size()) {
+            Highlighter.Highlight tag = (Highlighter.Highlight) tags.get(index);
+            if (tag.getStartOffset() != start || tag.getEndOffset() != end) {
+                highlighter.changeHighlight(tag, start, end);
+            }
+        } else {
+            tags.add(highlighter.addHighlight(start, end, painter));
+        }
+    }
+}
@@ -13,6 +13,14 @@ public class StatusBar extends JPanel {
     private final JLabel fileNameLabel;
     private final JLabel fileTypeLabel;
     private final JLabel lineCountLabel;
+    private final JLabel statisticsLabel;
+    private final JLabel encodingLabel;
+    private final JLabel lineSeparatorLabel;
+    private final JLabel taskLabel;
+    private final JProgressBar progressBar;
+    private final JButton cancelButton;
+    private final JLabel messageLabel;
+    private Runnable cancelHandler;
 
     public StatusBar() {
         setLayout(new FlowLayout(FlowLayout.LEFT, 10, 2));
@@ -21,12 +29,88 @@ public class StatusBar extends JPanel {
         fileNameLabel = new JLabel("File: Untitled");
         fileTypeLabel = new JLabel("Type: Text");
         lineCountLabel = new JLabel("Lines: 0");
+        statisticsLabel = new JLabel();
+        encodingLabel = new JLabel("Encoding: UTF-8");
+        lineSeparatorLabel = new JLabel("Line Endings: LF");
 
         add(fileNameLabel);
         add(new JSeparator(SwingConstants.VERTICAL));
         add(fileTypeLabel);
         add(new JSeparator(SwingConstants.VERTICAL));
         add(lineCountLabel);
+        add(statisticsLabel);
+        add(new JSeparator(SwingConstants.VERTICAL));
+        add(encodingLabel);
+        add(new JSeparator(SwingConstants.VERTICAL));
+        add(lineSeparatorLabel);
+
+        taskLabel = new JLabel();
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        cancelButton = new JButton("Cancel");
+        cancelButton.setMargin(new Insets(0, 6, 0, 6));
+        cancelButton.addActionListener(e -> {
+            if (cancelHandler != null) {
+                cancelHandler.run();
+            }
+        });
+        add(taskLabel);
+        add(progressBar);
+        add(cancelButton);
+        setProgressVisible(false);
+
+        messageLabel = new JLabel();
+        add(messageLabel);
+    }
+
+    /**
+     * Shows a progress indicator for a background task.
+     * 
+     * @param task     A short description of the task
+     * @param onCancel Called when the user cancels the task, or null if it
+     *                 cannot be cancelled
+     */
+    public void startProgress(String task, Runnable onCancel) {
+        cancelHandler = onCancel;
+        messageLabel.setText("");
+        taskLabel.setText(task);
+        progressBar.setValue(0);
+        setProgressVisible(true);
+        cancelButton.setVisible(onCancel != null);
+    }
+
+    /**
+     * Updates the progress of the current background task.
+     * 
+     * @param done  The amount of work done
+     * @param total The total amount of work
+     */
+    public void setProgress(long done, long total) {
+        progressBar.setValue(total <= 0 ? 100 : (int) (done * 100 / total));
+    }
+
+    /**
+     * Hides the progress indicator.
+     */
+    public void stopProgress() {
+        cancelHandler = null;
+        setProgressVisible(false);
+    }
+
+    private void setProgressVisible(boolean visible) {
+        taskLabel.setVisible(visible);
+        progressBar.setVisible(visible);
+        cancelButton.setVisible(visible);
+    }
+
+    /**
+     * Shows a short message about the last completed task, such as the
+     * result of a save.
+     * 
+     * @param message The message, or an empty string to clear it
+     */
+    public void setMessage(String message) {
+        messageLabel.setText(message);
     }
 
     /**
@@ -58,6 +142,48 @@ public class StatusBar extends JPanel {
         lineCountLabel.setText("Lines: " + count);
     }
 
+    /**
+     * Updates the line count display for a count that may still grow.
+     * 
+     * @param count    The number of lines counted so far
+     * @param complete Whether the count is final
+     */
+    public void setLineCount(long count, boolean complete) {
+        lineCountLabel.setText(String.format("Lines: %,d%s", count, complete ? "" : "+"));
+    }
+
+    /**
+     * Updates the word, character and selection counts.
+     * 
+     * @param words     The number of words, or -1 while they are counted
+     * @param chars     The number of characters
+     * @param selection The number of selected characters
+     */
+    public void setStatistics(long words, int chars, int selection) {
+        String text = String.format("Words: %s  Chars: %,d", words < 0 ? "..." : String.format("%,d", words), chars);
+        statisticsLabel.setText(selection > 0 ? text + String.format("  Selected: %,d", selection) : text);
+    }
+
+    /**
+     * Hides the word, character and selection counts, for views that do
+     * not count them.
+     */
+    public void clearStatistics() {
+        statisticsLabel.setText("");
+    }
+
+    /**
+     * Updates the display of how the file is stored.
+     * 
+     * @param encoding      The name of the encoding
+     * @param lineSeparator The name of the line separator, or null if it is
+     *                      not known
+     */
+    public void setFileFormat(String encoding, String lineSeparator) {
+        encodingLabel.setText("Encoding: " + encoding);
+        lineSeparatorLabel.setText("Line Endings: " + (lineSeparator == null ? "-" : lineSeparator));
+    }
+
     /**
      * Updates all status information at once.
      * 
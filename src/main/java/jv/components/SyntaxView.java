@@ -0,0 +1,163 @@
+package jv.components;
+
+import jv.syntax.Language;
+import jv.syntax.Lexer;
+import jv.syntax.SyntaxHighlighter;
+import jv.syntax.TokenType;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+import javax.swing.text.ViewFactory;
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A view of plain text that paints tokens in the colors of their types.
+ * Each line is lexed when it is painted, from the state the
+ * {@link SyntaxHighlighter} keeps for its start; the tokens of the last line
+ * lexed are kept, since a line is usually painted in several runs around the
+ * selection. Selected text keeps the selection color. Lines too long to
+ * lex on every paint are painted plain. A line whose image is cached is not
+ * lexed at all; the image is keyed by the language and the start state of
+ * the line along with its text.
+ */
+public class SyntaxView extends LongLineView {
+
+    // Longer lines are not lexed for painting
+    private static final int MAX_LEXED_LINE_CHARS = 20_000;
+
+    private final SyntaxHighlighter highlighter;
+    private final Segment lineText = new Segment();
+
+    // Tokens of the cached line, as document offsets
+    private int cachedLine = -1;
+    private int cachedState;
+    private int[] tokenStarts = new int[32];
+    private int[] tokenEnds = new int[32];
+    private TokenType[] tokenTypes = new TokenType[32];
+    private int tokenCount;
+
+    /**
+     * Creates a view of the lines of a document.
+     *
+     * @param elem        The root element of the document
+     * @param highlighter The highlighter keeping the line states
+     */
+    public SyntaxView(Element elem, SyntaxHighlighter highlighter) {
+        super(elem);
+        this.highlighter = highlighter;
+    }
+
+    @Override
+    protected Object getLineStyle(int lineIndex) {
+        Element line = getElement().getElement(lineIndex);
+        if (highlighter.getLexer() == null || !getContainer().isEnabled()
+                || line.getEndOffset() - line.getStartOffset() > MAX_LEXED_LINE_CHARS) {
+            return null;
+        }
+        return new LineStyle(highlighter.getLanguage(), highlighter.getLineState(lineIndex));
+    }
+
+    @Override
+    protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        Lexer lexer = highlighter.getLexer();
+        int line = getElement().getElementIndex(p0);
+        Element lineElement = getElement().getElement(line);
+        if (lexer == null || lineElement.getEndOffset() - lineElement.getStartOffset() > MAX_LEXED_LINE_CHARS) {
+            return super.drawUnselectedText(g, x, y, p0, p1);
+        }
+        JTextComponent host = (JTextComponent) getContainer();
+        Color plain = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+        lexLine(lexer, line);
+
+        int position = p0;
+        for (int i = 0; i < tokenCount && position < p1; i++) {
+            int start = Math.max(tokenStarts[i], position);
+            int end = Math.min(tokenEnds[i], p1);
+            if (end <= start) {
+                continue;
+            }
+            x = drawText(g, x, y, position, start, plain);
+            Color color = tokenTypes[i].getColor();
+            x = drawText(g, x, y, start, end, color != null && host.isEnabled() ? color : plain);
+            position = end;
+        }
+        return drawText(g, x, y, position, p1, plain);
+    }
+
+    /**
+     * Lexes a line into the token cache, unless its tokens are there already.
+     */
+    private void lexLine(Lexer lexer, int line) throws BadLocationException {
+        int state = highlighter.getLineState(line);
+        if (line == cachedLine && state == cachedState) {
+            return;
+        }
+        Element lineElement = getElement().getElement(line);
+        int lineStart = lineElement.getStartOffset();
+        int lineEnd = Math.min(lineElement.getEndOffset() - 1, getDocument().getLength());
+        getDocument().getText(lineStart, lineEnd - lineStart, lineText);
+        int shift = lineStart - lineText.offset;
+        tokenCount = 0;
+        lexer.lexLine(lineText.array, lineText.offset, lineText.offset + lineText.count, state, (start, length, type) -> {
+            if (tokenCount == tokenStarts.length) {
+                tokenStarts = Arrays.copyOf(tokenStarts, tokenCount * 2);
+                tokenEnds = Arrays.copyOf(tokenEnds, tokenCount * 2);
+                tokenTypes = Arrays.copyOf(tokenTypes, tokenCount * 2);
+            }
+            tokenStarts[tokenCount] = start + shift;
+            tokenEnds[tokenCount] = start + length + shift;
+            tokenTypes[tokenCount] = type;
+            tokenCount++;
+        });
+        cachedLine = line;
+        cachedState = state;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+        cachedLine = -1;
+        super.insertUpdate(changes, a, f);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+        cachedLine = -1;
+        super.removeUpdate(changes, a, f);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+        cachedLine = -1;
+        super.changedUpdate(changes, a, f);
+    }
+
+    /**
+     * The style of a highlighted line: its colors follow from its language
+     * and the state it is lexed from.
+     */
+    private static final class LineStyle {
+
+        private final Language language;
+        private final int state;
+
+        LineStyle(Language language, int state) {
+            this.language = language;
+            this.state = state;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LineStyle && ((LineStyle) o).language == language && ((LineStyle) o).state == state;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(language, state);
+        }
+    }
+}
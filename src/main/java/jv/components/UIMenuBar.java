@@ -12,18 +12,25 @@ public class UIMenuBar extends JMenuBar {
     public UIMenuBar(JFrame parent,
                      Action newFileAction,
                      Action openFileAction,
+                     Action openLargeFileAction,
+                     Action followAction,
                      Action saveFileAction,
+                     Action closeTabAction,
                      Action closeAction,
                      Action undoAction,
                      Action redoAction,
                      Action clearAction,
+                     Action goToLineAction,
                      Action findAction) {
 
         // File menu
         JMenu menuFile = new JMenu(Constants.MENU_FILE);
         menuFile.add(createMenuItem(Constants.MENU_ITEM_NEW, newFileAction, Constants.ICON_NEW, java.awt.event.KeyEvent.VK_N));
         menuFile.add(createMenuItem(Constants.MENU_ITEM_OPEN, openFileAction, Constants.ICON_OPEN, java.awt.event.KeyEvent.VK_O));
+        menuFile.add(createMenuItem(Constants.MENU_ITEM_OPEN_LARGE, openLargeFileAction, Constants.ICON_OPEN, java.awt.event.KeyEvent.VK_L));
+        menuFile.add(createCheckBoxMenuItem(Constants.MENU_ITEM_FOLLOW, followAction, java.awt.event.KeyEvent.VK_T));
         menuFile.add(createMenuItem(Constants.MENU_ITEM_SAVE, saveFileAction, Constants.ICON_SAVE, java.awt.event.KeyEvent.VK_S));
+        menuFile.add(createMenuItem(Constants.MENU_ITEM_CLOSE_TAB, closeTabAction, null, java.awt.event.KeyEvent.VK_W));
         menuFile.add(createMenuItem(Constants.MENU_ITEM_CLOSE, closeAction, Constants.ICON_CLOSE, java.awt.event.KeyEvent.VK_F4));
 
         // Edit menu
@@ -32,6 +39,8 @@ public class UIMenuBar extends JMenuBar {
         menuEdit.add(createMenuItem(Constants.MENU_ITEM_REDO, redoAction, Constants.ICON_REDO, java.awt.event.KeyEvent.VK_Y));
         menuEdit.addSeparator();
         menuEdit.add(createMenuItem(Constants.MENU_ITEM_CLEAR, clearAction, Constants.ICON_CLEAR, java.awt.event.KeyEvent.VK_K));
+        menuEdit.addSeparator();
+        menuEdit.add(createMenuItem(Constants.MENU_ITEM_GO_TO_LINE, goToLineAction, null, java.awt.event.KeyEvent.VK_G));
 
         // Find menu
         JMenu menuFind = new JMenu(Constants.MENU_FIND);
@@ -63,4 +72,11 @@ public class UIMenuBar extends JMenuBar {
         item.setAccelerator(KeyStroke.getKeyStroke(keyCode, InputEvent.CTRL_DOWN_MASK));
         return item;
     }
+
+    private JMenuItem createCheckBoxMenuItem(String text, Action action, int keyCode) {
+        JMenuItem item = new JCheckBoxMenuItem(action);
+        item.setText(text);
+        item.setAccelerator(KeyStroke.getKeyStroke(keyCode, InputEvent.CTRL_DOWN_MASK));
+        return item;
+    }
 }
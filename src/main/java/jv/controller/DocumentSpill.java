@@ -0,0 +1,196 @@
+package jv.controller;
+
+import jv.model.AppendBuffer;
+import jv.model.DocumentModel;
+import jv.model.FileFormat;
+import jv.model.FileLayout;
+import jv.model.PieceTable;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Drops the text of a document kept in the background to free memory, and
+ * brings it back when the document is shown again.
+ * <p>
+ * A document that matches its file is simply read from the file again. Any
+ * other document is first written on a virtual thread to a temporary spill
+ * file, as UTF-8 with {@code '\n'} separators so every character comes back
+ * unchanged, and is read back from it. Its edit journal is suspended while
+ * the text is dropped, so unsaved edits stay recoverable after a crash, and
+ * its file stays watched through a layout without text. The
+ * undo history of an evicted document is lost, as it refers to the dropped
+ * text.
+ */
+public class DocumentSpill {
+
+    private final DocumentModel model;
+    private final EditJournal journal;
+    private boolean spilling;
+    private boolean evicted;
+    private File spillFile;
+    private boolean modified;
+    private FileFormat format;
+    private FileLayout fileLayout;
+
+    /**
+     * Creates the spill of a document.
+     *
+     * @param model   The document model
+     * @param journal The edit journal of the document
+     */
+    public DocumentSpill(DocumentModel model, EditJournal journal) {
+        this.model = model;
+        this.journal = journal;
+    }
+
+    /**
+     * Checks if the text of the document was dropped.
+     *
+     * @return true until {@link #restore()} brings it back
+     */
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Checks if the document is being written to its spill file.
+     *
+     * @return true while spilling
+     */
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    /**
+     * Checks if the document had unsaved changes when it was evicted.
+     *
+     * @return true if the evicted text differs from its file
+     */
+    public boolean isModified() {
+        return evicted ? modified : model.isModified();
+    }
+
+    /**
+     * Drops the text of the document. A document without a file to read it
+     * from again is spilled first; its text is then only dropped if it was
+     * not edited meanwhile and is still in the background. Must be called
+     * on the Event Dispatch Thread.
+     *
+     * @param stillHidden Tells, once spilled, if the document is still in the
+     *                    background
+     * @param dropped     Called on the Event Dispatch Thread once the text was
+     *                    dropped
+     */
+    public void evict(BooleanSupplier stillHidden, Runnable dropped) {
+        if (evicted || spilling) {
+            return;
+        }
+        FileLayout layout = model.getFileLayout();
+        if (!model.isModified() && layout != null && layout.matches(layout.getFile().toPath())) {
+            // The file still holds the text, so it is read from there again
+            modified = false;
+            spillFile = null;
+            drop();
+            dropped.run();
+            return;
+        }
+        spilling = true;
+        long revision = model.getRevision();
+        PieceTable text = model.snapshot();
+        Thread.ofVirtual().name("document-spill").start(() -> {
+            File file = null;
+            IOException error;
+            try {
+                file = Files.createTempFile("javitor-", ".spill").toFile();
+                error = new FileSaver(file, text, null).saveAndWait();
+            } catch (IOException e) {
+                error = e;
+            }
+            File spilled = file;
+            IOException failure = error;
+            SwingUtilities.invokeLater(() -> finishSpill(spilled, failure, revision, stillHidden, dropped));
+        });
+    }
+
+    private void finishSpill(File file, IOException error, long revision, BooleanSupplier stillHidden,
+            Runnable dropped) {
+        spilling = false;
+        if (error != null || model.getRevision() != revision || model.isLoading() || !stillHidden.getAsBoolean()) {
+            if (error != null) {
+                System.err.println("Cannot spill " + model.getDisplayName() + ": " + error.getMessage());
+            }
+            delete(file);
+            return;
+        }
+        journal.suspend();
+        spillFile = file;
+        modified = model.isModified();
+        FileLayout layout = model.getFileLayout();
+        drop();
+        if (layout != null) {
+            // Keep the file watched while its old text is dropped
+            fileLayout = layout.withoutText();
+            model.setFileLayout(fileLayout);
+        }
+        dropped.run();
+    }
+
+    /**
+     * Empties the document, keeping its file and format.
+     */
+    private void drop() {
+        format = model.getFileFormat();
+        model.load("");
+        model.setFileFormat(format);
+        evicted = true;
+    }
+
+    /**
+     * Brings the text of an evicted document back. A spilled document is read
+     * from its spill file at once; a document that matched its file must be
+     * loaded from that file again by the caller. Must be called on the Event
+     * Dispatch Thread.
+     *
+     * @return true if the text is back, false if the file must be loaded
+     * @throws IOException if the spill file could not be read; the document
+     *                     stays evicted
+     */
+    public boolean restore() throws IOException {
+        if (!evicted) {
+            return true;
+        }
+        if (spillFile == null) {
+            evicted = false;
+            return false;
+        }
+        AppendBuffer text = FileManager.readFileContent(spillFile, new FileDecoder(FileFormat.DEFAULT));
+        model.load(text);
+        model.setFileFormat(format);
+        model.setFileLayout(fileLayout);
+        model.setModified(modified);
+        evicted = false;
+        fileLayout = null;
+        delete(spillFile);
+        spillFile = null;
+        journal.resume();
+        return true;
+    }
+
+    /**
+     * Deletes the spill file, if any. Called when the document is closed.
+     */
+    public void discard() {
+        delete(spillFile);
+        spillFile = null;
+    }
+
+    private static void delete(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            System.err.println("Could not delete spill file " + file);
+        }
+    }
+}
@@ -0,0 +1,1010 @@
+package jv.controller;
+
+import jv.model.AppendBuffer;
+import jv.model.DocumentModel;
+import jv.model.FileFormat;
+import jv.model.PieceTable;
+import jv.model.PieceTableContent;
+import jv.util.Constants;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only journal of the edits made to a document since it was last
+ * loaded or saved, so unsaved work survives a crash.
+ * <p>
+ * The journal starts with the format the document is saved in and a base,
+ * either the saved file the document was loaded from or a snapshot of the
+ * text, followed by one record per edit:
+ * the offset, the number of characters removed and the text inserted. Each
+ * record carries a checksum, so a record torn by a crash ends the replay
+ * instead of corrupting it.
+ * <p>
+ * On the Event Dispatch Thread an edit only costs a snapshot of the piece
+ * table, and consecutive typing is merged into one record. A background
+ * thread copies the inserted text out of the snapshots and writes the
+ * records in batches, forcing them to disk once per batch. When replaying
+ * the edits would cost more than reading the text, the journal is compacted
+ * into a new base, which bounds the time a recovery takes however long the
+ * session was. The journal is deleted whenever the document matches its
+ * file again.
+ * <p>
+ * Every open journal is locked, so journals that can be locked at startup
+ * were left behind by a session that did not exit cleanly.
+ */
+public class EditJournal implements DocumentListener, PropertyChangeListener {
+
+    private static final int MAGIC = 0x4A564A32; // "JVJ2"
+    private static final byte BASE_FILE = 1;
+    private static final byte BASE_SNAPSHOT = 2;
+    private static final byte RECORD_EDIT = 'E';
+    private static final String SUFFIX = ".journal";
+    private static final String TEMP_SUFFIX = SUFFIX + ".tmp";
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long COMPACT_MIN_BYTES = 4L * 1024 * 1024;
+    private static final int COMPACT_MIN_RECORDS = 8192;
+    private static final int REPLAY_COST_CHARS = 4096; // Replaying a record costs about as much as reading this many characters
+
+    /** Deletes the journal file: the document matches its file. */
+    private static final Object RESET = new Object();
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "edit-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * An edit waiting to be written. The inserted text is read from a
+     * snapshot taken after the edit, where it lies at the edit offset.
+     */
+    private static final class Edit {
+        int offset;
+        int removed;
+        int inserted;
+        PieceTable text;
+
+        Edit(int offset, int removed, int inserted, PieceTable text) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The start of a new journal: a saved file of the given length, or the
+     * text of a snapshot when there is no file.
+     */
+    private static final class Base {
+        final File file;
+        final FileFormat format;
+        final PieceTable snapshot;
+        final int length;
+        final Path replaces;
+
+        Base(File file, FileFormat format, PieceTable snapshot, int length, Path replaces) {
+            this.file = file;
+            this.format = format;
+            this.snapshot = snapshot;
+            this.length = length;
+            this.replaces = replaces;
+        }
+    }
+
+    private final DocumentModel model;
+    private final Path directory;
+
+    // Event Dispatch Thread state
+    private boolean basePending;
+    private File baseFile;
+    private FileFormat baseFormat;
+    private PieceTable baseSnapshot;
+
+    // Shared with the writer
+    private List<Object> pending;
+    private boolean flushScheduled;
+
+    // Writer state
+    private Path path;
+    private FileChannel channel;
+    private FileLock lock;
+    private Output output;
+    private File file;
+    private FileFormat format;
+    private PieceTable written;
+    private long recordBytes;
+    private int recordCount;
+    private boolean failed;
+
+    /**
+     * Starts journaling the edits of a document.
+     *
+     * @param model The document model to follow
+     */
+    public EditJournal(DocumentModel model) {
+        this.model = model;
+        this.directory = journalDirectory();
+        this.pending = new ArrayList<>();
+        rebase();
+        model.getDocument().addDocumentListener(this);
+        model.addPropertyChangeListener(this);
+    }
+
+    /**
+     * Gets the directory holding the journals of all sessions.
+     *
+     * @return The journal directory
+     */
+    public static Path journalDirectory() {
+        return Paths.get(System.getProperty("user.home"), Constants.JOURNAL_DIRECTORY);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if (model.isLoading()) {
+            return;
+        }
+        int offset = e.getOffset();
+        int length = e.getLength();
+        PieceTable text = model.snapshot();
+        synchronized (this) {
+            Edit last = lastPending();
+            if (last != null && offset == last.offset + last.inserted) {
+                // Typing on at the end of the previous edit
+                last.inserted += length;
+                last.text = text;
+                return;
+            }
+        }
+        record(new Edit(offset, 0, length, text), length);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (model.isLoading()) {
+            return;
+        }
+        int offset = e.getOffset();
+        int length = e.getLength();
+        PieceTable text = model.snapshot();
+        synchronized (this) {
+            Edit last = lastPending();
+            if (last != null) {
+                if (offset >= last.offset && offset + length <= last.offset + last.inserted) {
+                    // Taking back text that is not written yet
+                    last.inserted -= length;
+                    last.text = text;
+                    return;
+                }
+                if (last.inserted == 0 && (offset == last.offset || offset + length == last.offset)) {
+                    // Delete or Backspace held down
+                    last.offset = offset;
+                    last.removed += length;
+                    last.text = text;
+                    return;
+                }
+            }
+        }
+        record(new Edit(offset, length, 0, text), -length);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes are not part of plain text
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        String name = evt.getPropertyName();
+        if (DocumentModel.PROPERTY_CONTENT.equals(name)
+                || DocumentModel.PROPERTY_MODIFIED.equals(name) && !model.isModified()) {
+            rebase();
+        }
+    }
+
+    /**
+     * Continues the journal of a recovered document: writes the recovered
+     * text as the base of this journal and then deletes the old one. The
+     * document must already hold the recovered text.
+     *
+     * @param recovery The recovery shown in the document
+     */
+    public void adopt(Recovery recovery) {
+        basePending = false;
+        enqueue(new Base(model.getCurrentFile(), model.getFileFormat(), model.snapshot(), model.getLength(),
+                recovery.journal));
+    }
+
+    /**
+     * Stops following the document while its text is dropped to save memory,
+     * without deleting the journal, so its unsaved edits stay recoverable.
+     * The snapshots the journal holds are released.
+     */
+    public void suspend() {
+        model.getDocument().removeDocumentListener(this);
+        model.removePropertyChangeListener(this);
+        baseSnapshot = null;
+        WRITER.execute(() -> {
+            flush();
+            written = null; // Taken from the next edit written
+        });
+    }
+
+    /**
+     * Follows the document again once it holds the text it had when the
+     * journal was suspended.
+     */
+    public void resume() {
+        if (basePending && baseFile == null) {
+            baseSnapshot = model.snapshot();
+        }
+        model.getDocument().addDocumentListener(this);
+        model.addPropertyChangeListener(this);
+    }
+
+    /**
+     * Stops journaling and unlocks the journal without deleting it, so its
+     * changes are offered for recovery on the next start. Called when the
+     * document is closed while its changes could not be saved.
+     */
+    public void release() {
+        model.getDocument().removeDocumentListener(this);
+        model.removePropertyChangeListener(this);
+        WRITER.execute(() -> {
+            flush();
+            closeQuietly();
+        });
+    }
+
+    /**
+     * Stops journaling and deletes the journal. Called when the document is
+     * closed, after the user saved or discarded the changes. The journal is
+     * deleted on the writer thread without waiting for it; see
+     * {@link #awaitWrites(long)}.
+     */
+    public void close() {
+        model.getDocument().removeDocumentListener(this);
+        model.removePropertyChangeListener(this);
+        enqueue(RESET);
+        WRITER.execute(this::flush);
+    }
+
+    /**
+     * Waits until the writer thread has handled the journals closed so far,
+     * so that exiting does not leave behind journals of changes that were
+     * saved or discarded.
+     *
+     * @param timeoutMillis The longest time to wait
+     */
+    public static void awaitWrites(long timeoutMillis) {
+        try {
+            WRITER.submit(() -> {
+            }).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Could not finish writing the edit journals: " + e);
+        }
+    }
+
+    /**
+     * Starts over after a load or save: the journal is deleted, and the base
+     * of the next one is recorded with the next edit, when the document is
+     * complete.
+     */
+    private void rebase() {
+        basePending = true;
+        baseFile = model.getCurrentFile();
+        baseFormat = model.getFileFormat();
+        baseSnapshot = baseFile == null ? model.snapshot() : null;
+        enqueue(RESET);
+    }
+
+    private void record(Edit edit, int delta) {
+        if (basePending) {
+            basePending = false;
+            int length = model.getLength() - delta; // The length before this edit
+            enqueue(new Base(baseFile, baseFormat, baseSnapshot, length, null));
+            baseSnapshot = null;
+        }
+        enqueue(edit);
+    }
+
+    private Edit lastPending() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        Object last = pending.get(pending.size() - 1);
+        return last instanceof Edit ? (Edit) last : null;
+    }
+
+    /**
+     * Adds an entry to the current batch, which is written once the flush
+     * interval has passed.
+     */
+    private synchronized void enqueue(Object entry) {
+        pending.add(entry);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            WRITER.schedule(this::flush, Constants.JOURNAL_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the current batch and forces it to disk. Runs on the writer
+     * thread.
+     */
+    private void flush() {
+        List<Object> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            for (Object entry : batch) {
+                if (entry == RESET) {
+                    delete();
+                } else if (entry instanceof Base) {
+                    start((Base) entry);
+                } else if (output != null) {
+                    write((Edit) entry);
+                }
+            }
+            if (output != null) {
+                output.flush();
+                channel.force(false);
+                if (written != null && needsCompaction()) {
+                    compact();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!failed) {
+                failed = true;
+                System.err.println("Edit journal disabled: " + e.getMessage());
+            }
+            closeQuietly();
+        }
+    }
+
+    private void start(Base base) throws IOException {
+        if (failed) {
+            return;
+        }
+        delete();
+        Files.createDirectories(directory);
+        open(Files.createTempFile(directory, "edits-", SUFFIX));
+        writeHeader(output, base.file, base.format, base.snapshot, base.length);
+        output.flush();
+        channel.force(false);
+        if (base.replaces != null) {
+            Files.deleteIfExists(base.replaces);
+        }
+        file = base.file;
+        format = base.format;
+        written = base.snapshot;
+        recordBytes = 0;
+        recordCount = 0;
+    }
+
+    private void write(Edit edit) throws IOException {
+        long before = output.position();
+        output.putByte(RECORD_EDIT);
+        output.putInt(edit.offset);
+        output.putInt(edit.removed);
+        output.putInt(edit.inserted);
+        output.putChars(edit.text, edit.offset, edit.offset + edit.inserted);
+        output.endRecord();
+        written = edit.text;
+        recordBytes += output.position() - before;
+        recordCount++;
+    }
+
+    /**
+     * Checks if replaying the records would take longer than reading the
+     * text they lead to, either because there are many of them or because
+     * they hold more text than the document.
+     */
+    private boolean needsCompaction() {
+        int length = written.length();
+        return recordCount >= Math.max(COMPACT_MIN_RECORDS, length / REPLAY_COST_CHARS)
+                || recordBytes > Math.max(COMPACT_MIN_BYTES, 2L * length);
+    }
+
+    /**
+     * Replaces the journal by one whose base is the text after the last edit
+     * written. The new journal is complete on disk before it is moved over
+     * the old one.
+     */
+    private void compact() throws IOException {
+        Path temp = Files.createTempFile(directory, "edits-", TEMP_SUFFIX);
+        FileChannel newChannel = FileChannel.open(temp, StandardOpenOption.WRITE);
+        try {
+            FileLock newLock = newChannel.lock();
+            Output newOutput = new Output(newChannel);
+            writeHeader(newOutput, file, format, written, written.length());
+            newOutput.flush();
+            newChannel.force(true);
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Path journal = path;
+            File journalFile = file;
+            FileFormat journalFormat = format;
+            PieceTable text = written;
+            closeQuietly();
+            path = journal;
+            file = journalFile;
+            format = journalFormat;
+            written = text;
+            channel = newChannel;
+            lock = newLock;
+            output = newOutput;
+            recordBytes = 0;
+            recordCount = 0;
+        } catch (IOException e) {
+            newChannel.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private void writeHeader(Output out, File file, FileFormat format, PieceTable snapshot, int length)
+            throws IOException {
+        out.putInt(MAGIC);
+        out.putString(file == null ? "" : file.getAbsolutePath());
+        out.putString(format.getCharset().name());
+        out.putByte((byte) (format.hasByteOrderMark() ? 1 : 0));
+        out.putByte((byte) format.getLineSeparator().ordinal());
+        if (snapshot == null) {
+            out.putByte(BASE_FILE);
+            out.putLong(file.length());
+            out.putLong(file.lastModified());
+            out.putInt(length);
+        } else {
+            out.putByte(BASE_SNAPSHOT);
+            out.putInt(snapshot.length());
+            out.putChars(snapshot, 0, snapshot.length());
+        }
+        out.endRecord();
+    }
+
+    private void open(Path journal) throws IOException {
+        channel = FileChannel.open(journal, StandardOpenOption.WRITE);
+        path = journal;
+        lock = channel.lock();
+        output = new Output(channel);
+    }
+
+    private void delete() throws IOException {
+        Path journal = path;
+        closeQuietly();
+        if (journal != null) {
+            Files.deleteIfExists(journal);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // Nothing left to write
+        }
+        path = null;
+        channel = null;
+        lock = null;
+        output = null;
+        file = null;
+        format = null;
+        written = null;
+    }
+
+    /**
+     * Finds the journals left behind by sessions that did not exit cleanly
+     * and replays them in the background. Journals that cannot be replayed
+     * because their base file changed or they are damaged are renamed so
+     * they are not offered again.
+     * <p>
+     * The search runs on the thread that writes the journals of this
+     * session, so each of them is either not created yet or already locked
+     * while it runs.
+     *
+     * @param recovered Receives the recovered documents, possibly none, on
+     *                  the Event Dispatch Thread
+     */
+    public static void recoverOrphans(Consumer<List<Recovery>> recovered) {
+        WRITER.execute(() -> {
+            List<Recovery> recoveries = recoverOrphans();
+            SwingUtilities.invokeLater(() -> recovered.accept(recoveries));
+        });
+    }
+
+    private static List<Recovery> recoverOrphans() {
+        List<Recovery> recoveries = new ArrayList<>();
+        Path dir = journalDirectory();
+        if (!Files.isDirectory(dir)) {
+            return recoveries;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!isOrphan(file)) {
+                    continue;
+                }
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file); // A compaction cut short, the journal is intact
+                    continue;
+                }
+                if (!name.endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    Recovery recovery = replay(file);
+                    if (recovery != null) {
+                        recoveries.add(recovery);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Could not recover " + file + ": " + e.getMessage());
+                    Files.move(file, file.resolveSibling(file.getFileName() + ".failed"),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not look for edit journals: " + e.getMessage());
+        }
+        return recoveries;
+    }
+
+    /**
+     * Checks if no running session holds the lock of a journal.
+     */
+    private static boolean isOrphan(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            return false; // Held by this session
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rebuilds the text of a journal from its base and edit records. Replay
+     * stops at the first damaged record, which is where a crash cut the
+     * journal short.
+     *
+     * @return The recovered text, or null if the journal holds no edits
+     */
+    private static Recovery replay(Path journal) throws IOException {
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            File file;
+            FileFormat format;
+            byte kind;
+            AppendBuffer base;
+            try {
+                if (in.getInt() != MAGIC) {
+                    throw new IOException("Not an edit journal");
+                }
+                String name = in.getString();
+                file = name.isEmpty() ? null : new File(name);
+                format = readFormat(in);
+                kind = in.getByte();
+                base = readBase(in, kind, file, format);
+            } catch (EOFException e) {
+                throw new IOException("The journal ends within its base", e);
+            }
+
+            PieceTableContent content = new PieceTableContent(base);
+            int edits = 0;
+            char[] chars = new char[0];
+            try {
+                while (in.hasMore() && in.getByte() == RECORD_EDIT) {
+                    int offset = in.getInt();
+                    int removed = in.getInt();
+                    int inserted = in.getInt();
+                    if (inserted < 0 || removed < 0 || inserted > in.remaining() / 2) {
+                        break; // A torn record
+                    }
+                    if (chars.length < inserted) {
+                        chars = new char[inserted];
+                    }
+                    in.getChars(chars, inserted);
+                    if (!in.endRecord()) {
+                        break;
+                    }
+                    if (removed > 0) {
+                        content.remove(offset, removed);
+                    }
+                    if (inserted > 0) {
+                        content.insertString(offset, new String(chars, 0, inserted));
+                    }
+                    edits++;
+                }
+            } catch (EOFException | BadLocationException e) {
+                // The crash cut the last batch short
+            }
+
+            PieceTable text = content.snapshot();
+            if (edits == 0 && (kind == BASE_FILE || text.length() == 0)) {
+                Files.deleteIfExists(journal); // Nothing that is not in the file already
+                return null;
+            }
+            AppendBuffer recovered = new AppendBuffer(text.length());
+            text.forEachPiece(0, text.length(), recovered::append);
+            return new Recovery(journal, file, format, recovered, edits,
+                    Files.getLastModifiedTime(journal).toMillis());
+        }
+    }
+
+    private static FileFormat readFormat(Input in) throws IOException {
+        String charset = in.getString();
+        byte bom = in.getByte();
+        byte separator = in.getByte();
+        try {
+            return new FileFormat(Charset.forName(charset), bom != 0,
+                    FileFormat.LineSeparator.values()[separator]);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Damaged journal header", e);
+        }
+    }
+
+    /**
+     * Reads the text the edits of a journal start from. A file is decoded in
+     * the format recorded, which gives the text the edits were made to.
+     */
+    private static AppendBuffer readBase(Input in, byte kind, File file, FileFormat format) throws IOException {
+        if (kind == BASE_FILE) {
+            long size = in.getLong();
+            long modified = in.getLong();
+            int length = in.getInt();
+            if (!in.endRecord()) {
+                throw new IOException("Damaged journal header");
+            }
+            if (file == null || file.length() != size || file.lastModified() != modified) {
+                throw new IOException(file + " was changed after the edits were made");
+            }
+            AppendBuffer base = FileManager.readFileContent(file, new FileDecoder(format));
+            if (base.length() != length) {
+                throw new IOException(file + " no longer matches the edits");
+            }
+            return base;
+        }
+        if (kind == BASE_SNAPSHOT) {
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining() / 2) {
+                throw new IOException("Damaged journal snapshot");
+            }
+            AppendBuffer base = new AppendBuffer(length);
+            in.getChars(base, length);
+            if (!in.endRecord()) {
+                throw new IOException("Damaged journal snapshot");
+            }
+            return base;
+        }
+        throw new IOException("Unknown journal base " + kind);
+    }
+
+    /**
+     * The text of a document rebuilt from a journal left by a crash.
+     */
+    public static final class Recovery {
+        private final Path journal;
+        private final File file;
+        private final FileFormat format;
+        private final AppendBuffer text;
+        private final int editCount;
+        private final long lastEdited;
+
+        private Recovery(Path journal, File file, FileFormat format, AppendBuffer text, int editCount,
+                long lastEdited) {
+            this.journal = journal;
+            this.file = file;
+            this.format = format;
+            this.text = text;
+            this.editCount = editCount;
+            this.lastEdited = lastEdited;
+        }
+
+        /**
+         * Gets the file the document was saved to.
+         *
+         * @return The file, or null for an untitled document
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Gets the format the document was to be saved in.
+         *
+         * @return The file format
+         */
+        public FileFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * Gets the recovered text.
+         *
+         * @return The text, including all edits
+         */
+        public AppendBuffer getText() {
+            return text;
+        }
+
+        /**
+         * Gets the number of edit records replayed.
+         *
+         * @return The edit count
+         */
+        public int getEditCount() {
+            return editCount;
+        }
+
+        /**
+         * Gets the time of the last batch written to the journal.
+         *
+         * @return The time in milliseconds since the epoch
+         */
+        public long getLastEdited() {
+            return lastEdited;
+        }
+
+        /**
+         * Deletes the journal, giving up the changes it holds.
+         */
+        public void discard() {
+            try {
+                Files.deleteIfExists(journal);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + journal + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Buffered journal output that keeps a checksum of the current record.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final CRC32C crc;
+        private int crcStart;
+        private long flushed;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            this.crc = new CRC32C();
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            putInt(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                ensure(2);
+                buffer.putChar(value.charAt(i));
+            }
+        }
+
+        void putChars(PieceTable text, int start, int end) throws IOException {
+            try {
+                text.forEachPiece(start, end, (array, offset, length) -> {
+                    while (length > 0) {
+                        try {
+                            ensure(2);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        int count = Math.min(length, buffer.remaining() / 2);
+                        buffer.asCharBuffer().put(array, offset, count);
+                        buffer.position(buffer.position() + 2 * count);
+                        offset += count;
+                        length -= count;
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Ends a record with the checksum of its bytes.
+         */
+        void endRecord() throws IOException {
+            crc.update(buffer.array(), crcStart, buffer.position() - crcStart);
+            crcStart = buffer.position();
+            int checksum = (int) crc.getValue();
+            crc.reset();
+            putInt(checksum);
+            crcStart = buffer.position();
+        }
+
+        void flush() throws IOException {
+            crc.update(buffer.array(), crcStart, buffer.position() - crcStart);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+            crcStart = 0;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Buffered journal input that checks the checksum of each record.
+     */
+    private static final class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final CRC32C crc;
+        private int crcStart;
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE).limit(0);
+            this.crc = new CRC32C();
+        }
+
+        boolean hasMore() throws IOException {
+            return buffer.hasRemaining() || fill(1);
+        }
+
+        long remaining() throws IOException {
+            return buffer.remaining() + channel.size() - channel.position();
+        }
+
+        byte getByte() throws IOException {
+            require(1);
+            return buffer.get();
+        }
+
+        int getInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        long getLong() throws IOException {
+            require(8);
+            return buffer.getLong();
+        }
+
+        String getString() throws IOException {
+            int length = getInt();
+            if (length < 0 || length > Short.MAX_VALUE) {
+                throw new IOException("Damaged journal");
+            }
+            char[] chars = new char[length];
+            getChars(chars, length);
+            return new String(chars);
+        }
+
+        void getChars(char[] dst, int count) throws IOException {
+            int done = 0;
+            while (done < count) {
+                require(2);
+                int n = Math.min(count - done, buffer.remaining() / 2);
+                buffer.asCharBuffer().get(dst, done, n);
+                buffer.position(buffer.position() + 2 * n);
+                done += n;
+            }
+        }
+
+        void getChars(AppendBuffer dst, int count) throws IOException {
+            char[] chunk = new char[BUFFER_SIZE / 2];
+            while (count > 0) {
+                int n = Math.min(count, chunk.length);
+                getChars(chunk, n);
+                dst.append(chunk, 0, n);
+                count -= n;
+            }
+        }
+
+        /**
+         * Reads the checksum ending a record and compares it with the bytes
+         * read since the previous one.
+         */
+        boolean endRecord() throws IOException {
+            crc.update(buffer.array(), crcStart, buffer.position() - crcStart);
+            crcStart = buffer.position();
+            int expected = (int) crc.getValue();
+            crc.reset();
+            boolean valid = getInt() == expected;
+            crcStart = buffer.position();
+            return valid;
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() < bytes && !fill(bytes)) {
+                throw new EOFException();
+            }
+        }
+
+        private boolean fill(int bytes) throws IOException {
+            crc.update(buffer.array(), crcStart, buffer.position() - crcStart);
+            buffer.compact();
+            try {
+                while (buffer.position() < bytes) {
+                    if (channel.read(buffer) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                buffer.flip();
+                crcStart = 0;
+            }
+        }
+    }
+}
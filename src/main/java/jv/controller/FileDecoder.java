@@ -0,0 +1,226 @@
+package jv.controller;
+
+import jv.model.AppendBuffer;
+import jv.model.FileFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a file chunk by chunk in its {@link FileFormat}, turning its line
+ * separators into the {@code '\n'} the document uses. Files with
+ * {@code '\n'} separators are decoded straight into the text buffer; others
+ * go through a small reused buffer where the separators are replaced.
+ * <p>
+ * When the format was detected rather than given, a file that looked like
+ * UTF-8 at its start may turn out not to be; the caller can then fall back to
+ * ISO-8859-1 and decode the file again from the start.
+ * <p>
+ * Separators other than the one of the file still end lines, so a save
+ * writes them as the separator of the file: a lone {@code '\n'} in a CRLF
+ * file, and a {@code '\n'} or CRLF in a CR file, which counts as a single
+ * line end. The decoder then reports the text as not {@linkplain #isExact()
+ * exact}. Lone carriage returns in LF and CRLF files are kept as they are.
+ */
+final class FileDecoder {
+
+    private static final int CHUNK_CHARS = 64 * 1024;
+
+    private FileFormat format;
+    private boolean detected;
+    private CharsetDecoder decoder;
+    private CharBuffer chunk;
+    private boolean pendingCR;
+    private boolean afterCR;
+    private boolean exact = true;
+
+    /**
+     * Creates a decoder.
+     *
+     * @param format The format of the file, or null to detect it
+     */
+    FileDecoder(FileFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Gets the format the file is decoded in.
+     *
+     * @return The format, or null before {@link #start(FileChannel)}
+     */
+    FileFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Prepares to decode a file from its start: detects its format if needed
+     * and moves the channel past the byte order mark.
+     *
+     * @param channel The file, which is read from its start
+     * @throws IOException if an I/O error occurs
+     */
+    void start(FileChannel channel) throws IOException {
+        if (format == null) {
+            ByteBuffer sample = ByteBuffer.allocate((int) Math.min(channel.size(), FileFormat.SAMPLE_SIZE));
+            while (sample.hasRemaining() && channel.read(sample, sample.position()) > 0) {
+                // Read positionally, so the channel stays where it is
+            }
+            sample.flip();
+            format = FileFormat.detect(sample, sample.limit() == channel.size());
+            detected = true;
+        }
+        exact = true;
+        resume(channel, format.getByteOrderMark().length);
+    }
+
+    /**
+     * Prepares to decode a file in a known format from a position, such as
+     * the end of the text already read from a file that grew.
+     *
+     * @param channel  The file
+     * @param position The position of the first byte to decode, at the start
+     *                 of a character
+     * @throws IOException if an I/O error occurs
+     */
+    void resume(FileChannel channel, long position) throws IOException {
+        channel.position(position);
+        decoder = format.getCharset().newDecoder();
+        pendingCR = false;
+        afterCR = false;
+        if (format.getLineSeparator() != FileFormat.LineSeparator.LF && chunk == null) {
+            chunk = CharBuffer.allocate(CHUNK_CHARS);
+        }
+    }
+
+    /**
+     * Switches to ISO-8859-1 after the file turned out not to be the UTF-8
+     * it was detected as. The file must then be decoded again from
+     * {@link #start(FileChannel)}.
+     *
+     * @param result The error the decoder reported
+     * @return true if the file can be decoded again, false if the error is final
+     */
+    boolean fallBack(CoderResult result) {
+        if (!detected || !result.isMalformed() || !format.getCharset().equals(StandardCharsets.UTF_8)
+                || format.hasByteOrderMark()) {
+            return false;
+        }
+        format = format.withCharset(StandardCharsets.ISO_8859_1);
+        return true;
+    }
+
+    /**
+     * Decodes bytes into the buffer. Bytes of an incomplete character at the
+     * end of the input are left in the byte buffer for the next call.
+     *
+     * @param in         The bytes to decode
+     * @param out        The buffer to append the text to
+     * @param endOfInput Whether no more input follows
+     * @return The result of the last decode, either underflow or an error
+     */
+    CoderResult decode(ByteBuffer in, AppendBuffer out, boolean endOfInput) {
+        if (format.getLineSeparator() == FileFormat.LineSeparator.LF) {
+            return out.decodeFrom(decoder, in, endOfInput);
+        }
+        while (true) {
+            CoderResult result = decoder.decode(in, chunk, endOfInput);
+            if (!result.isError() && !result.isOverflow() && endOfInput) {
+                result = decoder.flush(chunk);
+            }
+            chunk.flip();
+            translate(out);
+            chunk.clear();
+            if (!result.isOverflow()) {
+                if (endOfInput && pendingCR && !result.isError()) {
+                    pendingCR = false;
+                    out.append("\r");
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Checks if a character that was decoded is not in the buffer yet: a
+     * carriage return that may be followed by a line feed in the next chunk.
+     *
+     * @return true if the text in the buffer lags behind the bytes decoded
+     */
+    boolean isHoldingChar() {
+        return pendingCR;
+    }
+
+    /**
+     * Checks if saving the decoded text unchanged would write the bytes it
+     * was decoded from, which is not the case when the file mixes line
+     * separators.
+     *
+     * @return true if the text encodes back to the same bytes
+     */
+    boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Appends the decoded chunk with its line separators replaced by
+     * {@code '\n'}. The text only shrinks, so it is rewritten in place.
+     * Carriage returns that are not part of a separator are kept.
+     */
+    private void translate(AppendBuffer out) {
+        char[] array = chunk.array();
+        int length = chunk.limit();
+        if (length == 0) {
+            return;
+        }
+        boolean crOnly = format.getLineSeparator() == FileFormat.LineSeparator.CR;
+        int written = 0;
+        int i = 0;
+        if (pendingCR) {
+            // The carriage return that ended the previous chunk
+            pendingCR = false;
+            if (array[0] == '\n') {
+                written = 1;
+                i = 1;
+            } else {
+                out.append("\r");
+            }
+        }
+        for (; i < length; i++) {
+            char c = array[i];
+            if (crOnly) {
+                if (c == '\n') {
+                    exact = false;
+                    if (afterCR) {
+                        // The line feed of a CRLF, whose line the carriage
+                        // return has ended already
+                        afterCR = false;
+                        continue;
+                    }
+                }
+                afterCR = c == '\r';
+                array[written++] = afterCR ? '\n' : c;
+                continue;
+            }
+            if (pendingCR) {
+                pendingCR = false;
+                if (c == '\n') {
+                    array[written++] = '\n';
+                    continue;
+                }
+                array[written++] = '\r';
+            }
+            if (c == '\r') {
+                pendingCR = true;
+            } else {
+                exact &= c != '\n';
+                array[written++] = c;
+            }
+        }
+        out.append(array, 0, written);
+    }
+}
@@ -0,0 +1,438 @@
+package jv.controller;
+
+import jv.model.AppendBuffer;
+import jv.model.DocumentModel;
+import jv.model.FileFormat;
+import jv.util.Constants;
+
+import javax.swing.*;
+import javax.swing.text.Element;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows the end of a file that another program keeps appending to, such as
+ * a log, like {@code tail -f}.
+ * <p>
+ * A virtual thread polls the size of the file and reads what was appended
+ * from the last position reached, decoding it into a pending buffer. The
+ * Event Dispatch Thread takes the pending text at most once per frame and
+ * adds it to the end of the document without an undo record. Only the last
+ * lines of the file are kept: older lines are dropped from the start of the
+ * document, and the buffer behind the document is rebuilt from the kept
+ * text once the dropped text outweighs it, so memory stays bounded however
+ * long the file grows. The number of the first line kept is reported, so
+ * line numbers stay those of the file.
+ * <p>
+ * A file that shrinks was truncated and is shown again from its start; a
+ * file that was replaced, for example by log rotation, is reopened.
+ */
+public class FileFollower {
+
+    private static final int READ_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_PENDING_CHARS = 4 * 1024 * 1024;
+    private static final int MIN_COMPACT_CHARS = 1024 * 1024;
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(Constants.FOLLOW_FRAME_INTERVAL_MS);
+
+    /**
+     * Receives follow events. All methods are called on the Event Dispatch
+     * Thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called after text was added to the document or old lines were
+         * dropped from it.
+         *
+         * @param firstLineNumber The number in the file of the first line of
+         *                        the document, starting at 1
+         */
+        void followed(long firstLineNumber);
+
+        /**
+         * Called when the file could not be read. Following has stopped; the
+         * text shown so far is kept.
+         *
+         * @param e The error
+         */
+        void followFailed(IOException e);
+    }
+
+    private final File file;
+    private final DocumentModel model;
+    private final Listener listener;
+    private final int maxLines;
+    private final AtomicBoolean batchPending = new AtomicBoolean();
+    private volatile boolean stopped;
+    private Thread thread;
+
+    // Text read but not shown yet, guarded by lock
+    private final Object lock = new Object();
+    private AppendBuffer pending = new AppendBuffer();
+    private int pendingLines;
+    private long skippedLines;
+    private boolean replace;
+    private boolean restart = true;
+    private FileFormat format;
+
+    // Reader thread state
+    private long lastBatchNanos;
+
+    // Event Dispatch Thread state
+    private AppendBuffer shownBuffer;
+    private long firstLineNumber = 1;
+
+    /**
+     * Creates a follower. The document is emptied when following starts.
+     *
+     * @param file     The file to follow
+     * @param model    The model to show the end of the file in
+     * @param listener The listener notified of new text
+     * @param maxLines The number of lines to keep
+     */
+    public FileFollower(File file, DocumentModel model, Listener listener, int maxLines) {
+        this.file = file;
+        this.model = model;
+        this.listener = listener;
+        this.maxLines = Math.max(maxLines, 1);
+    }
+
+    /**
+     * Gets the file being followed.
+     *
+     * @return The file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the number in the file of the first line of the document.
+     *
+     * @return The line number, starting at 1
+     */
+    public long getFirstLineNumber() {
+        return firstLineNumber;
+    }
+
+    /**
+     * Empties the document and starts reading the file on a virtual thread.
+     * Must be called on the Event Dispatch Thread.
+     */
+    public void start() {
+        shownBuffer = new AppendBuffer();
+        model.setCurrentFile(file);
+        model.load(shownBuffer);
+        thread = Thread.ofVirtual().name("file-follower").start(this::follow);
+    }
+
+    /**
+     * Stops following. The text shown so far stays in the document. Must be
+     * called on the Event Dispatch Thread; no listener method is called
+     * afterwards.
+     */
+    public void stop() {
+        if (!stopped) {
+            stopped = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Checks if following was stopped.
+     *
+     * @return true if {@link #stop()} was called or reading failed
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    private void follow() {
+        Path path = file.toPath();
+        ByteBuffer bytes = ByteBuffer.allocate(READ_CHUNK_SIZE);
+        FileChannel channel = null;
+        try {
+            while (!stopped) {
+                if (channel == null) {
+                    channel = open(path);
+                    if (channel == null) {
+                        Thread.sleep(Constants.FOLLOW_POLL_INTERVAL_MS);
+                        continue;
+                    }
+                }
+                channel = follow(path, channel, fileKey(path), bytes);
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                SwingUtilities.invokeLater(() -> fail(e));
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } finally {
+            close(channel);
+        }
+    }
+
+    /**
+     * Reads the file through an open channel until it is replaced by another
+     * file at the same path or following stops.
+     *
+     * @return null if the file was replaced and must be reopened
+     */
+    private FileChannel follow(Path path, FileChannel channel, Object key, ByteBuffer bytes)
+            throws IOException, InterruptedException {
+        while (format == null && channel.size() == 0) {
+            // Too early to tell the format of the file
+            Thread.sleep(Constants.FOLLOW_POLL_INTERVAL_MS);
+        }
+        FileDecoder decoder = new FileDecoder(format);
+        decoder.start(channel);
+        synchronized (lock) {
+            format = decoder.getFormat();
+            reset();
+        }
+        scheduleBatch();
+        long position = channel.position();
+        bytes.clear();
+        while (!stopped) {
+            long size = channel.size();
+            if (size < position) {
+                // Truncated: show the file again from its start
+                decoder.start(channel);
+                position = channel.position();
+                bytes.clear();
+                synchronized (lock) {
+                    reset();
+                }
+                scheduleBatch();
+                continue;
+            }
+            if (size == position || isPendingFull()) {
+                boolean shown = scheduleBatch();
+                if (size == position && replaced(path, key)) {
+                    close(channel);
+                    return null;
+                }
+                Thread.sleep(shown ? Constants.FOLLOW_POLL_INTERVAL_MS : Constants.FOLLOW_FRAME_INTERVAL_MS);
+                continue;
+            }
+            int read = channel.read(bytes);
+            if (read <= 0) {
+                continue;
+            }
+            position += read;
+            bytes.flip();
+            synchronized (lock) {
+                int from = pending.length();
+                CoderResult result = decoder.decode(bytes, pending, false);
+                if (result.isError()) {
+                    if (!decoder.fallBack(result)) {
+                        result.throwException();
+                    }
+                    // Not UTF-8 after all: read the whole file again
+                    format = decoder.getFormat();
+                    decoder.start(channel);
+                    position = channel.position();
+                    bytes.clear();
+                    reset();
+                    continue;
+                }
+                countLines(from);
+            }
+            bytes.compact();
+            scheduleBatch();
+        }
+        return channel;
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null; // Being rotated; try again on the next poll
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Cannot close followed file: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks if another file now lives at the path, such as the new log
+     * after a rotation.
+     */
+    private static boolean replaced(Path path, Object key) {
+        Object now = fileKey(path);
+        return key != null && now != null && !Objects.equals(key, now);
+    }
+
+    /**
+     * Gets what identifies the file at a path, such as its inode.
+     *
+     * @return The key, or null if it is not known or no file is there
+     */
+    private static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Drops the pending text and shows the file from its start. Must hold
+     * the lock.
+     */
+    private void reset() {
+        pending = new AppendBuffer();
+        pendingLines = 0;
+        skippedLines = 0;
+        replace = false;
+        restart = true;
+    }
+
+    private boolean isPendingFull() {
+        synchronized (lock) {
+            return pending.length() >= MAX_PENDING_CHARS;
+        }
+    }
+
+    /**
+     * Counts the lines decoded since an offset of the pending text. When the
+     * reader is far ahead of the document, such as while a long file is read
+     * for the first time, lines that would be dropped anyway are dropped
+     * before they reach the document. Must hold the lock.
+     */
+    private void countLines(int from) {
+        char[] array = pending.array();
+        int length = pending.length();
+        for (int i = from; i < length; i++) {
+            if (array[i] == '\n') {
+                pendingLines++;
+            }
+        }
+        if (pendingLines <= 2 * maxLines) {
+            return;
+        }
+        int drop = pendingLines - maxLines;
+        int start = 0;
+        for (int found = 0; found < drop; start++) {
+            if (array[start] == '\n') {
+                found++;
+            }
+        }
+        AppendBuffer kept = new AppendBuffer(length - start);
+        kept.append(array, start, length - start);
+        pending = kept;
+        pendingLines -= drop;
+        skippedLines += drop;
+        replace = true;
+    }
+
+    /**
+     * Asks the Event Dispatch Thread to show the pending text, at most once
+     * per frame.
+     *
+     * @return true if all text read has been handed over
+     */
+    private boolean scheduleBatch() {
+        synchronized (lock) {
+            if (pending.length() == 0 && !restart && !replace) {
+                return true;
+            }
+        }
+        long now = System.nanoTime();
+        if (now - lastBatchNanos < FRAME_NANOS) {
+            return false;
+        }
+        if (batchPending.compareAndSet(false, true)) {
+            lastBatchNanos = now;
+            SwingUtilities.invokeLater(this::applyBatch);
+        }
+        return false;
+    }
+
+    private void applyBatch() {
+        batchPending.set(false);
+        if (stopped) {
+            return;
+        }
+        AppendBuffer text;
+        boolean replace;
+        boolean restart;
+        long skipped;
+        FileFormat format;
+        synchronized (lock) {
+            text = pending;
+            replace = this.replace;
+            restart = this.restart;
+            skipped = skippedLines;
+            format = this.format;
+            pending = new AppendBuffer();
+            pendingLines = 0;
+            skippedLines = 0;
+            this.replace = false;
+            this.restart = false;
+        }
+        Element lines = model.getDocument().getDefaultRootElement();
+        if (restart || replace) {
+            firstLineNumber = restart ? 1 + skipped : firstLineNumber + lines.getElementCount() - 1 + skipped;
+            shownBuffer = text;
+            model.setFileFormat(format);
+            model.load(text);
+        } else if (text.length() > 0) {
+            shownBuffer.append(text.array(), 0, text.length());
+            model.extendLoad(shownBuffer.length());
+        }
+        dropOldLines();
+        listener.followed(firstLineNumber);
+    }
+
+    /**
+     * Drops the lines past the limit from the start of the document, and
+     * copies the kept text to a new buffer once most of the old one holds
+     * dropped text.
+     */
+    private void dropOldLines() {
+        Element lines = model.getDocument().getDefaultRootElement();
+        int excess = lines.getElementCount() - maxLines;
+        if (excess > 0) {
+            model.trimStart(lines.getElement(excess).getStartOffset());
+            firstLineNumber += excess;
+        }
+        int length = model.getLength();
+        if (shownBuffer.length() - length > Math.max(length, MIN_COMPACT_CHARS)) {
+            AppendBuffer kept = new AppendBuffer(length);
+            model.snapshot().forEachPiece(0, length, kept::append);
+            shownBuffer = kept;
+            model.load(kept);
+        }
+    }
+
+    private void fail(IOException e) {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        listener.followFailed(e);
+    }
+}
@@ -0,0 +1,333 @@
+package jv.controller;
+
+import jv.model.AppendBuffer;
+import jv.model.DocumentModel;
+import jv.model.FileFormat;
+import jv.model.FileLayout;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads a file into a {@link DocumentModel} without blocking the Event
+ * Dispatch Thread.
+ * A virtual thread detects the charset and line separator of the file from
+ * its first bytes, then reads and decodes it in chunks straight into the
+ * buffer that becomes the document's original piece. The Event Dispatch
+ * Thread brings the decoded text into the document in batches, the first one
+ * as soon as the first chunk is decoded, so text appears before the whole
+ * file has been read. Batches are capped in size so that input events are
+ * handled in between. If a file detected as UTF-8 turns out not to be, it is
+ * decoded again from the start as ISO-8859-1 and the document is replaced.
+ * <p>
+ * A loader can also read only what another program appended to the file of
+ * a document, adding it to the end of the document the same way.
+ */
+public class FileLoader {
+
+    private static final int READ_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_BATCH_CHARS = 1024 * 1024;
+    private static final long BATCH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * Receives load events. All methods are called on the Event Dispatch
+     * Thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called once the first batch of text is in the document.
+         */
+        void loadStarted();
+
+        /**
+         * Called after each batch of text has been added to the document.
+         *
+         * @param bytesRead  The number of bytes read so far
+         * @param totalBytes The size of the file
+         */
+        void loadProgress(long bytesRead, long totalBytes);
+
+        /**
+         * Called when the whole file is in the document.
+         */
+        void loadFinished();
+
+        /**
+         * Called when reading or decoding failed. The document is cleared,
+         * unless only appended text was being read.
+         *
+         * @param e The error
+         */
+        void loadFailed(IOException e);
+    }
+
+    private final File file;
+    private final DocumentModel model;
+    private final Listener listener;
+    private final AtomicBoolean batchPending;
+    private final FileLayout previous;
+    private final int charShift;
+
+    private volatile AppendBuffer buffer;
+    private volatile FileFormat format;
+    private volatile FileLayout.Builder layout;
+    private volatile boolean cancelled;
+    private volatile long bytesRead;
+    private volatile long totalBytes;
+    private volatile long lastModified;
+    private volatile boolean readComplete;
+    private AppendBuffer shownBuffer;
+    private int shown;
+    private long lastBatchNanos;
+
+    /**
+     * Creates a loader for a file.
+     *
+     * @param file     The file to read
+     * @param model    The model to load the file into
+     * @param listener The listener notified of progress
+     */
+    public FileLoader(File file, DocumentModel model, Listener listener) {
+        this.file = file;
+        this.model = model;
+        this.listener = listener;
+        this.totalBytes = file.length();
+        this.batchPending = new AtomicBoolean();
+        this.previous = null;
+        this.charShift = 0;
+    }
+
+    /**
+     * Creates a loader for the text appended to the file of a document since
+     * it was loaded or saved. The decoded text is added to the buffer of the
+     * document's original text, so it is brought in without copying, as in a
+     * full load. Must be called on the Event Dispatch Thread.
+     *
+     * @param model    The model, unmodified since its file layout was recorded
+     * @param listener The listener notified of progress; the load never
+     *                 starts, it only makes progress
+     */
+    private FileLoader(DocumentModel model, Listener listener) {
+        this.previous = model.getFileLayout();
+        this.file = previous.getFile();
+        this.model = model;
+        this.listener = listener;
+        this.totalBytes = file.length();
+        this.batchPending = new AtomicBoolean();
+        this.buffer = model.snapshot().getOriginal();
+        this.shownBuffer = buffer;
+        this.shown = buffer.length();
+        // Document offsets of the new text differ from buffer offsets if the
+        // document was edited and saved since it was loaded
+        this.charShift = model.getLength() - buffer.length();
+        this.format = previous.getFormat();
+        this.layout = new FileLayout.Builder(format);
+        previous.copyTo(layout, 0, previous.getText().length(), 0, 0);
+        if (!previous.isExact()) {
+            layout.markInexact();
+        }
+    }
+
+    /**
+     * Creates a loader that reads what was appended to the file of a
+     * document. The file must still start with the text it had when the
+     * document was loaded or saved, and the document must be unmodified.
+     *
+     * @param model    The model
+     * @param listener The listener notified of progress
+     * @return The loader, not started yet
+     */
+    public static FileLoader appended(DocumentModel model, Listener listener) {
+        return new FileLoader(model, listener);
+    }
+
+    /**
+     * Gets the file being loaded.
+     *
+     * @return The file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Starts reading on a virtual thread.
+     */
+    public void start() {
+        Thread.ofVirtual().name("file-loader").start(this::read);
+    }
+
+    /**
+     * Stops the load and clears the document. Must be called on the Event
+     * Dispatch Thread; no listener method is called afterwards.
+     */
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            if (previous == null) {
+                model.clear();
+            }
+        }
+    }
+
+    /**
+     * Checks if the load was cancelled.
+     *
+     * @return true if {@link #cancel()} was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void read() {
+        FileDecoder decoder = new FileDecoder(format);
+        ByteBuffer bytes = ByteBuffer.allocate(READ_CHUNK_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            totalBytes = channel.size();
+            if (previous != null) {
+                decoder.resume(channel, previous.getSize());
+                CoderResult result = decode(channel, bytes, decoder);
+                if (result != null && result.isError()) {
+                    result.throwException();
+                }
+                return;
+            }
+            while (true) {
+                decoder.start(channel);
+                format = decoder.getFormat();
+                layout = new FileLayout.Builder(format);
+                buffer = new AppendBuffer((int) Math.min(totalBytes, Integer.MAX_VALUE));
+                bytes.clear();
+                CoderResult result = decode(channel, bytes, decoder);
+                if (result == null || !result.isError()) {
+                    return;
+                }
+                if (!decoder.fallBack(result)) {
+                    result.throwException();
+                }
+            }
+        } catch (IOException | OutOfMemoryError e) {
+            IOException error = e instanceof IOException ? (IOException) e
+                    : new IOException("File is too large to load: " + file.getName(), e);
+            SwingUtilities.invokeLater(() -> fail(error));
+        }
+    }
+
+    /**
+     * Decodes the file from the current position of the channel into the
+     * buffer, scheduling batches as text becomes available.
+     *
+     * @return The result of the last decode, or null if the load was cancelled
+     */
+    private CoderResult decode(FileChannel channel, ByteBuffer bytes, FileDecoder decoder) throws IOException {
+        AppendBuffer buffer = this.buffer;
+        long position = channel.position();
+        boolean endOfInput = false;
+        CoderResult result = CoderResult.UNDERFLOW;
+        while (!endOfInput) {
+            if (cancelled) {
+                return null;
+            }
+            int read = channel.read(bytes);
+            endOfInput = read < 0;
+            position += Math.max(read, 0);
+            bytes.flip();
+            result = decoder.decode(bytes, buffer, endOfInput);
+            if (result.isError()) {
+                return result;
+            }
+            if (!decoder.isHoldingChar()) {
+                // The bytes left over are an incomplete character
+                layout.add(buffer.length() + charShift, position - bytes.remaining());
+            }
+            bytes.compact();
+            bytesRead = position;
+            if (endOfInput) {
+                if (!decoder.isExact()) {
+                    layout.markInexact();
+                }
+                // The file may have grown while it was read
+                totalBytes = position;
+                lastModified = Files.getLastModifiedTime(file.toPath()).toMillis();
+            }
+            readComplete = endOfInput;
+            scheduleBatch(endOfInput);
+        }
+        return result;
+    }
+
+    /**
+     * Asks the Event Dispatch Thread to bring the decoded text into the
+     * document. The first chunk is shown at once; after that at most one
+     * batch is queued and batches are spaced out, so a fast reader cannot
+     * flood the event queue.
+     */
+    private void scheduleBatch(boolean force) {
+        long now = System.nanoTime();
+        if (!force && lastBatchNanos != 0 && now - lastBatchNanos < BATCH_INTERVAL_NANOS) {
+            return;
+        }
+        if (batchPending.compareAndSet(false, true)) {
+            lastBatchNanos = now;
+            SwingUtilities.invokeLater(this::applyBatch);
+        }
+    }
+
+    private void applyBatch() {
+        batchPending.set(false);
+        if (cancelled) {
+            return;
+        }
+        boolean complete = readComplete;
+        AppendBuffer buffer = this.buffer;
+        int available = buffer.length();
+        boolean first = buffer != shownBuffer; // Also after decoding started over
+        if (first) {
+            shownBuffer = buffer;
+            shown = 0;
+        }
+        int length = (int) Math.min(available, (long) shown + MAX_BATCH_CHARS);
+        if (first) {
+            model.setCurrentFile(file);
+            model.setFileFormat(format);
+            model.load(buffer, length); // Don't mark as modified when loading
+            listener.loadStarted();
+        } else {
+            model.extendLoad(length);
+        }
+        shown = length;
+
+        if (length < available) {
+            // More text is already decoded; continue after pending events
+            if (batchPending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::applyBatch);
+            }
+            listener.loadProgress(bytesRead * length / available, totalBytes);
+        } else if (complete) {
+            model.setFileLayout(layout.build(file, totalBytes, lastModified, model.snapshot()));
+            listener.loadFinished();
+        } else {
+            listener.loadProgress(bytesRead, totalBytes);
+        }
+    }
+
+    private void fail(IOException e) {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        if (previous == null) {
+            model.clear();
+        }
+        listener.loadFailed(e);
+    }
+}
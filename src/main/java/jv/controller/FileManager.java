@@ -1,16 +1,24 @@
 package jv.controller;
 
+import jv.model.AppendBuffer;
 import jv.model.DocumentModel;
+import jv.model.FileLayout;
+import jv.model.MappedTextFile;
 import jv.util.Constants;
 import jv.util.DialogUtils;
+import jv.util.StartupTimer;
 
 import javax.swing.*;
+import javax.swing.filechooser.FileSystemView;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Manages file I/O operations for the text editor.
@@ -18,43 +26,130 @@ import java.nio.file.Path;
  */
 public class FileManager {
 
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
     private JFileChooser fileChooser;
+    private FileSaver.Listener saveListener;
 
     /**
-     * Creates a new FileManager instance.
+     * Creates a new FileManager instance. The file chooser is only built when
+     * first needed, or by {@link #prewarmFileChooser()}, as building it scans
+     * the file system.
      */
     public FileManager() {
-        this.fileChooser = new JFileChooser();
     }
 
     /**
-     * Opens a file using a file chooser dialog and loads its content into the
-     * document model.
+     * Prepares the file chooser while the editor is idle, so the first open
+     * or save dialog shows at once. The file system view the chooser lists
+     * is read on a virtual thread; the chooser itself is then built on the
+     * Event Dispatch Thread.
+     */
+    public void prewarmFileChooser() {
+        Thread.ofVirtual().name("file-chooser-prewarm").start(() -> {
+            FileSystemView view = FileSystemView.getFileSystemView();
+            File home = view.getHomeDirectory();
+            view.getRoots();
+            view.getFiles(home, true);
+            SwingUtilities.invokeLater(() -> {
+                getFileChooser();
+                StartupTimer.mark("file chooser ready");
+            });
+        });
+    }
+
+    /**
+     * Gets the file chooser, building it on first use. Must be called on the
+     * Event Dispatch Thread.
+     */
+    private JFileChooser getFileChooser() {
+        if (fileChooser == null) {
+            fileChooser = new JFileChooser();
+        }
+        return fileChooser;
+    }
+
+    /**
+     * Shows an open dialog and returns the selected file.
      * 
      * @param parent The parent component for dialogs
-     * @param model  The document model to update
-     * @return true if a file was successfully opened, false otherwise
+     * @return The selected file, or null if the dialog was cancelled
      */
-    public boolean openFile(Component parent, DocumentModel model) {
+    public File chooseFileToOpen(Component parent) {
+        JFileChooser fileChooser = getFileChooser();
         int result = fileChooser.showOpenDialog(parent);
+        return result == JFileChooser.APPROVE_OPTION ? fileChooser.getSelectedFile() : null;
+    }
 
-        if (result == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            try {
-                String content = readFileContent(file);
-                model.setText(content, false); // Don't mark as modified when loading
-                model.setCurrentFile(file);
-                return true;
-            } catch (IOException e) {
-                DialogUtils.showError(
-                        parent,
-                        Constants.MSG_FILE_READ_ERROR_TITLE,
-                        Constants.MSG_FILE_READ_ERROR + e.getMessage());
-                return false;
+    /**
+     * Loads the content of a file into the document model.
+     * 
+     * @param parent The parent component for dialogs
+     * @param model  The document model to update
+     * @param file   The file to load
+     * @return true if the file was successfully loaded, false otherwise
+     */
+    public boolean loadFile(Component parent, DocumentModel model, File file) {
+        try {
+            long size = file.length();
+            long lastModified = file.lastModified();
+            FileDecoder decoder = new FileDecoder(null);
+            AppendBuffer content = readFileContent(file, decoder);
+            model.setCurrentFile(file);
+            model.setFileFormat(decoder.getFormat());
+            model.load(content); // Don't mark as modified when loading
+            FileLayout.Builder layout = new FileLayout.Builder(decoder.getFormat());
+            if (!decoder.isExact()) {
+                layout.markInexact();
             }
+            model.setFileLayout(layout.build(file, size, lastModified, model.snapshot()));
+            return true;
+        } catch (IOException e) {
+            DialogUtils.showError(
+                    parent,
+                    Constants.MSG_FILE_READ_ERROR_TITLE,
+                    Constants.MSG_FILE_READ_ERROR + e.getMessage());
+            return false;
         }
+    }
 
-        return false;
+    /**
+     * Memory-maps a file for read-only viewing without loading it on the heap.
+     * 
+     * @param parent The parent component for dialogs
+     * @param file   The file to map
+     * @return The mapped file, or null if it could not be mapped
+     */
+    public MappedTextFile openMapped(Component parent, File file) {
+        try {
+            return MappedTextFile.open(file);
+        } catch (IOException e) {
+            DialogUtils.showError(
+                    parent,
+                    Constants.MSG_FILE_READ_ERROR_TITLE,
+                    Constants.MSG_FILE_READ_ERROR + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Checks if a file is too large to be loaded into the editor and should be
+     * opened memory-mapped instead.
+     * 
+     * @param file The file to check
+     * @return true if the file size reaches {@link Constants#LARGE_FILE_THRESHOLD}
+     */
+    public static boolean isLargeFile(File file) {
+        return file.length() >= Constants.LARGE_FILE_THRESHOLD;
+    }
+
+    /**
+     * Sets the listener told about the progress of every save.
+     * 
+     * @param saveListener The listener, or null
+     */
+    public void setSaveListener(FileSaver.Listener saveListener) {
+        this.saveListener = saveListener;
     }
 
     /**
@@ -70,17 +165,7 @@ public class FileManager {
             return saveFileAs(parent, model);
         }
 
-        try {
-            writeFileContent(model.getCurrentFile(), model.getText());
-            model.setModified(false);
-            return true;
-        } catch (IOException e) {
-            DialogUtils.showError(
-                    parent,
-                    Constants.MSG_FILE_WRITE_ERROR_TITLE,
-                    Constants.MSG_FILE_WRITE_ERROR + e.getMessage());
-            return false;
-        }
+        return writeFile(parent, model, model.getCurrentFile());
     }
 
     /**
@@ -91,49 +176,120 @@ public class FileManager {
      * @return true if the file was successfully saved, false otherwise
      */
     public boolean saveFileAs(Component parent, DocumentModel model) {
+        JFileChooser fileChooser = getFileChooser();
         int result = fileChooser.showSaveDialog(parent);
 
         if (result == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            try {
-                writeFileContent(file, model.getText());
-                model.setCurrentFile(file);
-                model.setModified(false);
-                return true;
-            } catch (IOException e) {
-                DialogUtils.showError(
-                        parent,
-                        Constants.MSG_FILE_WRITE_ERROR_TITLE,
-                        Constants.MSG_FILE_WRITE_ERROR + e.getMessage());
-                return false;
-            }
+            return writeFile(parent, model, fileChooser.getSelectedFile());
         }
 
         return false;
     }
 
     /**
-     * Reads the content of a file as a string using UTF-8 encoding.
+     * Reads the content of a file in its format, detecting the format unless
+     * the decoder was given one. Characters are decoded straight into a
+     * buffer sized from the file length, which the document then uses as its
+     * original piece.
      * 
-     * @param file The file to read
-     * @return The file content as a string
+     * @param file    The file to read
+     * @param decoder The decoder, which afterwards holds the format read
+     * @return The decoded file content
      * @throws IOException if an I/O error occurs
      */
-    private String readFileContent(File file) throws IOException {
+    static AppendBuffer readFileContent(File file, FileDecoder decoder) throws IOException {
         Path path = file.toPath();
-        return Files.readString(path, StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer bytes = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            while (true) {
+                decoder.start(channel);
+                AppendBuffer buffer = new AppendBuffer((int) Math.min(channel.size(), Integer.MAX_VALUE));
+                bytes.clear();
+                CoderResult result = decode(channel, bytes, buffer, decoder);
+                if (!result.isError()) {
+                    return buffer;
+                }
+                if (!decoder.fallBack(result)) {
+                    result.throwException();
+                }
+            }
+        }
+    }
+
+    private static CoderResult decode(FileChannel channel, ByteBuffer bytes, AppendBuffer buffer,
+            FileDecoder decoder) throws IOException {
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            endOfInput = channel.read(bytes) < 0;
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, buffer, endOfInput);
+            if (result.isError()) {
+                return result;
+            }
+            bytes.compact();
+        }
+        return CoderResult.UNDERFLOW;
     }
 
     /**
-     * Writes content to a file using UTF-8 encoding.
+     * Writes a snapshot of the document to a file in the background in the
+     * format it was loaded in, replacing the file atomically, or for a large file
+     * rewriting only what changed since it was loaded or saved. Events keep being
+     * dispatched while waiting, and the document stays editable; it is only
+     * marked as saved if it was not edited in the meantime. The layout of the
+     * file is unknown during the save, so a {@link FileWatcher} does not take
+     * the save for a change by another program. On success the file becomes
+     * the current file of the document before it is marked as saved.
+     * <p>
+     * If the text holds characters the encoding of the file cannot store,
+     * nothing is written and the user is offered to save as UTF-8 instead.
      * 
-     * @param file    The file to write to
-     * @param content The content to write
-     * @throws IOException if an I/O error occurs
+     * @param parent The parent component for dialogs
+     * @param model  The document model to save
+     * @param file   The file to write to
+     * @return true if the file was successfully saved, false otherwise
      */
-    private void writeFileContent(File file, String content) throws IOException {
-        Path path = file.toPath();
-        Files.writeString(path, content, StandardCharsets.UTF_8);
+    private boolean writeFile(Component parent, DocumentModel model, File file) {
+        long revision = model.getRevision();
+        FileLayout previous = model.getFileLayout();
+        FileSaver saver = new FileSaver(file, model.snapshot(), model.getFileFormat(), previous, saveListener);
+        model.setFileLayout(null); // Not known while the file is written
+        IOException error = saver.saveAndWait();
+        if (error instanceof FileSaver.UnmappableTextException) {
+            model.setFileLayout(previous);
+            return offerUtf8(parent, model, file, (FileSaver.UnmappableTextException) error);
+        }
+        if (error != null) {
+            model.setFileLayout(previous);
+            DialogUtils.showError(
+                    parent,
+                    Constants.MSG_FILE_WRITE_ERROR_TITLE,
+                    Constants.MSG_FILE_WRITE_ERROR + error.getMessage());
+            return false;
+        }
+        model.setCurrentFile(file);
+        model.setFileLayout(saver.getLayout());
+        if (model.getRevision() == revision) {
+            model.setModified(false);
+        }
+        return true;
+    }
+
+    /**
+     * Asks whether to switch a document whose text its encoding cannot store
+     * to UTF-8, which stores any text, and saves it again if so.
+     *
+     * @return true if the file was saved
+     */
+    private boolean offerUtf8(Component parent, DocumentModel model, File file,
+            FileSaver.UnmappableTextException error) {
+        String message = String.format(Constants.MSG_UNMAPPABLE, error.getCharset().name(),
+                new String(Character.toChars(error.getCodePoint())), error.getCodePoint(), error.getLine());
+        if (!DialogUtils.confirmAction(parent, Constants.MSG_UNMAPPABLE_TITLE, message)) {
+            return false;
+        }
+        model.setFileFormat(model.getFileFormat().withCharset(StandardCharsets.UTF_8));
+        return writeFile(parent, model, file);
     }
 
     /**
@@ -0,0 +1,652 @@
+package jv.controller;
+
+import jv.model.FileFormat;
+import jv.model.FileLayout;
+import jv.model.PieceTable;
+import jv.util.Constants;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves a snapshot of a document to a file without risking the existing
+ * file and without blocking the Event Dispatch Thread. The text is written
+ * in the {@link FileFormat} of the file it was loaded from: in its charset,
+ * after its byte order mark if it had one, and with each {@code '\n'}
+ * written as its line separator.
+ * The text is encoded on a virtual thread into a sibling temporary file,
+ * which is forced to disk and then atomically moved over the target. A crash
+ * or a full disk in the middle of a save therefore leaves the old file
+ * untouched.
+ * <p>
+ * Files of {@link Constants#IN_PLACE_SAVE_THRESHOLD} and more that have not
+ * changed on disk since they were loaded or saved are instead rewritten in
+ * place from the first change on, so fixing a line of a huge file does not
+ * rewrite all of it.
+ * <p>
+ * A character the charset cannot represent, such as a euro sign in an
+ * ISO-8859-1 file, stops the save with an {@link UnmappableTextException}
+ * before the file is touched. A surrogate without its other half is written
+ * as the replacement of the charset.
+ */
+public class FileSaver {
+
+    private static final int POOL_SIZE = 2;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Receives save events. All methods are called on the Event Dispatch
+     * Thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called before the first byte is written.
+         *
+         * @param file The file being saved
+         */
+        void saveStarted(File file);
+
+        /**
+         * Called while the text is written.
+         *
+         * @param charsWritten The number of characters written so far
+         * @param totalChars   The length of the text
+         */
+        void saveProgress(long charsWritten, long totalChars);
+
+        /**
+         * Called when the file has been replaced, or the save failed.
+         *
+         * @param file         The file saved
+         * @param bytesWritten The number of bytes written
+         * @param nanos        The time the save took
+         * @param error        The error, or null if the save succeeded
+         */
+        void saveFinished(File file, long bytesWritten, long nanos, IOException error);
+    }
+
+    /**
+     * Thrown when the text holds a character that the charset of the file
+     * cannot represent. The file is left as it was.
+     */
+    public static final class UnmappableTextException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Charset charset;
+        private final int codePoint;
+        private final int line;
+
+        UnmappableTextException(Charset charset, int codePoint, int line) {
+            super(String.format("The character U+%04X on line %d cannot be written in %s", codePoint, line,
+                    charset.name()));
+            this.charset = charset;
+            this.codePoint = codePoint;
+            this.line = line;
+        }
+
+        /**
+         * Gets the charset the text could not be written in.
+         *
+         * @return The charset
+         */
+        public Charset getCharset() {
+            return charset;
+        }
+
+        /**
+         * Gets the first character that could not be written.
+         *
+         * @return The code point
+         */
+        public int getCodePoint() {
+            return codePoint;
+        }
+
+        /**
+         * Gets the line of the first character that could not be written.
+         *
+         * @return The one-based line number
+         */
+        public int getLine() {
+            return line;
+        }
+    }
+
+    private final File file;
+    private final PieceTable text;
+    private final FileFormat format;
+    private final FileLayout previous;
+    private final Listener listener;
+
+    private volatile long bytesWritten;
+    private volatile IOException error;
+    private volatile FileLayout layout;
+
+    /**
+     * Creates a saver for a snapshot, written as UTF-8 with {@code '\n'}
+     * line separators.
+     *
+     * @param file     The file to write
+     * @param text     The text to write
+     * @param listener The listener notified of progress, or null
+     */
+    public FileSaver(File file, PieceTable text, Listener listener) {
+        this(file, text, FileFormat.DEFAULT, null, listener);
+    }
+
+    /**
+     * Creates a saver that writes a snapshot in a given format, and rewrites
+     * only the changed part of a large file when the file still holds the
+     * text of the given layout.
+     *
+     * @param file     The file to write
+     * @param text     The text to write
+     * @param format   The format to write the text in
+     * @param previous The layout of the file as last loaded or saved, or null
+     * @param listener The listener notified of progress, or null
+     */
+    public FileSaver(File file, PieceTable text, FileFormat format, FileLayout previous, Listener listener) {
+        this.file = file;
+        this.text = text;
+        this.format = format;
+        this.previous = previous;
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the layout of the file written by a successful save.
+     *
+     * @return The layout, or null if the save has not succeeded
+     */
+    public FileLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Saves on a virtual thread and waits for it to finish. Called on the
+     * Event Dispatch Thread, the wait keeps dispatching events, so the window
+     * stays responsive and progress is shown while the file is written.
+     *
+     * @return The error, or null if the file was saved
+     */
+    public IOException saveAndWait() {
+        if (listener != null) {
+            onEventThread(() -> listener.saveStarted(file));
+        }
+        long start = System.nanoTime();
+        if (SwingUtilities.isEventDispatchThread()) {
+            SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
+            Thread.ofVirtual().name("file-saver").start(() -> {
+                save();
+                loop.exit();
+            });
+            loop.enter();
+        } else {
+            try {
+                Thread.ofVirtual().name("file-saver").start(this::save).join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = new IOException("Save interrupted", e);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (listener != null) {
+            onEventThread(() -> listener.saveFinished(file, bytesWritten, nanos, error));
+        }
+        return error;
+    }
+
+    private void save() {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = null;
+        try {
+            if (Files.isSymbolicLink(target)) {
+                target = target.toRealPath(); // Replace the file, not the link
+            }
+            if (canSaveInPlace(target)) {
+                saveInPlace(target);
+                return;
+            }
+            Path dir = target.getParent();
+            temp = Files.createTempFile(dir, "." + target.getFileName() + ".", ".tmp");
+            copyPermissions(target, temp);
+            FileLayout.Builder builder = new FileLayout.Builder(format);
+            write(temp, builder);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+            syncDirectory(dir);
+            layout = builder.build(file, Files.size(target), Files.getLastModifiedTime(target).toMillis(), text);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException("Save failed: " + e, e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    System.err.println("Could not delete temporary file " + temp + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes the text into the file and forces it to disk.
+     */
+    private void write(Path path, FileLayout.Builder builder) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            encode(channel, 0, text.length(), 0, builder);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Checks if the target is a large file that still holds the text of the
+     * previous layout in the same format, with byte offsets that can be
+     * measured from that text, so only the changes need to be written.
+     */
+    private boolean canSaveInPlace(Path target) {
+        if (previous == null || previous.getSize() < Constants.IN_PLACE_SAVE_THRESHOLD
+                || !previous.getFormat().equals(format) || !previous.isExact()) {
+            return false;
+        }
+        try {
+            return Files.isSameFile(previous.getFile().toPath(), target) && previous.matches(target);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rewrites the file from its first change on, leaving the bytes before it
+     * in place. The changed text is encoded into a temporary file first. If
+     * it encodes to as many bytes as the text it replaces, it is copied over
+     * that text and the rest of the file stays in place as well. Otherwise
+     * the unchanged end of the file is appended to it and the whole tail is
+     * copied back. Copies go from channel to channel and never through the
+     * heap, so a save costs in proportion to the text after the first
+     * change, or to the changed text alone when the length in bytes is kept.
+     * <p>
+     * Unlike a full save this is not atomic: a crash while the tail is copied
+     * back leaves the file partly written. An exit of the editor meanwhile
+     * waits for the rewrite to complete.
+     */
+    private void saveInPlace(Path target) throws IOException {
+        PieceTable old = previous.getText();
+        int oldLength = old.length();
+        int newLength = text.length();
+        int prefix = PieceTable.sharedPrefix(old, text);
+        int suffix = PieceTable.sharedSuffix(old, text, Math.min(oldLength, newLength) - prefix);
+        // Keep surrogate pairs out of the boundaries
+        if (prefix > 0 && Character.isHighSurrogate(text.charAt(prefix - 1))) {
+            prefix--;
+        }
+        if (suffix > 0 && Character.isLowSurrogate(text.charAt(newLength - suffix))) {
+            suffix--;
+        }
+        long start = previous.byteOffset(prefix);
+        long oldEnd = previous.byteOffset(oldLength - suffix);
+        long oldSize = previous.getSize();
+
+        FileLayout.Builder builder = new FileLayout.Builder(format);
+        previous.copyTo(builder, 0, prefix, 0, 0);
+        builder.add(prefix, start);
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName() + ".", ".tmp");
+        long changedBytes;
+        long newSize;
+        CountDownLatch rewritten = new CountDownLatch(1);
+        Thread exitHook = new Thread(() -> awaitQuietly(rewritten), "in-place-save");
+        Runtime.getRuntime().addShutdownHook(exitHook);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FileChannel changed = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            changedBytes = encode(changed, prefix, newLength - suffix, start, builder);
+            if (changedBytes == oldEnd - start) {
+                transfer(changed, 0, changedBytes, out, start);
+                newSize = oldSize;
+            } else {
+                transfer(out, oldEnd, oldSize - oldEnd, changed, changedBytes);
+                newSize = start + changedBytes + oldSize - oldEnd;
+                transfer(changed, 0, newSize - start, out, start);
+                out.truncate(newSize);
+            }
+            out.force(true);
+        } finally {
+            rewritten.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(exitHook);
+            } catch (IllegalStateException e) {
+                // Exiting already; the hook has let the rewrite complete
+            }
+            Files.deleteIfExists(temp);
+        }
+        builder.add(newLength - suffix, start + changedBytes);
+        previous.copyTo(builder, oldLength - suffix, oldLength, newLength - oldLength, start + changedBytes - oldEnd);
+        layout = builder.build(file, newSize, Files.getLastModifiedTime(target).toMillis(), text);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copies bytes from one file to a position in another without passing
+     * them through the heap.
+     */
+    private void transfer(FileChannel from, long position, long count, FileChannel to, long toPosition)
+            throws IOException {
+        to.position(toPosition);
+        while (count > 0) {
+            long n = from.transferTo(position, count, to);
+            if (n <= 0) {
+                throw new IOException("File ended during copy");
+            }
+            position += n;
+            count -= n;
+            bytesWritten += n;
+        }
+    }
+
+    /**
+     * Encodes a range of the text at the position of a channel, after the
+     * byte order mark if the range starts the file. The runs of the piece
+     * table are encoded where they are, without copying them, so the only
+     * memory a save needs is the pooled output buffer, whatever the size of
+     * the file.
+     *
+     * @return The number of bytes written
+     */
+    private long encode(FileChannel channel, int start, int end, long byteOffset, FileLayout.Builder builder)
+            throws IOException {
+        Encoding encoding = Encoding.acquire(format.getCharset());
+        try {
+            if (byteOffset == 0) {
+                encoding.buffer.put(format.getByteOrderMark());
+            }
+            Output output = new Output(encoding, channel, start, end - start, byteOffset, builder);
+            try {
+                text.forEachPiece(start, end, (array, offset, length) -> {
+                    try {
+                        output.write(array, offset, length);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            output.finish();
+            return output.written;
+        } finally {
+            Encoding.release(encoding);
+        }
+    }
+
+    /**
+     * Encodes runs of characters into the output buffer, writing it to the
+     * channel whenever it fills up. A high surrogate at the end of a run is
+     * held back until the run holding its low surrogate arrives. Unless the
+     * file uses {@code '\n'}, runs are split at line ends and the separator
+     * is encoded in between. After each write the offsets reached are
+     * recorded in the layout of the new file.
+     */
+    private final class Output {
+        private final CharsetEncoder encoder;
+        private final ByteBuffer bytes;
+        private final FileChannel channel;
+        private final CharBuffer pair;
+        private final CharBuffer separator;
+        private final int charOffset;
+        private final int totalChars;
+        private final long byteOffset;
+        private final FileLayout.Builder builder;
+        private long consumed;
+        private long written;
+        private long lastProgress;
+
+        Output(Encoding encoding, FileChannel channel, int charOffset, int totalChars, long byteOffset,
+                FileLayout.Builder builder) {
+            this.encoder = encoding.encoder;
+            this.bytes = encoding.buffer;
+            this.channel = channel;
+            this.pair = CharBuffer.allocate(2);
+            this.separator = format.getLineSeparator() == FileFormat.LineSeparator.LF ? null
+                    : CharBuffer.wrap(format.getLineSeparator().getText());
+            this.charOffset = charOffset;
+            this.totalChars = totalChars;
+            this.byteOffset = byteOffset;
+            this.builder = builder;
+            this.lastProgress = System.nanoTime();
+        }
+
+        void write(char[] array, int offset, int length) throws IOException {
+            if (pair.position() > 0 && length > 0) {
+                if (Character.isLowSurrogate(array[offset])) {
+                    // Complete the surrogate pair split between two runs
+                    pair.put(array[offset]);
+                    pair.flip();
+                    encode(pair, false, true);
+                    pair.clear();
+                    offset++;
+                    length--;
+                } else {
+                    replacePending();
+                }
+            }
+            if (separator != null) {
+                for (int i = offset, end = offset + length; i < end; i++) {
+                    if (array[i] == '\n') {
+                        encodeRun(array, offset, i - offset);
+                        encodeSeparator();
+                        length -= i + 1 - offset;
+                        offset = i + 1;
+                    }
+                }
+            }
+            encodeRun(array, offset, length);
+        }
+
+        private void encodeRun(char[] array, int offset, int length) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(array, offset, length);
+            encode(chars, false, true);
+            if (chars.hasRemaining()) {
+                pair.put(chars.get());
+            }
+        }
+
+        /**
+         * Encodes the separator in place of a {@code '\n'}. No checkpoint is
+         * taken within it, since its bytes belong to a single character.
+         */
+        private void encodeSeparator() throws IOException {
+            if (pair.position() > 0) {
+                replacePending();
+            }
+            separator.rewind();
+            encode(separator, false, false);
+            consumed++;
+        }
+
+        /**
+         * Writes the replacement of the charset for the high surrogate held
+         * from the end of the previous run, which the next character does
+         * not complete.
+         */
+        private void replacePending() throws IOException {
+            byte[] replacement = encoder.replacement();
+            if (bytes.remaining() < replacement.length) {
+                drain();
+            }
+            bytes.put(replacement);
+            pair.clear();
+            consumed++;
+        }
+
+        void finish() throws IOException {
+            pair.flip();
+            encode(pair, true, true);
+            encoder.flush(bytes);
+            drain();
+        }
+
+        private void encode(CharBuffer chars, boolean endOfInput, boolean document) throws IOException {
+            while (true) {
+                int before = chars.position();
+                CoderResult result = encoder.encode(chars, bytes, endOfInput);
+                if (document) {
+                    consumed += chars.position() - before;
+                }
+                if (result.isOverflow()) {
+                    drain();
+                    if (document) {
+                        builder.add(charOffset + consumed, byteOffset + written);
+                    }
+                    progress();
+                } else if (result.isUnderflow()) {
+                    return;
+                } else {
+                    // Malformed input is replaced, so the character is one
+                    // the charset cannot represent
+                    throw new UnmappableTextException(encoder.charset(), Character.codePointAt(chars, 0),
+                            lineOf(charOffset + consumed));
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                int n = channel.write(bytes);
+                written += n;
+                bytesWritten += n;
+            }
+            bytes.clear();
+        }
+
+        private void progress() {
+            long now = System.nanoTime();
+            if (listener != null && now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                lastProgress = now;
+                long done = consumed;
+                onEventThread(() -> listener.saveProgress(done, totalChars));
+            }
+        }
+    }
+
+    /**
+     * An encoder with its output buffer, kept in a small pool so that
+     * repeated saves neither create encoders nor allocate direct memory.
+     * Saves run one at a time, so the pool rarely holds more than one entry.
+     */
+    private static final class Encoding {
+        private static final ConcurrentLinkedQueue<Encoding> POOL = new ConcurrentLinkedQueue<>();
+
+        final CharsetEncoder encoder;
+        final ByteBuffer buffer;
+
+        private Encoding(CharsetEncoder encoder, ByteBuffer buffer) {
+            this.encoder = encoder;
+            this.buffer = buffer;
+        }
+
+        static Encoding acquire(Charset charset) {
+            for (Encoding encoding : POOL) {
+                if (encoding.encoder.charset().equals(charset) && POOL.remove(encoding)) {
+                    encoding.encoder.reset();
+                    encoding.buffer.clear();
+                    return encoding;
+                }
+            }
+            CharsetEncoder encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE);
+            return new Encoding(encoder, ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE));
+        }
+
+        static void release(Encoding encoding) {
+            if (POOL.size() < POOL_SIZE) {
+                POOL.offer(encoding);
+            }
+        }
+    }
+
+    /**
+     * Gets the line of a character of the text.
+     *
+     * @return The one-based line number
+     */
+    private int lineOf(long offset) {
+        int[] line = { 1 };
+        text.forEachPiece(0, (int) Math.min(offset, text.length()), (array, start, length) -> {
+            for (int i = start, end = start + length; i < end; i++) {
+                if (array[i] == '\n') {
+                    line[0]++;
+                }
+            }
+        });
+        return line[0];
+    }
+
+    /**
+     * Gives the new file the permissions of the one it replaces, where the
+     * file system supports them.
+     */
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            if (Files.exists(from)) {
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            // Keep the default permissions of the temporary file
+        }
+    }
+
+    /**
+     * Forces the directory entry of the renamed file to disk. Not all
+     * platforms allow opening a directory, in which case the rename is left
+     * to the file system.
+     */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform
+        }
+    }
+
+    private static void onEventThread(Runnable event) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            event.run();
+        } else {
+            SwingUtilities.invokeLater(event);
+        }
+    }
+}
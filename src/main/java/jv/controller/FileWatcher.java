@@ -0,0 +1,421 @@
+package jv.controller;
+
+import jv.model.DocumentModel;
+import jv.model.FileLayout;
+import jv.util.Constants;
+
+import javax.swing.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Notices when another program changes the file a document was loaded from
+ * or saved to, so the user can reload it instead of overwriting the change
+ * with the next save.
+ * <p>
+ * All watchers share one {@link WatchService}, which watches the directory
+ * of every open file. Bursts of events, such as a program writing a file in
+ * many small chunks, are debounced into one check. A check compares the
+ * size and modification time of the file with the state last seen, and then
+ * a checksum of its content to tell a file that was only touched from one
+ * that changed. Files up to {@link #FULL_HASH_LIMIT} are hashed completely,
+ * larger ones at their start and end. A file whose old content is unchanged
+ * and that only grew is reported as appended, so that only the new tail
+ * needs to be read. That takes a complete hash of the old content, so a
+ * larger file that grew is reported as modified.
+ * <p>
+ * The file known to the document is the one described by its
+ * {@link FileLayout}. While the layout is unknown, for example during a
+ * save, the file is not watched, and the document's own saves are never
+ * reported.
+ */
+public class FileWatcher implements PropertyChangeListener {
+
+    /** Files up to this size are hashed completely, larger ones sampled. */
+    public static final long FULL_HASH_LIMIT = 16L * 1024 * 1024;
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    /**
+     * How the file changed.
+     */
+    public enum Kind {
+        /** Text was added at the end; the rest of the file is unchanged. */
+        APPENDED,
+        /** The file was rewritten. */
+        MODIFIED,
+        /** The file no longer exists. */
+        DELETED
+    }
+
+    /**
+     * Receives change notifications. Called on the Event Dispatch Thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the file of the document was changed by another
+         * program.
+         *
+         * @param change The change
+         */
+        void fileChanged(Change change);
+    }
+
+    /**
+     * A change of the watched file.
+     */
+    public static final class Change {
+        private final File file;
+        private final Kind kind;
+        private final long oldSize;
+        private final long newSize;
+
+        Change(File file, Kind kind, long oldSize, long newSize) {
+            this.file = file;
+            this.kind = kind;
+            this.oldSize = oldSize;
+            this.newSize = newSize;
+        }
+
+        /**
+         * Gets the file that changed.
+         *
+         * @return The file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Gets how the file changed.
+         *
+         * @return The kind of change
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Gets the size of the file before the change.
+         *
+         * @return The size in bytes
+         */
+        public long getOldSize() {
+            return oldSize;
+        }
+
+        /**
+         * Gets the size of the file after the change.
+         *
+         * @return The size in bytes, or 0 if the file was deleted
+         */
+        public long getNewSize() {
+            return newSize;
+        }
+    }
+
+    /**
+     * The state of a file when it was last checked. The hash is -1 when it
+     * is not known.
+     */
+    private static final class State {
+        final long size;
+        final long lastModified;
+        final long hash;
+
+        State(long size, long lastModified, long hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /** Runs the checks of all watchers, one at a time. */
+    private static final ScheduledExecutorService CHECKER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "file-watcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Shared state, guarded by the class
+    private static WatchService service;
+    private static final Map<Path, WatchKey> keys = new HashMap<>();
+    private static final Map<Path, List<FileWatcher>> watchers = new HashMap<>();
+
+    private final DocumentModel model;
+    private final Listener listener;
+
+    // Checker thread state
+    private volatile Path path; // Also read by the watch service thread
+    private State known;
+    private ScheduledFuture<?> pendingCheck;
+
+    /**
+     * Starts following the file of a document.
+     *
+     * @param model    The document model, whose file layout tells which file
+     *                 to watch
+     * @param listener The listener notified of changes
+     */
+    public FileWatcher(DocumentModel model, Listener listener) {
+        this.model = model;
+        this.listener = listener;
+        model.addPropertyChangeListener(this);
+        watch(model.getFileLayout());
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        if (DocumentModel.PROPERTY_FILE_LAYOUT.equals(evt.getPropertyName())) {
+            watch(model.getFileLayout());
+        }
+    }
+
+    /**
+     * Stops watching. Called when the document is closed.
+     */
+    public void close() {
+        model.removePropertyChangeListener(this);
+        CHECKER.execute(() -> start(null, null));
+    }
+
+    private void watch(FileLayout layout) {
+        Path file = layout == null ? null : layout.getFile().toPath().toAbsolutePath();
+        State state = layout == null ? null : new State(layout.getSize(), layout.getLastModified(), -1);
+        CHECKER.execute(() -> start(file, state));
+    }
+
+    /**
+     * Watches a file whose state is known from its layout. Its hash is taken
+     * now if the file still has that state, otherwise it is checked at once
+     * and the change reported. Runs on the checker thread.
+     */
+    private void start(Path file, State state) {
+        if (pendingCheck != null) {
+            pendingCheck.cancel(false);
+            pendingCheck = null;
+        }
+        if (path != null && !path.equals(file)) {
+            unregister(this, path.getParent());
+        }
+        if (file != null && !file.equals(path)) {
+            try {
+                register(this, file.getParent());
+            } catch (IOException e) {
+                System.err.println("Cannot watch " + file + ": " + e.getMessage());
+                file = null;
+            }
+        }
+        path = file;
+        known = state;
+        if (file != null) {
+            try {
+                State now = readState(file, false);
+                if (now.size == state.size && now.lastModified == state.lastModified) {
+                    known = new State(state.size, state.lastModified, hash(file, state.size));
+                } else {
+                    pendingCheck = CHECKER.schedule(this::check, 0, TimeUnit.MILLISECONDS);
+                }
+            } catch (NoSuchFileException e) {
+                pendingCheck = CHECKER.schedule(this::check, 0, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                // Checked again on the next event
+            }
+        }
+    }
+
+    /**
+     * Checks the file after events stopped arriving for a moment.
+     */
+    private void scheduleCheck() {
+        CHECKER.execute(() -> {
+            if (pendingCheck != null) {
+                pendingCheck.cancel(false);
+            }
+            pendingCheck = CHECKER.schedule(this::check, Constants.FILE_WATCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * Compares the file with its known state and reports a change. Runs on
+     * the checker thread.
+     */
+    private void check() {
+        pendingCheck = null;
+        if (path == null || known == null) {
+            return;
+        }
+        Path file = path;
+        State before = known;
+        Kind kind;
+        State now;
+        try {
+            now = readState(file, true);
+            if (now.size == before.size && now.lastModified == before.lastModified) {
+                return;
+            }
+            if (before.hash != -1 && now.size == before.size && now.hash == before.hash) {
+                known = now; // Only touched
+                return;
+            }
+            // A sampled hash cannot prove that the old content is unchanged
+            kind = before.hash != -1 && now.size > before.size && before.size <= FULL_HASH_LIMIT
+                    && hash(file, before.size) == before.hash ? Kind.APPENDED : Kind.MODIFIED;
+        } catch (NoSuchFileException e) {
+            if (before.size == -1) {
+                return;
+            }
+            now = new State(-1, 0, -1);
+            kind = Kind.DELETED;
+        } catch (IOException e) {
+            System.err.println("Cannot check " + file + ": " + e.getMessage());
+            return;
+        }
+        known = now;
+        Change change = new Change(file.toFile(), kind, before.size, Math.max(now.size, 0));
+        SwingUtilities.invokeLater(() -> deliver(change));
+    }
+
+    /**
+     * Passes a change on unless the document no longer knows the file as it
+     * was, for example because it was saved or loaded again meanwhile.
+     */
+    private void deliver(Change change) {
+        FileLayout layout = model.getFileLayout();
+        if (layout == null || layout.matches(change.getFile().toPath())
+                || !layout.getFile().toPath().toAbsolutePath().equals(change.getFile().toPath())) {
+            return;
+        }
+        listener.fileChanged(change);
+    }
+
+    private static State readState(Path file, boolean withHash) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        return new State(size, attributes.lastModifiedTime().toMillis(), withHash ? hash(file, size) : -1);
+    }
+
+    /**
+     * Hashes the first bytes of a file: all of them up to
+     * {@link #FULL_HASH_LIMIT}, otherwise a sample at the start and at the
+     * end.
+     */
+    private static long hash(Path file, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < length) {
+                return -2; // Shorter than the part to hash; never equal to a hash
+            }
+            if (length <= FULL_HASH_LIMIT) {
+                update(crc, channel, buffer, 0, length);
+            } else {
+                update(crc, channel, buffer, 0, SAMPLE_SIZE);
+                update(crc, channel, buffer, length - SAMPLE_SIZE, SAMPLE_SIZE);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32C crc, FileChannel channel, ByteBuffer buffer, long position, long count)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File ended while hashing");
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+        }
+    }
+
+    private static synchronized void register(FileWatcher watcher, Path dir) throws IOException {
+        if (service == null) {
+            service = FileSystems.getDefault().newWatchService();
+            Thread thread = new Thread(FileWatcher::poll, "file-watch-service");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        if (!keys.containsKey(dir)) {
+            keys.put(dir, dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+        }
+        watchers.computeIfAbsent(dir, d -> new ArrayList<>()).add(watcher);
+    }
+
+    private static synchronized void unregister(FileWatcher watcher, Path dir) {
+        List<FileWatcher> list = watchers.get(dir);
+        if (list == null) {
+            return;
+        }
+        list.remove(watcher);
+        if (list.isEmpty()) {
+            watchers.remove(dir);
+            WatchKey key = keys.remove(dir);
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    /**
+     * Takes events from the watch service and schedules a check for every
+     * watcher of a file they name. An overflow checks every watcher of the
+     * directory.
+     */
+    private static void poll() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Path name = event.kind() == StandardWatchEventKinds.OVERFLOW ? null : (Path) event.context();
+                for (FileWatcher watcher : watchersOf(dir)) {
+                    Path file = watcher.path;
+                    if (name == null || file != null && file.getFileName().equals(name)) {
+                        watcher.scheduleCheck();
+                    }
+                }
+            }
+            key.reset();
+        }
+    }
+
+    private static synchronized List<FileWatcher> watchersOf(Path dir) {
+        List<FileWatcher> list = watchers.get(dir);
+        return list == null ? List.of() : new ArrayList<>(list);
+    }
+}
@@ -0,0 +1,120 @@
+package jv.controller;
+
+import jv.model.DocumentModel;
+import jv.model.PieceTable;
+import jv.model.UndoHistory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the memory held by the documents of all tabs within a budget. Tabs
+ * are kept in the order they were last used; when the estimated total is
+ * over the budget, the text of the least recently used tabs is dropped
+ * until it fits again. The tab in use is never evicted.
+ */
+public class TabMemoryBudget {
+
+    // A line element of the document with its two positions
+    private static final long LINE_BYTES = 80;
+
+    /**
+     * A tab whose document text may be dropped.
+     */
+    public interface Tab {
+
+        /**
+         * Estimates the memory the tab would free if evicted.
+         *
+         * @return The size in bytes, 0 once evicted
+         */
+        long getMemoryUsage();
+
+        /**
+         * Checks if the tab can be evicted now: it is in the background and
+         * no load or follow is in progress.
+         *
+         * @return true if {@link #evict()} may be called
+         */
+        boolean isEvictable();
+
+        /**
+         * Drops the text of the tab.
+         */
+        void evict();
+    }
+
+    private final long budgetBytes;
+    private final Map<Tab, Boolean> tabs = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Creates a budget.
+     *
+     * @param budgetBytes The memory all tabs may hold together
+     */
+    public TabMemoryBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Adds a tab as the most recently used one.
+     *
+     * @param tab The tab
+     */
+    public void add(Tab tab) {
+        tabs.put(tab, Boolean.TRUE);
+    }
+
+    /**
+     * Removes a closed tab.
+     *
+     * @param tab The tab
+     */
+    public void remove(Tab tab) {
+        tabs.remove(tab);
+    }
+
+    /**
+     * Marks a tab as the most recently used one.
+     *
+     * @param tab The tab
+     */
+    public void touch(Tab tab) {
+        tabs.get(tab);
+    }
+
+    /**
+     * Evicts the least recently used tabs until the total fits the budget.
+     */
+    public void enforce() {
+        long used = 0;
+        for (Tab tab : tabs.keySet()) {
+            used += tab.getMemoryUsage();
+        }
+        for (Tab tab : new ArrayList<>(tabs.keySet())) {
+            if (used <= budgetBytes) {
+                return;
+            }
+            if (tab.isEvictable()) {
+                used -= tab.getMemoryUsage();
+                tab.evict();
+            }
+        }
+    }
+
+    /**
+     * Estimates the memory a document holds: its text buffers, its line
+     * elements and its undo history.
+     *
+     * @param model       The document model
+     * @param undoHistory The undo history of the document
+     * @return The size in bytes
+     */
+    public static long estimateMemory(DocumentModel model, UndoHistory undoHistory) {
+        PieceTable text = model.snapshot();
+        long chars = (long) text.getOriginal().capacity() + text.getAdded().capacity();
+        int lines = model.getDocument().getDefaultRootElement().getElementCount();
+        return 2 * chars + LINE_BYTES * lines + undoHistory.getUsedBytes();
+    }
+}
@@ -0,0 +1,176 @@
+package jv.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Append-only character storage used as the backing buffer of a
+ * {@link PieceTable}.
+ * Characters are never modified once written, so a range that has been
+ * published can be read from any thread while new text is appended.
+ */
+public final class AppendBuffer {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private volatile char[] array;
+    private volatile int length;
+
+    /**
+     * Creates an empty buffer with a small initial capacity.
+     */
+    public AppendBuffer() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates an empty buffer sized for the expected number of characters.
+     *
+     * @param capacity The initial capacity
+     */
+    public AppendBuffer(int capacity) {
+        this.array = new char[Math.max(MIN_CAPACITY, Math.min(capacity, MAX_CAPACITY))];
+    }
+
+    /**
+     * Gets the number of characters written to this buffer.
+     *
+     * @return The buffer length
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Gets the number of characters this buffer can hold without growing.
+     *
+     * @return The current capacity
+     */
+    public int capacity() {
+        return array.length;
+    }
+
+    /**
+     * Gets the character at the given index.
+     *
+     * @param index The index, less than {@link #length()}
+     * @return The character
+     */
+    public char charAt(int index) {
+        return array[index];
+    }
+
+    /**
+     * Gets the backing array. Only the first {@link #length()} characters are
+     * valid, and they must never be modified by the caller.
+     *
+     * @return The backing array
+     */
+    public char[] array() {
+        return array;
+    }
+
+    /**
+     * Appends characters to the end of the buffer.
+     *
+     * @param chars  The source array
+     * @param offset The first character to copy
+     * @param count  The number of characters to copy
+     * @return The index at which the characters were stored
+     */
+    public int append(char[] chars, int offset, int count) {
+        int start = length;
+        ensureCapacity(start + count);
+        System.arraycopy(chars, offset, array, start, count);
+        length = start + count;
+        return start;
+    }
+
+    /**
+     * Appends the characters of a string to the end of the buffer.
+     *
+     * @param text The text to append
+     * @return The index at which the characters were stored
+     */
+    public int append(String text) {
+        int start = length;
+        int count = text.length();
+        ensureCapacity(start + count);
+        text.getChars(0, count, array, start);
+        length = start + count;
+        return start;
+    }
+
+    /**
+     * Reads all remaining characters from a reader directly into the buffer.
+     *
+     * @param reader The reader to drain
+     * @return The number of characters read
+     * @throws IOException if an I/O error occurs
+     */
+    public int readFrom(Reader reader) throws IOException {
+        int total = 0;
+        while (true) {
+            if (length == array.length) {
+                ensureCapacity(length + 1);
+            }
+            int read = reader.read(array, length, array.length - length);
+            if (read < 0) {
+                return total;
+            }
+            length += read;
+            total += read;
+        }
+    }
+
+    /**
+     * Decodes bytes directly into the free space at the end of the buffer,
+     * growing it when the decoder runs out of room. Bytes of an incomplete
+     * character at the end of the input are left in the byte buffer for the
+     * next call.
+     *
+     * @param decoder    The decoder to use
+     * @param in         The bytes to decode
+     * @param endOfInput Whether no more input follows; the decoder is then flushed
+     * @return The result of the last decode, either underflow or an error
+     */
+    public CoderResult decodeFrom(CharsetDecoder decoder, ByteBuffer in, boolean endOfInput) {
+        int needed = (int) Math.ceil(in.remaining() * decoder.averageCharsPerByte());
+        while (true) {
+            ensureCapacity(length + needed);
+            CharBuffer out = CharBuffer.wrap(array, length, array.length - length);
+            CoderResult result = decoder.decode(in, out, endOfInput);
+            if (!result.isError() && !result.isOverflow() && endOfInput) {
+                result = decoder.flush(out);
+            }
+            length = out.position();
+            if (!result.isOverflow()) {
+                return result;
+            }
+            needed = array.length - length + 1;
+        }
+    }
+
+    /**
+     * Grows the backing array to hold at least the given number of characters.
+     * Readers holding the old array still see every published character.
+     */
+    private void ensureCapacity(int minCapacity) {
+        char[] current = array;
+        if (minCapacity <= current.length) {
+            return;
+        }
+        if (minCapacity < 0 || minCapacity > MAX_CAPACITY) {
+            throw new OutOfMemoryError("Buffer size limit exceeded");
+        }
+        int newCapacity = (int) Math.min(MAX_CAPACITY, Math.max(minCapacity, current.length + (long) (current.length >> 1)));
+        char[] grown = new char[newCapacity];
+        System.arraycopy(current, 0, grown, 0, length);
+        array = grown;
+    }
+}
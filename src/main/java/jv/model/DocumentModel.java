@@ -1,60 +1,185 @@
 package jv.model;
 
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
 import java.io.File;
 
 /**
  * Model class representing the document state in the text editor.
- * Manages text content, modification tracking, and file association.
+ * Wraps the live Swing {@link javax.swing.text.Document} shown by the text area and tracks
+ * modification and file association without ever copying the text.
  */
 public class DocumentModel {
 
-    private String text;
+    /** Property fired when the modification state changes. */
+    public static final String PROPERTY_MODIFIED = "modified";
+
+    /** Property fired after the whole content has been replaced by a load. */
+    public static final String PROPERTY_CONTENT = "content";
+
+    /** Property fired when the layout of the file on disk changes or becomes unknown. */
+    public static final String PROPERTY_FILE_LAYOUT = "fileLayout";
+
+    private final PieceTableDocument document;
+    private final PropertyChangeSupport changeSupport;
     private boolean modified;
+    private boolean loading;
+    private long revision;
     private File currentFile;
+    private FileLayout fileLayout;
+    private FileFormat fileFormat = FileFormat.DEFAULT;
 
     /**
      * Creates a new empty document.
      */
     public DocumentModel() {
-        this.text = "";
+        this(new PieceTableDocument());
+    }
+
+    /**
+     * Creates a model wrapping the given document.
+     *
+     * @param document The document holding the text content
+     */
+    public DocumentModel(PieceTableDocument document) {
+        this.document = document;
+        this.changeSupport = new PropertyChangeSupport(this);
         this.modified = false;
         this.currentFile = null;
+
+        document.addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                documentChanged();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                documentChanged();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // Attribute changes do not alter plain text content
+            }
+        });
+    }
+
+    /**
+     * Gets the live document backing this model.
+     *
+     * @return The document
+     */
+    public PieceTableDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * Gets an immutable snapshot of the text, taken in O(log pieces) without
+     * copying any characters.
+     *
+     * @return The snapshot
+     */
+    public PieceTable snapshot() {
+        return document.snapshot();
     }
 
     /**
-     * Gets the current text content.
-     * 
-     * @return The text content
+     * Gets the number of characters in the document.
+     *
+     * @return The document length
      */
-    public String getText() {
-        return text;
+    public int getLength() {
+        return document.getLength();
     }
 
     /**
-     * Sets the text content and marks the document as modified.
-     * 
+     * Replaces the document content without marking it as modified.
+     * Used when loading from file or starting a new document.
+     *
      * @param text The new text content
      */
-    public void setText(String text) {
-        this.text = text;
-        this.modified = true;
+    public void load(String text) {
+        AppendBuffer buffer = new AppendBuffer(text.length());
+        buffer.append(text);
+        load(buffer);
+    }
+
+    /**
+     * Replaces the document content with a buffer of decoded text, which the
+     * document takes over as its original piece without copying.
+     *
+     * @param text The new text content
+     */
+    public void load(AppendBuffer text) {
+        load(text, text.length());
+    }
+
+    /**
+     * Replaces the document content with the start of a buffer that is still
+     * being filled, so the first screen can be shown before a file has been
+     * read completely.
+     *
+     * @param text   The buffer of decoded text
+     * @param length The number of characters decoded so far
+     */
+    public void load(AppendBuffer text, int length) {
+        setFileLayout(null);
+        loading = true;
+        try {
+            document.load(text, length);
+        } finally {
+            loading = false;
+        }
+        setModified(false);
+        changeSupport.firePropertyChange(PROPERTY_CONTENT, null, null);
+    }
+
+    /**
+     * Shows more of the buffer passed to the last load, without marking the
+     * document as modified.
+     *
+     * @param length The number of characters decoded so far
+     */
+    public void extendLoad(int length) {
+        loading = true;
+        try {
+            document.extendLoad(length);
+        } finally {
+            loading = false;
+        }
+    }
+
+    /**
+     * Drops text from the start of the document without marking it as
+     * modified, such as the oldest lines of a file being followed.
+     *
+     * @param length The number of characters to drop
+     */
+    public void trimStart(int length) {
+        loading = true;
+        try {
+            document.trimStart(length);
+        } finally {
+            loading = false;
+        }
     }
 
     /**
-     * Sets the text content without marking as modified.
-     * Used when loading from file.
-     * 
-     * @param text         The new text content
-     * @param markModified Whether to mark the document as modified
+     * Checks if the document is being replaced by a load. Document events
+     * fired meanwhile are not edits.
+     *
+     * @return true while a load changes the document
      */
-    public void setText(String text, boolean markModified) {
-        this.text = text;
-        this.modified = markModified;
+    public boolean isLoading() {
+        return loading;
     }
 
     /**
      * Checks if the document has unsaved changes.
-     * 
+     *
      * @return true if the document has been modified since last save
      */
     public boolean isModified() {
@@ -63,16 +188,18 @@ public class DocumentModel {
 
     /**
      * Sets the modification state.
-     * 
+     *
      * @param modified The modification state
      */
     public void setModified(boolean modified) {
+        boolean old = this.modified;
         this.modified = modified;
+        changeSupport.firePropertyChange(PROPERTY_MODIFIED, old, modified);
     }
 
     /**
      * Gets the current file associated with this document.
-     * 
+     *
      * @return The current file, or null if the document hasn't been saved
      */
     public File getCurrentFile() {
@@ -81,26 +208,86 @@ public class DocumentModel {
 
     /**
      * Sets the current file associated with this document.
-     * 
+     *
      * @param currentFile The file to associate with this document
      */
     public void setCurrentFile(File currentFile) {
         this.currentFile = currentFile;
     }
 
+    /**
+     * Gets the layout of the file the document was last loaded from or saved
+     * to, which lets a save rewrite only what changed.
+     *
+     * @return The layout, or null if it is not known
+     */
+    public FileLayout getFileLayout() {
+        return fileLayout;
+    }
+
+    /**
+     * Sets the layout of the file the document was loaded from or saved to.
+     *
+     * @param fileLayout The layout, or null
+     */
+    public void setFileLayout(FileLayout fileLayout) {
+        FileLayout old = this.fileLayout;
+        this.fileLayout = fileLayout;
+        changeSupport.firePropertyChange(PROPERTY_FILE_LAYOUT, old, fileLayout);
+    }
+
+    /**
+     * Gets the format the document is saved in: the format of the file it
+     * was loaded from, or the default for a new document.
+     *
+     * @return The file format
+     */
+    public FileFormat getFileFormat() {
+        return fileFormat;
+    }
+
+    /**
+     * Sets the format the document is saved in. Set by a load before the
+     * text is replaced.
+     *
+     * @param fileFormat The file format
+     */
+    public void setFileFormat(FileFormat fileFormat) {
+        this.fileFormat = fileFormat;
+    }
+
     /**
      * Clears the document content and resets the modification state.
      */
     public void clear() {
-        this.text = "";
-        this.modified = false;
         this.currentFile = null;
+        this.fileFormat = FileFormat.DEFAULT;
+        load("");
+    }
+
+    /**
+     * Registers a listener for model property changes such as
+     * {@link #PROPERTY_MODIFIED}.
+     *
+     * @param listener The listener to add
+     */
+    public void addPropertyChangeListener(PropertyChangeListener listener) {
+        changeSupport.addPropertyChangeListener(listener);
+    }
+
+    /**
+     * Removes a previously registered property change listener.
+     *
+     * @param listener The listener to remove
+     */
+    public void removePropertyChangeListener(PropertyChangeListener listener) {
+        changeSupport.removePropertyChangeListener(listener);
     }
 
     /**
      * Gets the display name for the current document.
      * Returns the filename if a file is associated, otherwise "Untitled".
-     * 
+     *
      * @return The display name
      */
     public String getDisplayName() {
@@ -112,7 +299,7 @@ public class DocumentModel {
 
     /**
      * Gets the full title for the window, including modification indicator.
-     * 
+     *
      * @return The window title
      */
     public String getWindowTitle() {
@@ -128,4 +315,26 @@ public class DocumentModel {
 
         return title.toString();
     }
+
+    /**
+     * Gets a counter that changes with every edit of the document, so a
+     * background task can tell whether the text still matches the snapshot
+     * it started from.
+     *
+     * @return The current revision
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Marks the document dirty on the first edit after a load or save. Only a
+     * flag flip, so typing costs nothing proportional to the document size.
+     */
+    private void documentChanged() {
+        revision++;
+        if (!loading && !modified) {
+            setModified(true);
+        }
+    }
 }
@@ -0,0 +1,372 @@
+package jv.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * How the text of a file is stored: its charset, whether it starts with a
+ * byte order mark, and which line separator it uses. The document always
+ * separates lines with {@code '\n'}; the separator of the file is restored
+ * when it is saved, and the byte order mark is written again.
+ * <p>
+ * A format is detected from a sample of the start of a file: a byte order
+ * mark decides the charset, otherwise the sample is checked for UTF-16 text
+ * and for valid UTF-8, and any other file is read as ISO-8859-1, which
+ * accepts every byte and writes it back unchanged. The separator used most
+ * often in the sample is the separator of the file, except that a file is
+ * only taken to use CR if the sample has no line feed at all: lone carriage
+ * returns are kept in LF and CRLF files, whereas line feeds in a CR file can
+ * only be written back as carriage returns.
+ */
+public final class FileFormat {
+
+    /** The number of bytes at the start of a file used to detect its format. */
+    public static final int SAMPLE_SIZE = 64 * 1024;
+
+    /** The format of new documents. */
+    public static final FileFormat DEFAULT = new FileFormat(StandardCharsets.UTF_8, false, LineSeparator.LF);
+
+    private static final byte[] UTF_8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+    private static final byte[] UTF_16BE_BOM = { (byte) 0xFE, (byte) 0xFF };
+    private static final byte[] UTF_16LE_BOM = { (byte) 0xFF, (byte) 0xFE };
+    private static final byte[] NO_BOM = {};
+
+    /**
+     * The line separators a file may use.
+     */
+    public enum LineSeparator {
+        LF("\n"),
+        CRLF("\r\n"),
+        CR("\r");
+
+        private final String text;
+
+        LineSeparator(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Gets the characters that end a line in the file.
+         *
+         * @return The separator
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    private final Charset charset;
+    private final boolean byteOrderMark;
+    private final LineSeparator lineSeparator;
+
+    /**
+     * Creates a format.
+     *
+     * @param charset       UTF-8, UTF-16BE, UTF-16LE or ISO-8859-1
+     * @param byteOrderMark Whether the file starts with a byte order mark; not
+     *                      allowed for ISO-8859-1
+     * @param lineSeparator The line separator
+     */
+    public FileFormat(Charset charset, boolean byteOrderMark, LineSeparator lineSeparator) {
+        if (!charset.equals(StandardCharsets.UTF_8) && !isUtf16(charset)
+                && !charset.equals(StandardCharsets.ISO_8859_1)) {
+            throw new IllegalArgumentException("Unsupported charset: " + charset);
+        }
+        if (byteOrderMark && charset.equals(StandardCharsets.ISO_8859_1)) {
+            throw new IllegalArgumentException("ISO-8859-1 has no byte order mark");
+        }
+        this.charset = charset;
+        this.byteOrderMark = byteOrderMark;
+        this.lineSeparator = lineSeparator;
+    }
+
+    /**
+     * Gets the charset of the file.
+     *
+     * @return The charset
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Checks if the file starts with a byte order mark.
+     *
+     * @return true if there is a byte order mark
+     */
+    public boolean hasByteOrderMark() {
+        return byteOrderMark;
+    }
+
+    /**
+     * Gets the bytes the file starts with before its text.
+     *
+     * @return The byte order mark, or an empty array; must not be changed
+     */
+    public byte[] getByteOrderMark() {
+        if (!byteOrderMark) {
+            return NO_BOM;
+        }
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            return UTF_8_BOM;
+        }
+        return charset.equals(StandardCharsets.UTF_16BE) ? UTF_16BE_BOM : UTF_16LE_BOM;
+    }
+
+    /**
+     * Gets the line separator of the file.
+     *
+     * @return The separator
+     */
+    public LineSeparator getLineSeparator() {
+        return lineSeparator;
+    }
+
+    /**
+     * Gets a format that differs from this one only in its charset, without a
+     * byte order mark.
+     *
+     * @param charset The charset
+     * @return The format
+     */
+    public FileFormat withCharset(Charset charset) {
+        return new FileFormat(charset, false, lineSeparator);
+    }
+
+    /**
+     * Gets the name of the encoding shown to the user.
+     *
+     * @return The charset name, followed by "BOM" if there is one
+     */
+    public String getEncodingName() {
+        return byteOrderMark ? charset.name() + " BOM" : charset.name();
+    }
+
+    /**
+     * Measures the encoding of a range of document characters in this
+     * format, each {@code '\n'} being written as the line separator and each
+     * surrogate without its other half as the replacement of the charset.
+     *
+     * @param text The text
+     * @param from The offset of the first character
+     * @param to   The offset after the last character
+     * @return The number of bytes
+     */
+    public long encodedLength(PieceTable text, int from, int to) {
+        int unit = isUtf16(charset) ? 2 : 1;
+        long[] total = { (long) unit * (to - from) };
+        int extra = unit * (lineSeparator.getText().length() - 1);
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        if (!utf8 && extra == 0) {
+            return total[0];
+        }
+        int[] position = { from };
+        text.forEachPiece(from, to, (array, start, length) -> {
+            long sum = 0;
+            for (int i = start, end = start + length; i < end; i++) {
+                char c = array[i];
+                if (c == '\n') {
+                    sum += extra;
+                } else if (utf8 && c >= 0x80) {
+                    // Two bytes up to U+07FF, three above; a surrogate pair
+                    // takes four, two for each half, and a lone surrogate is
+                    // replaced by a single byte
+                    if (c < 0x800) {
+                        sum++;
+                    } else if (!Character.isSurrogate(c)) {
+                        sum += 2;
+                    } else if (isPaired(text, position[0] + i - start)) {
+                        sum++;
+                    }
+                }
+            }
+            total[0] += sum;
+            position[0] += length;
+        });
+        return total[0];
+    }
+
+    private static boolean isPaired(PieceTable text, int index) {
+        char c = text.charAt(index);
+        if (Character.isHighSurrogate(c)) {
+            return index + 1 < text.length() && Character.isLowSurrogate(text.charAt(index + 1));
+        }
+        return index > 0 && Character.isHighSurrogate(text.charAt(index - 1));
+    }
+
+    /**
+     * Detects the format of a file from the bytes it starts with.
+     *
+     * @param sample   The first bytes of the file, between position and limit;
+     *                 the buffer is not changed
+     * @param complete Whether the sample holds the whole file
+     * @return The format
+     */
+    public static FileFormat detect(ByteBuffer sample, boolean complete) {
+        ByteBuffer bytes = sample.slice();
+        Charset charset;
+        boolean bom = true;
+        if (startsWith(bytes, UTF_8_BOM)) {
+            charset = StandardCharsets.UTF_8;
+        } else if (startsWith(bytes, UTF_16BE_BOM)) {
+            charset = StandardCharsets.UTF_16BE;
+        } else if (startsWith(bytes, UTF_16LE_BOM)) {
+            charset = StandardCharsets.UTF_16LE;
+        } else {
+            charset = guessCharset(bytes, complete);
+            bom = false;
+        }
+        FileFormat format = new FileFormat(charset, bom, LineSeparator.LF);
+        LineSeparator separator = detectLineSeparator(bytes, format.getByteOrderMark().length, charset, complete);
+        return separator == LineSeparator.LF ? format : new FileFormat(charset, bom, separator);
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, byte[] prefix) {
+        return bytes.remaining() >= prefix.length
+                && bytes.slice(0, prefix.length).equals(ByteBuffer.wrap(prefix));
+    }
+
+    /**
+     * Guesses the charset of text without a byte order mark. Text in UTF-16
+     * has a zero byte in most of its even or odd positions, as long as it is
+     * mostly Latin.
+     */
+    private static Charset guessCharset(ByteBuffer bytes, boolean complete) {
+        int pairs = bytes.remaining() / 2;
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i < pairs * 2; i += 2) {
+            if (bytes.get(i) == 0) {
+                evenZeros++;
+            }
+            if (bytes.get(i + 1) == 0) {
+                oddZeros++;
+            }
+        }
+        if (pairs >= 2) {
+            if (oddZeros > pairs * 2 / 5 && evenZeros < pairs / 20 + 1) {
+                return StandardCharsets.UTF_16LE;
+            }
+            if (evenZeros > pairs * 2 / 5 && oddZeros < pairs / 20 + 1) {
+                return StandardCharsets.UTF_16BE;
+            }
+        }
+        return isUtf8(bytes, complete) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+    }
+
+    /**
+     * Checks that bytes are well-formed UTF-8. A sequence cut off by the end
+     * of the sample is accepted if the file goes on.
+     */
+    private static boolean isUtf8(ByteBuffer bytes, boolean complete) {
+        int end = bytes.limit();
+        int i = 0;
+        while (i < end) {
+            int b = bytes.get(i) & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int count;
+            int min = 0x80;
+            int max = 0xBF;
+            if (b >= 0xC2 && b <= 0xDF) {
+                count = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                count = 2;
+                // No overlong forms and no surrogates
+                min = b == 0xE0 ? 0xA0 : 0x80;
+                max = b == 0xED ? 0x9F : 0xBF;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                count = 3;
+                // No overlong forms and nothing above U+10FFFF
+                min = b == 0xF0 ? 0x90 : 0x80;
+                max = b == 0xF4 ? 0x8F : 0xBF;
+            } else {
+                return false;
+            }
+            for (int k = 1; k <= count; k++) {
+                if (i + k >= end) {
+                    return !complete;
+                }
+                int c = bytes.get(i + k) & 0xFF;
+                if (c < (k == 1 ? min : 0x80) || c > (k == 1 ? max : 0xBF)) {
+                    return false;
+                }
+            }
+            i += count + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Counts the line separators of each kind in the sample and picks the
+     * most frequent one, or LF if any line feed would not survive a CR file;
+     * a file without any gets {@code '\n'}.
+     */
+    private static LineSeparator detectLineSeparator(ByteBuffer bytes, int start, Charset charset,
+            boolean complete) {
+        int unit = isUtf16(charset) ? 2 : 1;
+        boolean bigEndian = charset.equals(StandardCharsets.UTF_16BE);
+        int end = bytes.limit() - (bytes.limit() - start) % unit;
+        int lf = 0;
+        int crlf = 0;
+        int cr = 0;
+        for (int i = start; i < end; i += unit) {
+            int c = unitAt(bytes, i, unit, bigEndian);
+            if (c == '\n') {
+                lf++;
+            } else if (c == '\r') {
+                if (i + unit < end) {
+                    if (unitAt(bytes, i + unit, unit, bigEndian) == '\n') {
+                        crlf++;
+                        i += unit;
+                    } else {
+                        cr++;
+                    }
+                } else if (complete) {
+                    cr++;
+                }
+            }
+        }
+        if (crlf > 0 && crlf >= lf && crlf >= cr) {
+            return LineSeparator.CRLF;
+        }
+        return cr > 0 && lf == 0 && crlf == 0 ? LineSeparator.CR : LineSeparator.LF;
+    }
+
+    private static int unitAt(ByteBuffer bytes, int index, int unit, boolean bigEndian) {
+        if (unit == 1) {
+            return bytes.get(index) & 0xFF;
+        }
+        int first = bytes.get(index) & 0xFF;
+        int second = bytes.get(index + 1) & 0xFF;
+        return bigEndian ? first << 8 | second : second << 8 | first;
+    }
+
+    private static boolean isUtf16(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_16BE) || charset.equals(StandardCharsets.UTF_16LE);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof FileFormat)) {
+            return false;
+        }
+        FileFormat other = (FileFormat) obj;
+        return charset.equals(other.charset) && byteOrderMark == other.byteOrderMark
+                && lineSeparator == other.lineSeparator;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(charset, byteOrderMark, lineSeparator);
+    }
+
+    @Override
+    public String toString() {
+        return getEncodingName() + " " + lineSeparator;
+    }
+}
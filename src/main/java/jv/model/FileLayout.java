@@ -0,0 +1,233 @@
+package jv.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Where the characters of a text lie in the file it was loaded from or last
+ * saved to. Together with the snapshot of that text, it lets a save
+ * find the byte offset of the first change and leave everything before it
+ * in place.
+ * <p>
+ * Only sparse checkpoints pairing a character offset with a byte offset are
+ * stored; any other offset is found by measuring the encoded length of the
+ * characters after the nearest checkpoint. Checkpoints never split a
+ * surrogate pair. A layout is immutable once built and may be shared
+ * between threads.
+ * <p>
+ * The measured offsets are only right if the text encodes back to the bytes
+ * of the file. A file that mixes line separators does not, so its layout is
+ * marked as not exact, and it is saved in full.
+ */
+public final class FileLayout {
+
+    /** Minimum number of characters between two checkpoints. */
+    public static final int SPACING = 64 * 1024;
+
+    private final File file;
+    private final FileFormat format;
+    private final long size;
+    private final long lastModified;
+    private final PieceTable text;
+    private final int[] chars;
+    private final long[] bytes;
+    private final int count;
+    private final boolean exact;
+
+    private FileLayout(File file, FileFormat format, long size, long lastModified, PieceTable text, int[] chars,
+            long[] bytes, int count, boolean exact) {
+        this.file = file;
+        this.format = format;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.text = text;
+        this.chars = chars;
+        this.bytes = bytes;
+        this.count = count;
+        this.exact = exact;
+    }
+
+    /**
+     * Gets the file described.
+     *
+     * @return The file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the format the text is encoded in.
+     *
+     * @return The format
+     */
+    public FileFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Gets the size of the file when the layout was recorded.
+     *
+     * @return The size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the modification time of the file when the layout was recorded.
+     *
+     * @return The time in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Gets the text held by the file.
+     *
+     * @return The snapshot the file was loaded into or saved from, or null
+     *         for a layout without text
+     */
+    public PieceTable getText() {
+        return text;
+    }
+
+    /**
+     * Checks if the text encodes to exactly the bytes of the file, so that
+     * byte offsets can be measured from the text.
+     *
+     * @return true if the layout is exact
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Gets a layout of the same file that does not keep its text alive, for
+     * a document whose text was dropped to save memory. It still tells if the
+     * file changed, but not where its characters lie, so it is not exact.
+     *
+     * @return The layout without text
+     */
+    public FileLayout withoutText() {
+        return new FileLayout(file, format, size, lastModified, null, new int[] { 0 }, new long[] { 0 }, 1, false);
+    }
+
+    /**
+     * Checks that a file still is the one described: same size and same
+     * modification time.
+     *
+     * @param path The file to check
+     * @return true if the file was not changed since the layout was recorded
+     */
+    public boolean matches(Path path) {
+        try {
+            return Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == lastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the position in the file of the character at an offset of the
+     * text.
+     *
+     * @param charOffset The character offset, not inside a surrogate pair
+     * @return The byte offset
+     */
+    public long byteOffset(int charOffset) {
+        int i = Arrays.binarySearch(chars, 0, count, charOffset);
+        if (i >= 0) {
+            return bytes[i];
+        }
+        int checkpoint = -i - 2;
+        return bytes[checkpoint] + format.encodedLength(text, chars[checkpoint], charOffset);
+    }
+
+    /**
+     * Copies the checkpoints in a range of characters to a builder, moved by
+     * the given amounts. Used to carry the layout of unchanged text over to
+     * the file written by a save.
+     *
+     * @param builder   The builder of the new layout
+     * @param from      The first character offset to copy
+     * @param to        The last character offset to copy
+     * @param charShift The amount to add to the character offsets
+     * @param byteShift The amount to add to the byte offsets
+     */
+    public void copyTo(Builder builder, int from, int to, int charShift, long byteShift) {
+        int i = Arrays.binarySearch(chars, 0, count, from);
+        for (i = i >= 0 ? i : -i - 1; i < count && chars[i] <= to; i++) {
+            builder.add(chars[i] + charShift, bytes[i] + byteShift);
+        }
+    }
+
+    /**
+     * Collects checkpoints in increasing order while a file is read or
+     * written.
+     */
+    public static final class Builder {
+        private final FileFormat format;
+        private int[] chars = new int[64];
+        private long[] bytes = new long[64];
+        private int count;
+        private boolean exact = true;
+
+        /**
+         * Creates a builder holding the checkpoint at the start of the text,
+         * after the byte order mark if there is one.
+         *
+         * @param format The format the file is encoded in
+         */
+        public Builder(FileFormat format) {
+            this.format = format;
+            bytes[0] = format.getByteOrderMark().length;
+            count = 1;
+        }
+
+        /**
+         * Records that a character offset lies at a byte offset. Checkpoints
+         * closer than {@link #SPACING} to the previous one are skipped.
+         *
+         * @param charOffset The character offset, not inside a surrogate pair
+         * @param byteOffset The byte offset in the file
+         */
+        public void add(long charOffset, long byteOffset) {
+            if (charOffset < chars[count - 1] + SPACING || charOffset > Integer.MAX_VALUE) {
+                return;
+            }
+            if (count == chars.length) {
+                chars = Arrays.copyOf(chars, count * 2);
+                bytes = Arrays.copyOf(bytes, count * 2);
+            }
+            chars[count] = (int) charOffset;
+            bytes[count] = byteOffset;
+            count++;
+        }
+
+        /**
+         * Records that the text does not encode back to the bytes read, as
+         * reported by the decoder.
+         */
+        public void markInexact() {
+            exact = false;
+        }
+
+        /**
+         * Builds the layout of a file.
+         *
+         * @param file         The file
+         * @param size         Its size
+         * @param lastModified Its modification time in milliseconds
+         * @param text         The text it holds
+         * @return The layout
+         */
+        public FileLayout build(File file, long size, long lastModified, PieceTable text) {
+            return new FileLayout(file, format, size, lastModified, text, chars, bytes, count, exact);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package jv.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only, memory-mapped view of a UTF-8 text file of any size.
+ * The file is mapped in chunks and never copied onto the heap as a whole;
+ * only the byte ranges asked for are read and decoded.
+ */
+public class MappedTextFile implements Closeable {
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long size;
+    private final MappedByteBuffer[] chunks;
+
+    private MappedTextFile(File file, FileChannel channel, long size, MappedByteBuffer[] chunks) {
+        this.file = file;
+        this.channel = channel;
+        this.size = size;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Maps a file for reading.
+     *
+     * @param file The file to map
+     * @return The mapped file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static MappedTextFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            int chunkCount = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+            }
+            return new MappedTextFile(file, channel, size, chunks);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the mapped file.
+     *
+     * @return The file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the size of the file in bytes.
+     *
+     * @return The file size
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Gets one byte of the file. Safe to call from any thread.
+     *
+     * @param position The byte position
+     * @return The byte
+     */
+    public byte byteAt(long position) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)].get((int) (position & (CHUNK_SIZE - 1)));
+    }
+
+    /**
+     * Copies a range of bytes into an array. Safe to call from any thread.
+     *
+     * @param position The first byte position
+     * @param dst      The destination array
+     * @param offset   The index in the destination to start at
+     * @param length   The number of bytes to copy
+     */
+    public void read(long position, byte[] dst, int offset, int length) {
+        while (length > 0) {
+            MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_SHIFT)];
+            int index = (int) (position & (CHUNK_SIZE - 1));
+            int count = Math.min(length, chunk.capacity() - index);
+            chunk.get(index, dst, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Decodes a range of bytes as UTF-8. Malformed input is replaced rather
+     * than reported, so a range cut inside a character still decodes.
+     *
+     * @param start The first byte position
+     * @param end   The position after the last byte
+     * @return The decoded text
+     */
+    public String decode(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        read(start, bytes, 0, bytes.length);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(bytes.length);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        decoder.decode(in, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return chars.toString();
+    }
+
+    /**
+     * Finds the start of the line a number of lines after a position.
+     *
+     * @param position The position to start scanning at
+     * @param lines    The number of line breaks to skip
+     * @return The start of the line, or the file size if the file ends first
+     */
+    public long skipLines(long position, long lines) {
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        while (lines > 0 && position < size) {
+            int count = (int) Math.min(buffer.length, size - position);
+            read(position, buffer, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (buffer[i] == '\n' && --lines == 0) {
+                    return position + i + 1;
+                }
+            }
+            position += count;
+        }
+        return lines == 0 ? position : size;
+    }
+
+    /**
+     * Counts line breaks in a range of bytes.
+     *
+     * @param start The first byte position
+     * @param end   The position after the last byte
+     * @return The number of line breaks
+     */
+    public long countLines(long start, long end) {
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        long lines = 0;
+        while (start < end) {
+            int count = (int) Math.min(buffer.length, end - start);
+            read(start, buffer, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (buffer[i] == '\n') {
+                    lines++;
+                }
+            }
+            start += count;
+        }
+        return lines;
+    }
+
+    /**
+     * Searches for a byte sequence, ignoring ASCII case, with a
+     * Boyer-Moore-Horspool skip table. Multi-byte UTF-8 characters are
+     * compared exactly.
+     *
+     * @param needle The bytes to search for
+     * @param from   The position to start searching at
+     * @return The position of the first match, or -1 if there is none
+     */
+    public long indexOfIgnoreCase(byte[] needle, long from) {
+        int m = needle.length;
+        if (m == 0 || from < 0) {
+            return -1;
+        }
+        byte[] folded = new byte[m];
+        for (int i = 0; i < m; i++) {
+            folded[i] = fold(needle[i]);
+        }
+        int[] skip = new int[256];
+        Arrays.fill(skip, m);
+        for (int i = 0; i < m - 1; i++) {
+            skip[folded[i] & 0xFF] = m - 1 - i;
+        }
+
+        long position = from;
+        while (position + m <= size) {
+            int i = m - 1;
+            byte last = fold(byteAt(position + i));
+            if (last == folded[i]) {
+                while (i > 0 && fold(byteAt(position + i - 1)) == folded[i - 1]) {
+                    i--;
+                }
+                if (i == 0) {
+                    return position;
+                }
+            }
+            position += skip[last & 0xFF];
+        }
+        return -1;
+    }
+
+    private static byte fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
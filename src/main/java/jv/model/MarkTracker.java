@@ -0,0 +1,345 @@
+package jv.model;
+
+import javax.swing.text.Position;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the {@link Position}s handed out by a {@link PieceTableContent} in
+ * step with edits.
+ * Marks are sorted and grouped into small blocks that each carry a lazy
+ * offset delta. An edit adjusts the marks of one block individually and only
+ * the delta of every block after it, so shifting a million line positions
+ * costs a few thousand additions instead of a million.
+ */
+final class MarkTracker {
+
+    private static final int BLOCK_SIZE = 256;
+    private static final int MIN_UNUSED_MARKS_TO_COMPACT = 64;
+
+    private final List<Block> blocks;
+    private final ReferenceQueue<StickyPosition> queue;
+    private int markCount;
+    private int unusedMarks;
+
+    MarkTracker() {
+        this.blocks = new ArrayList<>();
+        this.queue = new ReferenceQueue<>();
+    }
+
+    /**
+     * Gets a position tracking the given offset, reusing a live one at the
+     * same offset when there is one.
+     */
+    Position createPosition(int offset) {
+        drainQueue();
+        int b = findBlock(offset);
+        Block block;
+        int index;
+        if (b < 0) {
+            block = new Block();
+            blocks.add(block);
+            index = 0;
+        } else {
+            block = blocks.get(b);
+            index = block.lowerBound(offset);
+            if (index < block.count && block.offsetAt(index) == offset) {
+                StickyPosition existing = block.marks[index].get();
+                if (existing != null) {
+                    return existing;
+                }
+            }
+        }
+
+        StickyPosition position = new StickyPosition();
+        Mark mark = new Mark(position, queue);
+        position.mark = mark;
+        block.insert(index, mark, offset);
+        markCount++;
+        if (block.count > 2 * BLOCK_SIZE) {
+            blocks.add(blocks.indexOf(block) + 1, block.splitUpperHalf());
+        }
+        return position;
+    }
+
+    /**
+     * Shifts the marks after an insertion. Marks at the insertion point move
+     * with the text, except marks at offset zero.
+     */
+    void insertUpdate(int where, int length) {
+        drainQueue();
+        shiftFrom(where == 0 ? 1 : where, length);
+    }
+
+    /**
+     * Collapses the marks inside a removed range onto its start and shifts the
+     * marks after it.
+     */
+    void removeUpdate(int where, int length) {
+        drainQueue();
+        int end = where + length;
+        int b = findBlock(where + 1);
+        if (b < 0) {
+            return;
+        }
+        for (int i = b; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            if (block.offsetAt(0) >= end) {
+                block.delta -= length;
+                continue;
+            }
+            for (int j = 0; j < block.count; j++) {
+                int offset = block.offsetAt(j);
+                if (offset >= end) {
+                    block.marks[j].value -= length;
+                } else if (offset > where) {
+                    block.marks[j].value = where - block.delta;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the marks inside a range, ends included, so an undo can put
+     * them back where they were before the range collapsed.
+     */
+    MarkRef[] capture(int where, int length) {
+        List<MarkRef> refs = new ArrayList<>();
+        forEachSlot(where, where + length, (block, index) ->
+                refs.add(new MarkRef(block.marks[index], block.offsetAt(index))));
+        return refs.isEmpty() ? null : refs.toArray(new MarkRef[0]);
+    }
+
+    /**
+     * Puts captured marks back at their recorded offsets after the range has
+     * been re-inserted, keeping the marks sorted.
+     */
+    void restore(MarkRef[] refs, int where, int length) {
+        if (refs == null) {
+            return;
+        }
+        int end = where + length;
+        List<Block> slotBlocks = new ArrayList<>();
+        List<Integer> slotIndexes = new ArrayList<>();
+        List<Mark> inRange = new ArrayList<>();
+        forEachSlot(where, end, (block, index) -> {
+            slotBlocks.add(block);
+            slotIndexes.add(index);
+            Mark mark = block.marks[index];
+            mark.target = block.offsetAt(index);
+            mark.restoring = true;
+            inRange.add(mark);
+        });
+        for (MarkRef ref : refs) {
+            if (ref.mark.restoring) {
+                ref.mark.target = ref.offset;
+            }
+        }
+        Mark[] sorted = inRange.toArray(new Mark[0]);
+        Arrays.sort(sorted, Comparator.comparingInt(mark -> mark.target));
+        for (int i = 0; i < sorted.length; i++) {
+            Block block = slotBlocks.get(i);
+            Mark mark = sorted[i];
+            block.marks[slotIndexes.get(i)] = mark;
+            mark.block = block;
+            mark.value = mark.target - block.delta;
+            mark.restoring = false;
+        }
+    }
+
+    private void shiftFrom(int threshold, int delta) {
+        int b = findBlock(threshold);
+        if (b < 0) {
+            return;
+        }
+        Block first = blocks.get(b);
+        for (int j = first.lowerBound(threshold); j < first.count; j++) {
+            first.marks[j].value += delta;
+        }
+        for (int i = b + 1; i < blocks.size(); i++) {
+            blocks.get(i).delta += delta;
+        }
+    }
+
+    /**
+     * Finds the first block containing a mark at or after the given offset,
+     * or the last block if there is none, or -1 when there are no marks.
+     */
+    private int findBlock(int offset) {
+        int lo = 0;
+        int hi = blocks.size() - 1;
+        if (hi < 0) {
+            return -1;
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            Block block = blocks.get(mid);
+            if (block.offsetAt(block.count - 1) < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void forEachSlot(int from, int to, SlotVisitor visitor) {
+        int b = findBlock(from);
+        if (b < 0) {
+            return;
+        }
+        for (int i = b; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            for (int j = block.lowerBound(from); j < block.count; j++) {
+                if (block.offsetAt(j) > to) {
+                    return;
+                }
+                visitor.visit(block, j);
+            }
+        }
+    }
+
+    /**
+     * Counts positions that have been garbage collected and rebuilds the
+     * blocks without them once enough have accumulated.
+     */
+    private void drainQueue() {
+        while (queue.poll() != null) {
+            unusedMarks++;
+        }
+        if (unusedMarks <= MIN_UNUSED_MARKS_TO_COMPACT || unusedMarks <= markCount / 2) {
+            return;
+        }
+        List<Mark> live = new ArrayList<>(Math.max(markCount - unusedMarks, 0));
+        for (Block block : blocks) {
+            for (int j = 0; j < block.count; j++) {
+                Mark mark = block.marks[j];
+                if (mark.get() == null) {
+                    mark.block = null;
+                    continue;
+                }
+                mark.target = block.offsetAt(j);
+                live.add(mark);
+            }
+        }
+        rebuild(live);
+        unusedMarks = 0;
+    }
+
+    /**
+     * Replaces the blocks with full blocks holding the given marks, which
+     * must be sorted by their target offsets.
+     */
+    private void rebuild(List<Mark> sorted) {
+        blocks.clear();
+        Block current = null;
+        for (Mark mark : sorted) {
+            if (current == null || current.count == BLOCK_SIZE) {
+                current = new Block();
+                blocks.add(current);
+            }
+            current.insert(current.count, mark, mark.target);
+        }
+        markCount = sorted.size();
+    }
+
+    @FunctionalInterface
+    private interface SlotVisitor {
+        void visit(Block block, int index);
+    }
+
+    /**
+     * A sorted run of marks sharing a lazy offset delta.
+     */
+    private static final class Block {
+        Mark[] marks = new Mark[BLOCK_SIZE];
+        int count;
+        int delta;
+
+        int offsetAt(int index) {
+            return marks[index].value + delta;
+        }
+
+        int lowerBound(int offset) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (offsetAt(mid) < offset) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        void insert(int index, Mark mark, int offset) {
+            if (count == marks.length) {
+                marks = Arrays.copyOf(marks, marks.length * 2);
+            }
+            System.arraycopy(marks, index, marks, index + 1, count - index);
+            marks[index] = mark;
+            count++;
+            mark.block = this;
+            mark.value = offset - delta;
+        }
+
+        Block splitUpperHalf() {
+            Block upper = new Block();
+            int half = count / 2;
+            for (int j = half; j < count; j++) {
+                upper.insert(upper.count, marks[j], offsetAt(j));
+                marks[j] = null;
+            }
+            count = half;
+            return upper;
+        }
+    }
+
+    /**
+     * Bookkeeping for one position. Weakly references the position handed
+     * out, so positions nobody holds any more can be dropped.
+     */
+    private static final class Mark extends WeakReference<StickyPosition> {
+        Block block;
+        int value;
+        int target;
+        boolean restoring;
+
+        Mark(StickyPosition referent, ReferenceQueue<? super StickyPosition> queue) {
+            super(referent, queue);
+        }
+    }
+
+    private static final class StickyPosition implements Position {
+        Mark mark;
+
+        @Override
+        public int getOffset() {
+            return mark.value + mark.block.delta;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+
+    /**
+     * A mark together with the offset it had when it was captured.
+     */
+    static final class MarkRef {
+        final Mark mark;
+        final int offset;
+
+        MarkRef(Mark mark, int offset) {
+            this.mark = mark;
+            this.offset = offset;
+        }
+    }
+}
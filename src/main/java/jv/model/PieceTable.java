@@ -0,0 +1,648 @@
+package jv.model;
+
+import javax.swing.text.Segment;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable piece table over two append-only buffers: the read-only original
+ * text and the buffer receiving every edit.
+ * Pieces are kept in a persistent treap ordered by document position, so an
+ * edit costs O(log pieces) and produces a new table while older tables stay
+ * valid. Holding on to a table is therefore a free, thread-safe snapshot.
+ */
+public final class PieceTable {
+
+    /**
+     * Receives the character runs of a range of the table in order.
+     */
+    @FunctionalInterface
+    public interface PieceVisitor {
+        /**
+         * Visits one run of characters.
+         *
+         * @param array  The backing array, which must not be modified
+         * @param offset The index of the first character of the run
+         * @param length The number of characters in the run
+         */
+        void visit(char[] array, int offset, int length);
+    }
+
+    /**
+     * A treap node describing one piece. Nodes are never mutated.
+     */
+    static final class Node {
+        final boolean original;
+        final int start;
+        final int length;
+        final int priority;
+        final Node left;
+        final Node right;
+        final int size;
+        final int count;
+
+        Node(boolean original, int start, int length, int priority, Node left, Node right) {
+            this.original = original;
+            this.start = start;
+            this.length = length;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + length + size(right);
+            this.count = count(left) + 1 + count(right);
+        }
+
+        Node withChildren(Node newLeft, Node newRight) {
+            if (newLeft == left && newRight == right) {
+                return this;
+            }
+            return new Node(original, start, length, priority, newLeft, newRight);
+        }
+    }
+
+    private final AppendBuffer original;
+    private final AppendBuffer added;
+    final Node root;
+
+    PieceTable(AppendBuffer original, AppendBuffer added, Node root) {
+        this.original = original;
+        this.added = added;
+        this.root = root;
+    }
+
+    /**
+     * Creates a single-piece tree covering a range of one of the buffers.
+     */
+    static Node piece(boolean original, int start, int length) {
+        if (length == 0) {
+            return null;
+        }
+        return new Node(original, start, length, ThreadLocalRandom.current().nextInt(), null, null);
+    }
+
+    /**
+     * Gets the number of characters in the table.
+     *
+     * @return The length
+     */
+    public int length() {
+        return size(root);
+    }
+
+    /**
+     * Gets the number of pieces in the table.
+     *
+     * @return The piece count
+     */
+    public int pieceCount() {
+        return count(root);
+    }
+
+    /**
+     * Gets the buffer holding the original text.
+     *
+     * @return The original buffer
+     */
+    public AppendBuffer getOriginal() {
+        return original;
+    }
+
+    /**
+     * Gets the buffer receiving inserted text.
+     *
+     * @return The add buffer
+     */
+    public AppendBuffer getAdded() {
+        return added;
+    }
+
+    /**
+     * Gets the character at a position. Costs O(log pieces); use
+     * {@link #chars()} for sequential access.
+     *
+     * @param index The position
+     * @return The character
+     */
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        Node n = root;
+        while (true) {
+            int leftSize = size(n.left);
+            if (index < leftSize) {
+                n = n.left;
+            } else if (index < leftSize + n.length) {
+                return buffer(n).charAt(n.start + index - leftSize);
+            } else {
+                index -= leftSize + n.length;
+                n = n.right;
+            }
+        }
+    }
+
+    /**
+     * Copies a range of characters into an array.
+     *
+     * @param start  The first position to copy
+     * @param end    The position after the last one to copy
+     * @param dst    The destination array
+     * @param dstPos The index in the destination to start at
+     */
+    public void getChars(int start, int end, char[] dst, int dstPos) {
+        int[] pos = { dstPos };
+        forEachPiece(start, end, (array, offset, length) -> {
+            System.arraycopy(array, offset, dst, pos[0], length);
+            pos[0] += length;
+        });
+    }
+
+    /**
+     * Visits the runs of characters covering a range, in document order,
+     * without copying them.
+     *
+     * @param start   The first position to visit
+     * @param end     The position after the last one to visit
+     * @param visitor The visitor receiving each run
+     */
+    public void forEachPiece(int start, int end, PieceVisitor visitor) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") of " + length());
+        }
+        if (start < end) {
+            visit(root, 0, start, end, visitor);
+        }
+    }
+
+    /**
+     * Gets a sequential-access view of the table. The view caches the piece
+     * it last read from, so scanning costs O(1) per character. A view must
+     * only be used by one thread at a time.
+     *
+     * @return A character sequence view over this table
+     */
+    public CharSequence chars() {
+        return new CharView(0, length());
+    }
+
+    /**
+     * Counts the characters at the start of two tables that come from the
+     * same runs of the same buffers, as they do in a text and a later edit
+     * of it. Characters that are merely equal do not count, so only the
+     * pieces are walked and no text is compared.
+     *
+     * @param a The first table
+     * @param b The second table
+     * @return The length of the shared start
+     */
+    public static int sharedPrefix(PieceTable a, PieceTable b) {
+        Runs ra = a.new Runs(false);
+        Runs rb = b.new Runs(false);
+        int shared = 0;
+        while (ra.next() && rb.next() && ra.buffer == rb.buffer && ra.start == rb.start) {
+            int n = Math.min(ra.length, rb.length);
+            shared += n;
+            ra.consume(n);
+            rb.consume(n);
+        }
+        return shared;
+    }
+
+    /**
+     * Counts the characters at the end of two tables that come from the
+     * same runs of the same buffers, like {@link #sharedPrefix}.
+     *
+     * @param a     The first table
+     * @param b     The second table
+     * @param limit The largest count wanted
+     * @return The length of the shared end, at most the limit
+     */
+    public static int sharedSuffix(PieceTable a, PieceTable b, int limit) {
+        Runs ra = a.new Runs(true);
+        Runs rb = b.new Runs(true);
+        int shared = 0;
+        while (shared < limit && ra.next() && rb.next() && ra.buffer == rb.buffer
+                && ra.start + ra.length == rb.start + rb.length) {
+            int n = Math.min(Math.min(ra.length, rb.length), limit - shared);
+            shared += n;
+            ra.consume(n);
+            rb.consume(n);
+        }
+        return shared;
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length()];
+        getChars(0, chars.length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Points a segment at the run of characters starting at a position,
+     * limited to the given end, without copying.
+     */
+    void firstRun(int start, int end, Segment segment) {
+        Node n = root;
+        int nodeOffset = 0;
+        while (true) {
+            int leftSize = size(n.left);
+            int pieceStart = nodeOffset + leftSize;
+            if (start < pieceStart) {
+                n = n.left;
+            } else if (start < pieceStart + n.length) {
+                segment.array = buffer(n).array();
+                segment.offset = n.start + start - pieceStart;
+                segment.count = Math.min(end, pieceStart + n.length) - start;
+                return;
+            } else {
+                nodeOffset = pieceStart + n.length;
+                n = n.right;
+            }
+        }
+    }
+
+    AppendBuffer buffer(Node n) {
+        return n.original ? original : added;
+    }
+
+    PieceTable withRoot(Node newRoot) {
+        return newRoot == root ? this : new PieceTable(original, added, newRoot);
+    }
+
+    private void visit(Node n, int nodeOffset, int start, int end, PieceVisitor visitor) {
+        while (n != null) {
+            int leftSize = size(n.left);
+            int pieceStart = nodeOffset + leftSize;
+            int pieceEnd = pieceStart + n.length;
+            if (start < pieceStart) {
+                visit(n.left, nodeOffset, start, end, visitor);
+            }
+            if (start < pieceEnd && end > pieceStart) {
+                int from = Math.max(start, pieceStart);
+                int to = Math.min(end, pieceEnd);
+                visitor.visit(buffer(n).array(), n.start + from - pieceStart, to - from);
+            }
+            if (end <= pieceEnd) {
+                return;
+            }
+            nodeOffset = pieceEnd;
+            n = n.right;
+        }
+    }
+
+    static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    static int count(Node n) {
+        return n == null ? 0 : n.count;
+    }
+
+    /**
+     * Splits a tree so that {@code out[0]} holds the first {@code k}
+     * characters and {@code out[1]} the rest. Only nodes on the search path
+     * are copied.
+     */
+    static void split(Node n, int k, Node[] out) {
+        if (n == null) {
+            out[0] = null;
+            out[1] = null;
+            return;
+        }
+        if (k <= 0) {
+            out[0] = null;
+            out[1] = n;
+            return;
+        }
+        if (k >= n.size) {
+            out[0] = n;
+            out[1] = null;
+            return;
+        }
+        int leftSize = size(n.left);
+        if (k <= leftSize) {
+            split(n.left, k, out);
+            out[1] = n.withChildren(out[1], n.right);
+        } else if (k >= leftSize + n.length) {
+            split(n.right, k - leftSize - n.length, out);
+            out[0] = n.withChildren(n.left, out[0]);
+        } else {
+            int cut = k - leftSize;
+            out[0] = new Node(n.original, n.start, cut, n.priority, n.left, null);
+            out[1] = new Node(n.original, n.start + cut, n.length - cut, n.priority, null, n.right);
+        }
+    }
+
+    /**
+     * Concatenates two trees.
+     */
+    static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority >= b.priority) {
+            return a.withChildren(a.left, merge(a.right, b));
+        }
+        return b.withChildren(merge(a, b.left), b.right);
+    }
+
+    /**
+     * Gets the last piece of a tree, or null if it is empty.
+     */
+    static Node last(Node n) {
+        if (n == null) {
+            return null;
+        }
+        while (n.right != null) {
+            n = n.right;
+        }
+        return n;
+    }
+
+    /**
+     * Grows the last piece of a tree by the given number of characters.
+     */
+    static Node extendLast(Node n, int delta) {
+        if (n.right == null) {
+            return new Node(n.original, n.start, n.length + delta, n.priority, n.left, null);
+        }
+        return n.withChildren(n.left, extendLast(n.right, delta));
+    }
+
+    /**
+     * Rebuilds a tree with ranges of equal length replaced by one shared run
+     * of the add buffer. Untouched text keeps referring to its pieces, so
+     * nothing but the pieces themselves is allocated however many ranges
+     * there are.
+     *
+     * @param n           The tree to rebuild, ending at or after the last range
+     * @param base        The document position of the start of the tree
+     * @param starts      The sorted, non-overlapping range starts, as document positions
+     * @param count       The number of ranges
+     * @param oldLength   The length of every range
+     * @param addedStart  The start of the replacement in the add buffer
+     * @param addedLength The length of the replacement
+     * @return The rebuilt tree
+     */
+    static Node replaceRanges(Node n, int base, int[] starts, int count, int oldLength,
+            int addedStart, int addedLength) {
+        Builder builder = new Builder(2 * count + count(n));
+        int range = 0;
+        boolean skipping = false;
+        int boundary = count > 0 ? starts[0] - base : Integer.MAX_VALUE;
+        int position = 0;
+        Node[] stack = new Node[64];
+        int top = 0;
+        while (n != null || top > 0) {
+            while (n != null) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                }
+                stack[top++] = n;
+                n = n.left;
+            }
+            n = stack[--top];
+
+            // Copy the parts of this piece outside the ranges, and emit the
+            // replacement where each range starts
+            int pieceEnd = position + n.length;
+            int at = position;
+            while (at < pieceEnd) {
+                if (at == boundary) {
+                    if (!skipping) {
+                        builder.add(false, addedStart, addedLength);
+                        boundary = starts[range] - base + oldLength;
+                    } else {
+                        range++;
+                        boundary = range < count ? starts[range] - base : Integer.MAX_VALUE;
+                    }
+                    skipping = !skipping;
+                    continue;
+                }
+                int stop = Math.min(pieceEnd, boundary);
+                if (!skipping) {
+                    builder.add(n.original, n.start + at - position, stop - at);
+                }
+                at = stop;
+            }
+            position = pieceEnd;
+            n = n.right;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects pieces in document order and builds a treap from them in
+     * linear time, the way a Cartesian tree is built from a sequence.
+     */
+    static final class Builder {
+        private boolean[] original;
+        private int[] start;
+        private int[] length;
+        private int size;
+
+        Builder(int capacity) {
+            capacity = Math.max(capacity, 16);
+            original = new boolean[capacity];
+            start = new int[capacity];
+            length = new int[capacity];
+        }
+
+        /**
+         * Appends a piece, extending the previous one when it continues it.
+         */
+        void add(boolean fromOriginal, int pieceStart, int pieceLength) {
+            if (pieceLength == 0) {
+                return;
+            }
+            int last = size - 1;
+            if (last >= 0 && original[last] == fromOriginal && start[last] + length[last] == pieceStart) {
+                length[last] += pieceLength;
+                return;
+            }
+            if (size == start.length) {
+                int capacity = size + (size >> 1);
+                original = Arrays.copyOf(original, capacity);
+                start = Arrays.copyOf(start, capacity);
+                length = Arrays.copyOf(length, capacity);
+            }
+            original[size] = fromOriginal;
+            start[size] = pieceStart;
+            length[size] = pieceLength;
+            size++;
+        }
+
+        /**
+         * Builds the tree. Random priorities are assigned and each piece
+         * becomes the right child of the nearest earlier piece with a higher
+         * priority, exactly as a sequence of merges would arrange them.
+         */
+        Node build() {
+            if (size == 0) {
+                return null;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int[] priority = new int[size];
+            int[] left = new int[size];
+            int[] right = new int[size];
+            int[] stack = new int[size];
+            int top = -1;
+            for (int i = 0; i < size; i++) {
+                priority[i] = random.nextInt();
+                right[i] = -1;
+                int lastPopped = -1;
+                while (top >= 0 && priority[stack[top]] < priority[i]) {
+                    lastPopped = stack[top--];
+                }
+                left[i] = lastPopped;
+                if (top >= 0) {
+                    right[stack[top]] = i;
+                }
+                stack[++top] = i;
+            }
+            return node(stack[0], priority, left, right);
+        }
+
+        private Node node(int i, int[] priority, int[] left, int[] right) {
+            if (i < 0) {
+                return null;
+            }
+            return new Node(original[i], start[i], length[i], priority[i],
+                    node(left[i], priority, left, right), node(right[i], priority, left, right));
+        }
+    }
+
+    /**
+     * Walks the pieces in order, or in reverse order, a run at a time. The
+     * current run shrinks from its start, or from its end when reversed, as
+     * it is consumed.
+     */
+    private final class Runs {
+        private final boolean reverse;
+        private Node[] stack = new Node[64];
+        private int depth;
+        AppendBuffer buffer;
+        int start;
+        int length;
+
+        Runs(boolean reverse) {
+            this.reverse = reverse;
+            descend(root);
+        }
+
+        /**
+         * Moves to the next run unless some of the current one is left.
+         *
+         * @return false at the end of the table
+         */
+        boolean next() {
+            if (length > 0) {
+                return true;
+            }
+            if (depth == 0) {
+                return false;
+            }
+            Node n = stack[--depth];
+            descend(reverse ? n.left : n.right);
+            buffer = buffer(n);
+            start = n.start;
+            length = n.length;
+            return true;
+        }
+
+        void consume(int n) {
+            if (!reverse) {
+                start += n;
+            }
+            length -= n;
+        }
+
+        private void descend(Node n) {
+            while (n != null) {
+                push(n);
+                n = reverse ? n.right : n.left;
+            }
+        }
+
+        private void push(Node n) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = n;
+        }
+    }
+
+    /**
+     * Sequential character view with a cached piece cursor.
+     */
+    private final class CharView implements CharSequence {
+        private final int from;
+        private final int to;
+        private char[] cachedArray;
+        private int cachedStart = -1;
+        private int cachedEnd = -1;
+        private int cachedOffset;
+
+        CharView(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            int position = from + index;
+            if (position < cachedStart || position >= cachedEnd) {
+                locate(position);
+            }
+            return cachedArray[cachedOffset + position - cachedStart];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > to - from || start > end) {
+                throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ")");
+            }
+            return new CharView(from + start, from + end);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[to - from];
+            getChars(from, to, chars, 0);
+            return new String(chars);
+        }
+
+        private void locate(int position) {
+            Node n = root;
+            int nodeOffset = 0;
+            while (true) {
+                int leftSize = size(n.left);
+                int pieceStart = nodeOffset + leftSize;
+                if (position < pieceStart) {
+                    n = n.left;
+                } else if (position < pieceStart + n.length) {
+                    cachedArray = buffer(n).array();
+                    cachedStart = pieceStart;
+                    cachedEnd = pieceStart + n.length;
+                    cachedOffset = n.start;
+                    return;
+                } else {
+                    nodeOffset = pieceStart + n.length;
+                    n = n.right;
+                }
+            }
+        }
+    }
+}
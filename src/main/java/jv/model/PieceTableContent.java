@@ -0,0 +1,341 @@
+package jv.model;
+
+import jv.model.MarkTracker.MarkRef;
+import jv.model.PieceTable.Node;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Document content stored as a {@link PieceTable}.
+ * The original text is a single read-only piece and every edit appends to
+ * an add buffer, so inserts and removes cost O(log pieces) wherever they
+ * happen and never move existing text.
+ * Positions are maintained by a {@link MarkTracker}.
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+
+    private static final char[] EMPTY = new char[0];
+
+    private final MarkTracker marks;
+    private final Node[] splitResult = new Node[2];
+    private AppendBuffer added;
+    private int originalLength;
+    private volatile PieceTable table;
+
+    /**
+     * Creates content holding only the implied trailing newline.
+     */
+    public PieceTableContent() {
+        this.marks = new MarkTracker();
+        reset(new AppendBuffer(0), 0);
+    }
+
+    /**
+     * Creates content holding the given original text, for editing a text
+     * outside of any document, such as when an edit journal is replayed.
+     *
+     * @param original The original text
+     */
+    public PieceTableContent(AppendBuffer original) {
+        this();
+        load(original, original.length());
+    }
+
+    /**
+     * Gets an immutable snapshot of the document text, without the implied
+     * trailing newline. Costs O(log pieces), copies no characters and may be
+     * read from any thread.
+     *
+     * @return The snapshot
+     */
+    public PieceTable snapshot() {
+        PieceTable current = table;
+        Node[] parts = new Node[2];
+        PieceTable.split(current.root, current.length() - 1, parts);
+        return current.withRoot(parts[0]);
+    }
+
+    /**
+     * Replaces an empty content with the start of the given original text.
+     * The buffer becomes the read-only original piece and a fresh add buffer
+     * is started.
+     *
+     * @param original The original text
+     * @param length   The number of characters of the original to use
+     */
+    void load(AppendBuffer original, int length) {
+        if (length() != 1) {
+            throw new IllegalStateException("Content must be empty before loading");
+        }
+        marks.insertUpdate(0, length);
+        reset(original, length);
+    }
+
+    /**
+     * Appends original text that was added to the buffer after the load, so
+     * a file can be shown while it is still being read. The new characters
+     * go at the end of the document, just before the implied newline.
+     *
+     * @param length The number of characters of the original now in use
+     * @return The number of characters appended
+     */
+    int extendOriginal(int length) {
+        int count = length - originalLength;
+        if (count > 0) {
+            insertInternal(length() - 1, PieceTable.piece(true, originalLength, count));
+            originalLength = length;
+        }
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        return marks.createPosition(offset);
+    }
+
+    @Override
+    public int length() {
+        return table.length();
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where > length()) {
+            throw new BadLocationException("Invalid insert", where);
+        }
+        int length = str.length();
+        if (length == 0) {
+            return null;
+        }
+        int start = added.append(str);
+        marks.insertUpdate(where, length);
+
+        PieceTable current = table;
+        PieceTable.split(current.root, where, splitResult);
+        Node left = splitResult[0];
+        Node right = splitResult[1];
+        Node last = PieceTable.last(left);
+        if (last != null && !last.original && last.start + last.length == start) {
+            // Consecutive typing extends the previous piece instead of adding one
+            left = PieceTable.extendLast(left, length);
+        } else {
+            left = PieceTable.merge(left, PieceTable.piece(false, start, length));
+        }
+        table = current.withRoot(PieceTable.merge(left, right));
+        return new InsertUndo(where, length);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length()) {
+            throw new BadLocationException("Invalid remove", length());
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        MarkRef[] refs = marks.capture(where, nitems);
+        Node removed = removeInternal(where, nitems);
+        return new RemoveUndo(where, nitems, removed, refs);
+    }
+
+    /**
+     * Inserts the text replacing many ranges of equal length, once the span
+     * from the first range start to the last range end has been removed.
+     * The replacement is stored once and shared by every occurrence, and the
+     * text between the ranges is taken over from the removed pieces, so no
+     * text is copied. The marks the removal collapsed move to where their
+     * text went; marks strictly inside a range go to the start of its
+     * replacement.
+     *
+     * @param removal     The edit {@link #remove} returned for the span
+     * @param starts      The sorted, non-overlapping range starts
+     * @param count       The number of ranges
+     * @param oldLength   The length of every range
+     * @param replacement The replacement text
+     * @return An edit that undoes the insertion, or null if the new span is empty
+     */
+    UndoableEdit insertReplacedRanges(UndoableEdit removal, int[] starts, int count, int oldLength,
+                                      String replacement) {
+        if (!(removal instanceof RemoveUndo) || ((RemoveUndo) removal).where != starts[0]
+                || ((RemoveUndo) removal).length != starts[count - 1] + oldLength - starts[0]) {
+            throw new IllegalArgumentException("Not the removal of the span of the ranges");
+        }
+        RemoveUndo span = (RemoveUndo) removal;
+        int newLength = replacement.length();
+        int addedStart = newLength == 0 ? 0 : added.append(replacement);
+        Node pieces = PieceTable.replaceRanges(span.pieces, span.where, starts, count, oldLength,
+                addedStart, newLength);
+        int length = PieceTable.size(pieces);
+        if (length == 0) {
+            return null;
+        }
+        insertInternal(span.where, pieces);
+        marks.restore(moveRefs(span.refs, starts, count, oldLength, newLength), span.where, length);
+        return new InsertUndo(span.where, length);
+    }
+
+    /**
+     * Maps the offsets of marks captured before ranges were replaced to the
+     * offsets their text has afterwards.
+     */
+    private static MarkRef[] moveRefs(MarkRef[] refs, int[] starts, int count, int oldLength, int newLength) {
+        if (refs == null) {
+            return null;
+        }
+        int delta = newLength - oldLength;
+        MarkRef[] moved = new MarkRef[refs.length];
+        int range = 0;
+        for (int i = 0; i < refs.length; i++) {
+            int offset = refs[i].offset;
+            // Captured marks are sorted by offset
+            while (range < count && starts[range] + oldLength <= offset) {
+                range++;
+            }
+            boolean inside = range < count && offset >= starts[range];
+            moved[i] = new MarkRef(refs[i].mark, (inside ? starts[range] : offset) + range * delta);
+        }
+        return moved;
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+        char[] chars = new char[len];
+        table.getChars(where, where + len, chars, 0);
+        return new String(chars);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        checkRange(where, len);
+        if (len == 0) {
+            txt.array = EMPTY;
+            txt.offset = 0;
+            txt.count = 0;
+        } else if (txt.isPartialReturn()) {
+            table.firstRun(where, where + len, txt);
+        } else {
+            char[] chars = new char[len];
+            table.getChars(where, where + len, chars, 0);
+            txt.array = chars;
+            txt.offset = 0;
+            txt.count = len;
+        }
+    }
+
+    private void checkRange(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length()) {
+            throw new BadLocationException("Invalid range", length());
+        }
+    }
+
+    /**
+     * Starts over with the given original buffer, a fresh add buffer and the
+     * implied trailing newline.
+     */
+    private void reset(AppendBuffer original, int length) {
+        added = new AppendBuffer();
+        originalLength = length;
+        int newline = added.append("\n");
+        Node root = PieceTable.merge(
+                PieceTable.piece(true, 0, length),
+                PieceTable.piece(false, newline, 1));
+        table = new PieceTable(original, added, root);
+    }
+
+    private void insertInternal(int where, Node pieces) {
+        marks.insertUpdate(where, PieceTable.size(pieces));
+        PieceTable current = table;
+        PieceTable.split(current.root, where, splitResult);
+        Node left = splitResult[0];
+        Node right = splitResult[1];
+        table = current.withRoot(PieceTable.merge(PieceTable.merge(left, pieces), right));
+    }
+
+    private Node removeInternal(int where, int nitems) {
+        marks.removeUpdate(where, nitems);
+        PieceTable current = table;
+        PieceTable.split(current.root, where, splitResult);
+        Node left = splitResult[0];
+        PieceTable.split(splitResult[1], nitems, splitResult);
+        Node removed = splitResult[0];
+        table = current.withRoot(PieceTable.merge(left, splitResult[1]));
+        return removed;
+    }
+
+    /**
+     * Undo record for an insertion. Holds only piece references, never text.
+     */
+    private final class InsertUndo extends AbstractUndoableEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final int where;
+        private final int length;
+        private Node pieces;
+        private MarkRef[] refs;
+
+        InsertUndo(int where, int length) {
+            this.where = where;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() {
+            super.undo();
+            refs = marks.capture(where, length);
+            pieces = removeInternal(where, length);
+        }
+
+        @Override
+        public void redo() {
+            super.redo();
+            insertInternal(where, pieces);
+            marks.restore(refs, where, length);
+            pieces = null;
+            refs = null;
+        }
+    }
+
+    /**
+     * Undo record for a removal. Holds only piece references, never text.
+     */
+    private final class RemoveUndo extends AbstractUndoableEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final int where;
+        private final int length;
+        private Node pieces;
+        private MarkRef[] refs;
+
+        RemoveUndo(int where, int length, Node pieces, MarkRef[] refs) {
+            this.where = where;
+            this.length = length;
+            this.pieces = pieces;
+            this.refs = refs;
+        }
+
+        @Override
+        public void undo() {
+            super.undo();
+            insertInternal(where, pieces);
+            marks.restore(refs, where, length);
+            pieces = null;
+            refs = null;
+        }
+
+        @Override
+        public void redo() {
+            super.redo();
+            refs = marks.capture(where, length);
+            pieces = removeInternal(where, length);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package jv.model;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoableEdit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plain text document backed by a {@link PieceTableContent}.
+ * Adds cheap snapshots and a bulk load that takes over a buffer of decoded
+ * text as the original piece instead of copying it into the document.
+ */
+public class PieceTableDocument extends PlainDocument {
+
+    private static final long serialVersionUID = 1L;
+
+    // Estimated memory kept alive by the undo record of a Replace All: the
+    // range starts and the pieces around each range, and each rebuilt line
+    private static final long RANGE_UNDO_BYTES = 104;
+    private static final long LINE_UNDO_BYTES = 96;
+
+    /**
+     * Creates an empty document.
+     */
+    public PieceTableDocument() {
+        super(new PieceTableContent());
+    }
+
+    /**
+     * Gets an immutable snapshot of the text. The snapshot costs O(log pieces)
+     * to take and may be read from any thread.
+     *
+     * @return The snapshot
+     */
+    public PieceTable snapshot() {
+        return getPieceContent().snapshot();
+    }
+
+    /**
+     * Replaces the whole text with the given buffer, which becomes the
+     * original piece. The replacement is not undoable; listeners receive a
+     * remove of the old text followed by an insert of the new one.
+     *
+     * @param text The new text
+     */
+    public void load(AppendBuffer text) {
+        load(text, text.length());
+    }
+
+    /**
+     * Replaces the whole text with the start of the given buffer, which may
+     * still be growing. Further text appended to the buffer is brought into
+     * the document with {@link #extendLoad(int)}.
+     *
+     * @param text   The new text
+     * @param length The number of characters of the buffer to show
+     */
+    public void load(AppendBuffer text, int length) {
+        writeLock();
+        try {
+            int oldLength = getLength();
+            if (oldLength > 0) {
+                DefaultDocumentEvent chng = new DefaultDocumentEvent(0, oldLength, DocumentEvent.EventType.REMOVE);
+                removeUpdate(chng);
+                getContent().remove(0, oldLength);
+                postRemoveUpdate(chng);
+                chng.end();
+                fireRemoveUpdate(chng);
+            }
+
+            getPieceContent().load(text, length);
+
+            if (length > 0) {
+                DefaultDocumentEvent chng = new DefaultDocumentEvent(0, length, DocumentEvent.EventType.INSERT);
+                replaceLines(chng, 0, getDefaultRootElement().getElementCount(), 0, getContent().length());
+                chng.end();
+                fireInsertUpdate(chng);
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Appends the text added to the loaded buffer since the last load or
+     * extension to the end of the document. Like {@link #load(AppendBuffer)}
+     * this is not undoable.
+     *
+     * @param length The number of characters of the loaded buffer to show
+     */
+    public void extendLoad(int length) {
+        writeLock();
+        try {
+            int where = getLength();
+            Element lineMap = getDefaultRootElement();
+            // Start one character early: the end of a line finishing right at
+            // the insertion point moves with the inserted text
+            int firstLine = lineMap.getElementIndex(Math.max(where - 1, 0));
+            int lineStart = lineMap.getElement(firstLine).getStartOffset();
+
+            int count = getPieceContent().extendOriginal(length);
+            if (count > 0) {
+                DefaultDocumentEvent chng = new DefaultDocumentEvent(where, count, DocumentEvent.EventType.INSERT);
+                replaceLines(chng, firstLine, lineMap.getElementCount() - firstLine, lineStart,
+                        getContent().length());
+                chng.end();
+                fireInsertUpdate(chng);
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Removes text from the start of the document. Like
+     * {@link #load(AppendBuffer)} this is not undoable, so the removed text
+     * is not kept alive by an undo record.
+     *
+     * @param length The number of characters to remove
+     */
+    public void trimStart(int length) {
+        if (length <= 0) {
+            return;
+        }
+        writeLock();
+        try {
+            DefaultDocumentEvent chng = new DefaultDocumentEvent(0, length, DocumentEvent.EventType.REMOVE);
+            removeUpdate(chng);
+            getContent().remove(0, length);
+            postRemoveUpdate(chng);
+            chng.end();
+            fireRemoveUpdate(chng);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Replaces many ranges of equal length with the same text as one undoable
+     * edit. The replacement is stored once and shared by all ranges, and only
+     * the lines between the first and the last range are touched, so the cost
+     * does not depend on the length of the document around them.
+     * Listeners receive a remove of the span from the start of the first range
+     * to the end of the last one, then an insert of its new text, each fired
+     * once the document holds the text it describes.
+     *
+     * @param starts      The sorted, non-overlapping range starts
+     * @param oldLength   The length of every range
+     * @param replacement The text to put in place of each range
+     * @throws BadLocationException if a range lies outside the document
+     */
+    public void replaceAll(int[] starts, int oldLength, String replacement) throws BadLocationException {
+        int count = starts.length;
+        if (count == 0) {
+            return;
+        }
+        writeLock();
+        try {
+            int spanStart = starts[0];
+            int spanEnd = starts[count - 1] + oldLength;
+            long delta = (long) count * (replacement.length() - oldLength);
+            if (spanStart < 0 || oldLength <= 0 || spanEnd > getLength()) {
+                throw new BadLocationException("Invalid replace", spanEnd);
+            }
+            if (getLength() + delta >= Integer.MAX_VALUE) {
+                throw new BadLocationException("Document would become too long", spanEnd);
+            }
+            Element lineMap = getDefaultRootElement();
+            long lines = lineMap.getElementIndex(spanEnd) - lineMap.getElementIndex(spanStart) + 1;
+
+            DefaultDocumentEvent removal = new DefaultDocumentEvent(spanStart, spanEnd - spanStart,
+                    DocumentEvent.EventType.REMOVE);
+            removeUpdate(removal);
+            UndoableEdit removed = getContent().remove(spanStart, spanEnd - spanStart);
+            removal.addEdit(removed);
+            postRemoveUpdate(removal);
+            removal.end();
+            fireRemoveUpdate(removal);
+
+            CompoundEdit edit = new ReplaceAllEdit(count * RANGE_UNDO_BYTES + lines * LINE_UNDO_BYTES);
+            edit.addEdit(removal);
+            UndoableEdit inserted = getPieceContent().insertReplacedRanges(removed, starts, count, oldLength,
+                    replacement);
+            if (inserted != null) {
+                int length = (int) (spanEnd - spanStart + delta);
+                DefaultDocumentEvent insertion = new DefaultDocumentEvent(spanStart, length,
+                        DocumentEvent.EventType.INSERT);
+                insertion.addEdit(inserted);
+                // The removal joined the lines of the span into the one
+                // holding its start, which now also holds the new text
+                int line = lineMap.getElementIndex(spanStart);
+                replaceLines(insertion, line, 1, lineMap.getElement(line).getStartOffset(),
+                        lineMap.getElement(line).getEndOffset());
+                insertion.end();
+                fireInsertUpdate(insertion);
+                edit.addEdit(insertion);
+            }
+            edit.end();
+            fireUndoableEditUpdate(new UndoableEditEvent(this, edit));
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    private PieceTableContent getPieceContent() {
+        return (PieceTableContent) getContent();
+    }
+
+    /**
+     * Rebuilds a run of line elements by scanning the pieces directly,
+     * avoiding the full copy {@code PlainDocument.insertUpdate} makes of
+     * inserted text.
+     *
+     * @param firstLine The index of the first line element to replace
+     * @param lineCount The number of line elements to replace
+     * @param lineStart The offset at which the first line starts
+     * @param end       The offset at which the last new line ends
+     */
+    private void replaceLines(DefaultDocumentEvent chng, int firstLine, int lineCount, int lineStart, int end) {
+        BranchElement lineMap = (BranchElement) getDefaultRootElement();
+        Element[] removed = new Element[lineCount];
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = lineMap.getElement(firstLine + i);
+        }
+
+        PieceTable table = getPieceContent().snapshot();
+        List<Element> lines = new ArrayList<>();
+        int[] state = { lineStart, lineStart }; // position, line start
+        table.forEachPiece(lineStart, Math.min(end, table.length()), (array, offset, length) -> {
+            for (int i = 0; i < length; i++) {
+                if (array[offset + i] == '\n') {
+                    int lineEnd = state[0] + i + 1;
+                    lines.add(createLeafElement(lineMap, null, state[1], lineEnd));
+                    state[1] = lineEnd;
+                }
+            }
+            state[0] += length;
+        });
+        if (state[1] < end) {
+            lines.add(createLeafElement(lineMap, null, state[1], end));
+        }
+
+        Element[] added = lines.toArray(new Element[0]);
+        lineMap.replace(firstLine, removed.length, added);
+        chng.addEdit(new ElementEdit(lineMap, firstLine, removed, added));
+    }
+
+    /**
+     * The undo record of a Replace All, which reports its size so an undo
+     * history can account for it without assuming the text was copied.
+     */
+    private static final class ReplaceAllEdit extends CompoundEdit implements SizedEdit {
+        private static final long serialVersionUID = 1L;
+
+        private final long size;
+
+        ReplaceAllEdit(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public long getSizeInBytes() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package jv.model;
+
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * An undoable edit that knows roughly how much memory it keeps alive, so an
+ * {@link UndoHistory} can account for it more precisely than from the length
+ * of the text it changed.
+ */
+public interface SizedEdit extends UndoableEdit {
+
+    /**
+     * Estimates the memory held by this edit.
+     *
+     * @return The approximate size in bytes
+     */
+    long getSizeInBytes();
+}
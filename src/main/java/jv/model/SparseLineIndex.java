@@ -0,0 +1,146 @@
+package jv.model;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sparse line-start index over a {@link MappedTextFile}.
+ * Only the byte offset of every {@value #SPACING}th line is stored, so the
+ * index of a 2 GB file with tens of millions of lines stays around a
+ * megabyte. Any other line is found by scanning forward from the nearest
+ * checkpoint.
+ * <p>
+ * The index is built by a single background thread while the editor thread
+ * reads it; lookups past the indexed part fall back to scanning.
+ */
+public class SparseLineIndex {
+
+    /** Number of lines between two stored checkpoints. */
+    public static final int SPACING = 64;
+
+    private static final int SCAN_BUFFER_SIZE = 256 * 1024;
+
+    private final MappedTextFile file;
+    private volatile long[] checkpoints;
+    private volatile int checkpointCount;
+    private volatile long lineCount;
+    private volatile long indexedBytes;
+    private volatile boolean complete;
+
+    /**
+     * Creates an empty index for a file.
+     *
+     * @param file The file to index
+     */
+    public SparseLineIndex(MappedTextFile file) {
+        this.file = file;
+        this.checkpoints = new long[1024];
+        this.checkpoints[0] = 0;
+        this.checkpointCount = 1;
+        this.lineCount = 1;
+    }
+
+    /**
+     * Scans the whole file and records the checkpoints. Meant to run on a
+     * background thread.
+     *
+     * @param cancelled Polled between buffers; the scan stops when it returns true
+     * @param progress  Called after each buffer has been indexed
+     */
+    public void build(BooleanSupplier cancelled, Runnable progress) {
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        long size = file.size();
+        long position = 0;
+        long lines = 1;
+        while (position < size) {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            int count = (int) Math.min(buffer.length, size - position);
+            file.read(position, buffer, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (buffer[i] == '\n') {
+                    if (lines % SPACING == 0) {
+                        addCheckpoint(position + i + 1);
+                    }
+                    lines++;
+                }
+            }
+            position += count;
+            lineCount = lines;
+            indexedBytes = position;
+            progress.run();
+        }
+        complete = true;
+        progress.run();
+    }
+
+    /**
+     * Gets the number of lines found so far.
+     *
+     * @return The line count, final once {@link #isComplete()} is true
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Checks if the whole file has been indexed.
+     *
+     * @return true if indexing has finished
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Gets the fraction of the file indexed so far.
+     *
+     * @return A value between 0 and 1
+     */
+    public double getProgress() {
+        long size = file.size();
+        return size == 0 ? 1.0 : (double) indexedBytes / size;
+    }
+
+    /**
+     * Gets the byte offset at which a line starts. Scans at most
+     * {@value #SPACING} lines when the line lies in the indexed part.
+     *
+     * @param line The zero-based line number
+     * @return The byte offset, or the file size if the file has fewer lines
+     */
+    public long lineStart(long line) {
+        int count = checkpointCount;
+        long[] points = checkpoints;
+        int checkpoint = (int) Math.min(line / SPACING, count - 1);
+        return file.skipLines(points[checkpoint], line - (long) checkpoint * SPACING);
+    }
+
+    /**
+     * Gets the line containing a byte offset.
+     *
+     * @param position The byte offset
+     * @return The zero-based line number
+     */
+    public long lineOf(long position) {
+        int count = checkpointCount;
+        long[] points = checkpoints;
+        int checkpoint = Arrays.binarySearch(points, 0, count, position);
+        if (checkpoint < 0) {
+            checkpoint = -checkpoint - 2;
+        }
+        return (long) checkpoint * SPACING + file.countLines(points[checkpoint], position);
+    }
+
+    private void addCheckpoint(long offset) {
+        long[] points = checkpoints;
+        int count = checkpointCount;
+        if (count == points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+            checkpoints = points;
+        }
+        points[count] = offset;
+        checkpointCount = count + 1;
+    }
+}
@@ -0,0 +1,180 @@
+package jv.model;
+
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.EventListenerList;
+
+/**
+ * Keeps the word, character and line counts of a document current as it is
+ * edited, at a cost that depends on the size of each edit rather than on
+ * the size of the document.
+ * <p>
+ * A word is a run of characters that are not whitespace, so the word count
+ * is the number of positions where such a run starts. Whether a position
+ * starts a word depends only on its character and the one before, so an
+ * edit can only change the word starts inside the changed range and at the
+ * character right after it. Each document event is turned into the range it
+ * changed between the snapshot taken at the previous event and the current
+ * one, and the word starts of that range are counted in both. Edits too large
+ * for that to be quick, such as loading a file, are counted again in full on
+ * a virtual thread, adding the edits made meanwhile once it completes.
+ * <p>
+ * Change listeners are notified on the Event Dispatch Thread after every
+ * change of the counts.
+ */
+public class TextStatistics implements DocumentListener {
+
+    // Larger changes are counted on a virtual thread
+    private static final int INLINE_COUNT_CHARS = 256 * 1024;
+
+    private final DocumentModel model;
+    private final EventListenerList listeners = new EventListenerList();
+    private PieceTable last;
+    private long words;
+    private boolean counting;
+    private int generation;
+
+    /**
+     * Creates the statistics of a document and starts tracking its changes.
+     *
+     * @param model The document model
+     */
+    public TextStatistics(DocumentModel model) {
+        this.model = model;
+        last = model.snapshot();
+        words = countWordStarts(last, 0, last.length());
+        model.getDocument().addDocumentListener(this);
+    }
+
+    /**
+     * Gets the number of words.
+     *
+     * @return The number of words, or -1 while they are being counted
+     */
+    public long getWordCount() {
+        return counting ? -1 : words;
+    }
+
+    /**
+     * Gets the number of characters.
+     *
+     * @return The length of the document
+     */
+    public int getCharCount() {
+        return last.length();
+    }
+
+    /**
+     * Gets the number of lines.
+     *
+     * @return The number of lines, at least 1
+     */
+    public int getLineCount() {
+        return model.getDocument().getDefaultRootElement().getElementCount();
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(ChangeListener.class, listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(ChangeListener.class, listener);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        changed(e.getOffset(), e.getLength(), true);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        changed(e.getOffset(), e.getLength(), false);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes leave the text alone
+    }
+
+    /**
+     * Updates the counts for a change reported by an event. The event gives
+     * the old length of the range for a removal and its new length for an
+     * insertion; the other follows from how much the document length changed.
+     */
+    private void changed(int offset, int length, boolean insert) {
+        PieceTable now = model.snapshot();
+        int delta = now.length() - last.length();
+        int oldLength = insert ? length - delta : length;
+        int newLength = insert ? length : length + delta;
+        if ((long) oldLength + newLength > INLINE_COUNT_CHARS) {
+            recount(now);
+        } else {
+            words += countWordStarts(now, offset, newLength) - countWordStarts(last, offset, oldLength);
+        }
+        last = now;
+        fireChanged();
+    }
+
+    /**
+     * Counts all words of a snapshot again, on a virtual thread unless it is
+     * short. Until the count completes, changes made meanwhile are summed up
+     * and added to it.
+     */
+    private void recount(PieceTable text) {
+        int current = ++generation;
+        if (text.length() <= INLINE_COUNT_CHARS) {
+            counting = false;
+            words = countWordStarts(text, 0, text.length());
+            return;
+        }
+        counting = true;
+        words = 0;
+        Thread.ofVirtual().name("text-statistics").start(() -> {
+            long count = countWordStarts(text, 0, text.length());
+            SwingUtilities.invokeLater(() -> {
+                if (generation == current) {
+                    counting = false;
+                    words += count;
+                    fireChanged();
+                }
+            });
+        });
+    }
+
+    /**
+     * Counts the word starts in a range of a snapshot and at the character
+     * after it.
+     */
+    private static long countWordStarts(PieceTable text, int offset, int length) {
+        int end = Math.min(offset + length + 1, text.length());
+        if (offset >= end) {
+            return 0;
+        }
+        boolean[] afterSpace = { offset == 0 || Character.isWhitespace(text.charAt(offset - 1)) };
+        long[] starts = new long[1];
+        text.forEachPiece(offset, end, (array, from, count) -> {
+            boolean space = afterSpace[0];
+            long found = 0;
+            for (int i = from, to = from + count; i < to; i++) {
+                boolean isSpace = Character.isWhitespace(array[i]);
+                if (space && !isSpace) {
+                    found++;
+                }
+                space = isSpace;
+            }
+            afterSpace[0] = space;
+            starts[0] += found;
+        });
+        return starts[0];
+    }
+
+    private void fireChanged() {
+        ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : listeners.getListeners(ChangeListener.class)) {
+            listener.stateChanged(event);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package jv.model;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoableEdit;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undo and redo history for a document with a memory budget.
+ * Typing is grouped: consecutive single-character insertions, or
+ * consecutive single-character deletions, form one step until the caret
+ * jumps, the user pauses, or a new word starts. Any other edit, such as a
+ * paste or a Replace All, is a step of its own.
+ * <p>
+ * Each step is charged an estimate of the memory it keeps alive. When the
+ * total exceeds the budget the oldest steps are discarded first. The most
+ * recent step is always kept, even if it alone exceeds the budget.
+ */
+public class UndoHistory implements UndoableEditListener {
+
+    /** Estimated fixed cost of one recorded edit: event, element edits and undo record. */
+    private static final long EDIT_OVERHEAD_BYTES = 160;
+
+    /** Estimated cost of a line element held by an edit, with its two positions. */
+    private static final long LINE_BYTES = 96;
+
+    private static final long TYPING_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    /**
+     * A step of the history, possibly made of several grouped edits.
+     */
+    private static final class Step extends CompoundEdit {
+        private static final long serialVersionUID = 1L;
+
+        long bytes;
+        DocumentEvent.EventType typing;
+        int caret;
+        long lastNanos;
+        boolean afterWhitespace;
+
+        @Override
+        public boolean addEdit(UndoableEdit edit) {
+            // Steps are only ever extended by the history itself
+            return false;
+        }
+
+        void append(UndoableEdit edit, long size) {
+            super.addEdit(edit);
+            bytes += size;
+        }
+    }
+
+    private final Deque<Step> undoSteps;
+    private final Deque<Step> redoSteps;
+    private final Segment segment;
+    private long budgetBytes;
+    private long usedBytes;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param budgetBytes The memory the history may keep alive, in bytes
+     */
+    public UndoHistory(long budgetBytes) {
+        this.undoSteps = new ArrayDeque<>();
+        this.redoSteps = new ArrayDeque<>();
+        this.segment = new Segment();
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Changes the memory budget, discarding old steps if needed.
+     *
+     * @param budgetBytes The new budget in bytes
+     */
+    public void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        trim();
+    }
+
+    /**
+     * Gets the estimated memory kept alive by the history.
+     *
+     * @return The estimate in bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    @Override
+    public void undoableEditHappened(UndoableEditEvent e) {
+        UndoableEdit edit = e.getEdit();
+        discardRedo();
+
+        long size = sizeOf(edit, e.getSource());
+        Step step = undoSteps.peekLast();
+        DocumentEvent typed = typedEdit(edit);
+        if (typed != null && step != null && continuesTyping(step, typed, e.getSource())) {
+            step.append(edit, size);
+            recordTyping(step, typed, e.getSource());
+        } else {
+            if (step != null) {
+                step.end();
+            }
+            step = new Step();
+            step.append(edit, size);
+            if (typed != null) {
+                recordTyping(step, typed, e.getSource());
+            } else {
+                step.end();
+            }
+            undoSteps.addLast(step);
+        }
+        usedBytes += size;
+        trim();
+    }
+
+    /**
+     * Checks if there is a step to undo.
+     *
+     * @return true if {@link #undo()} would change the document
+     */
+    public boolean canUndo() {
+        return !undoSteps.isEmpty();
+    }
+
+    /**
+     * Checks if there is a step to redo.
+     *
+     * @return true if {@link #redo()} would change the document
+     */
+    public boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    /**
+     * Undoes the most recent step.
+     */
+    public void undo() {
+        Step step = undoSteps.pollLast();
+        if (step != null) {
+            step.end();
+            step.undo();
+            redoSteps.addLast(step);
+        }
+    }
+
+    /**
+     * Redoes the most recently undone step.
+     */
+    public void redo() {
+        Step step = redoSteps.pollLast();
+        if (step != null) {
+            step.redo();
+            undoSteps.addLast(step);
+        }
+    }
+
+    /**
+     * Discards the whole history, for example after the document was
+     * replaced by a load.
+     */
+    public void discardAllEdits() {
+        for (Step step : undoSteps) {
+            step.end();
+            step.die();
+        }
+        undoSteps.clear();
+        discardRedo();
+        usedBytes = 0;
+    }
+
+    private void discardRedo() {
+        for (Step step : redoSteps) {
+            step.die();
+            usedBytes -= step.bytes;
+        }
+        redoSteps.clear();
+    }
+
+    /**
+     * Discards the oldest steps until the history fits its budget.
+     */
+    private void trim() {
+        while (usedBytes > budgetBytes && undoSteps.size() > 1) {
+            Step oldest = undoSteps.pollFirst();
+            oldest.die();
+            usedBytes -= oldest.bytes;
+        }
+    }
+
+    /**
+     * Gets the edit as a document event if it changed a single character,
+     * which is what typing, Backspace and Delete produce.
+     */
+    private static DocumentEvent typedEdit(UndoableEdit edit) {
+        if (edit instanceof DocumentEvent) {
+            DocumentEvent event = (DocumentEvent) edit;
+            if (event.getLength() == 1 && event.getType() != DocumentEvent.EventType.CHANGE) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    private boolean continuesTyping(Step step, DocumentEvent event, Object source) {
+        if (!step.isInProgress() || step.typing != event.getType()
+                || System.nanoTime() - step.lastNanos > TYPING_PAUSE_NANOS) {
+            return false;
+        }
+        if (event.getType() == DocumentEvent.EventType.INSERT) {
+            // A word and the whitespace after it form one step
+            return event.getOffset() == step.caret && !(step.afterWhitespace && !isWhitespaceAt(event, source));
+        }
+        // Backspace moves back by one, Delete stays in place
+        return event.getOffset() == step.caret - 1 || event.getOffset() == step.caret;
+    }
+
+    private void recordTyping(Step step, DocumentEvent event, Object source) {
+        step.typing = event.getType();
+        step.lastNanos = System.nanoTime();
+        if (event.getType() == DocumentEvent.EventType.INSERT) {
+            step.caret = event.getOffset() + 1;
+            step.afterWhitespace = isWhitespaceAt(event, source);
+        } else {
+            step.caret = event.getOffset();
+        }
+    }
+
+    private boolean isWhitespaceAt(DocumentEvent event, Object source) {
+        if (!(source instanceof Document)) {
+            return false;
+        }
+        try {
+            ((Document) source).getText(event.getOffset(), 1, segment);
+            return Character.isWhitespace(segment.first());
+        } catch (BadLocationException e) {
+            return false;
+        } finally {
+            segment.array = null;
+        }
+    }
+
+    /**
+     * Estimates the memory an edit keeps alive. A document event holds the
+     * line elements it replaced, and a copy of the removed text unless the
+     * document is a piece table, whose undo records only refer to pieces.
+     */
+    private static long sizeOf(UndoableEdit edit, Object source) {
+        if (edit instanceof SizedEdit) {
+            return ((SizedEdit) edit).getSizeInBytes();
+        }
+        if (!(edit instanceof DocumentEvent)) {
+            return EDIT_OVERHEAD_BYTES;
+        }
+        DocumentEvent event = (DocumentEvent) edit;
+        long size = EDIT_OVERHEAD_BYTES;
+        DocumentEvent.ElementChange lines = event.getChange(event.getDocument().getDefaultRootElement());
+        if (lines != null) {
+            size += LINE_BYTES * (lines.getChildrenRemoved().length + lines.getChildrenAdded().length);
+        }
+        if (!(source instanceof PieceTableDocument) && event.getType() == DocumentEvent.EventType.REMOVE) {
+            size += 2L * event.getLength();
+        }
+        return size;
+    }
+}
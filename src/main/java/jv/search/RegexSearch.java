@@ -0,0 +1,248 @@
+package jv.search;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds all matches of a regular expression in a snapshot of a document on a
+ * background thread.
+ * The matcher reads a snapshot through its sequential {@link CharSequence}
+ * view, so no copy of the text is made. Matches are collected as they are
+ * found and the listener is told the running count a few times per second,
+ * so results can be used before the whole text has been searched.
+ * <p>
+ * A search works on the snapshot it was started with; it must be cancelled
+ * when the query or the document changes, since its positions then no longer
+ * apply.
+ */
+public final class RegexSearch {
+
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int CANCEL_CHECK_INTERVAL = 64 * 1024;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "regex-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Receives search events. All methods are called on the Event Dispatch
+     * Thread, and none after the search was cancelled.
+     */
+    public interface Listener {
+
+        /**
+         * Called while the search runs, whenever more matches were found.
+         *
+         * @param matchCount The number of matches found so far
+         */
+        void searchProgress(int matchCount);
+
+        /**
+         * Called when the whole text has been searched.
+         *
+         * @param matchCount The total number of matches
+         */
+        void searchFinished(int matchCount);
+    }
+
+    private final Pattern pattern;
+    private final CharSequence text;
+    private final Listener listener;
+
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+    private int[] starts;
+    private int[] ends;
+    private int count;
+    private int published;
+    private boolean reported;
+
+    /**
+     * Creates a search of a snapshot. Call {@link #start()} to run it.
+     *
+     * @param pattern  The pattern to search for
+     * @param text     The text to search, which must not change and is only
+     *                 read by the search thread, such as a view returned by
+     *                 {@link jv.model.PieceTable#chars()}
+     * @param listener The listener notified of results
+     */
+    public RegexSearch(Pattern pattern, CharSequence text, Listener listener) {
+        this.pattern = pattern;
+        this.text = text;
+        this.listener = listener;
+        this.starts = new int[64];
+        this.ends = new int[64];
+    }
+
+    /**
+     * Gets the pattern searched for.
+     *
+     * @return The pattern
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Queues the search on the background executor.
+     */
+    public void start() {
+        EXECUTOR.execute(this::run);
+    }
+
+    /**
+     * Stops the search. No listener method is called afterwards.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks if the whole text has been searched.
+     *
+     * @return true once the search has finished
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Gets the number of matches found so far.
+     *
+     * @return The match count
+     */
+    public synchronized int getMatchCount() {
+        return count;
+    }
+
+    /**
+     * Finds the first match found so far that starts at or after a position.
+     *
+     * @param from The position
+     * @return The index of the match, or -1 if none has been found yet
+     */
+    public synchronized int indexOf(int from) {
+        int i = Arrays.binarySearch(starts, 0, count, from);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < count ? i : -1;
+    }
+
+    /**
+     * Gets the start of a match.
+     *
+     * @param index The index of the match
+     * @return The offset of its first character
+     */
+    public synchronized int getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Gets the end of a match.
+     *
+     * @param index The index of the match
+     * @return The offset after its last character
+     */
+    public synchronized int getEnd(int index) {
+        return ends[index];
+    }
+
+    private void run() {
+        if (cancelled) {
+            return;
+        }
+        Matcher matcher = pattern.matcher(new CancellableChars(text));
+        long lastProgress = System.nanoTime();
+        try {
+            while (matcher.find()) {
+                add(matcher.start(), matcher.end());
+                long now = System.nanoTime();
+                if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = now;
+                    SwingUtilities.invokeLater(this::publish);
+                }
+            }
+        } catch (CancellationException e) {
+            return;
+        } catch (StackOverflowError e) {
+            // Deeply nested patterns can exhaust the stack on long input;
+            // keep what was found rather than failing the search
+            System.err.println("Regex search stopped early: pattern too complex for the input");
+        }
+        finished = true;
+        SwingUtilities.invokeLater(this::publish);
+    }
+
+    private synchronized void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    private void publish() {
+        if (cancelled || reported) {
+            return;
+        }
+        int matchCount = getMatchCount();
+        if (finished) {
+            reported = true;
+            listener.searchFinished(matchCount);
+        } else if (matchCount != published) {
+            published = matchCount;
+            listener.searchProgress(matchCount);
+        }
+    }
+
+    /**
+     * Passes characters through to the matcher, aborting it once the search
+     * is cancelled, even in the middle of a single long match attempt.
+     */
+    private final class CancellableChars implements CharSequence {
+        private final CharSequence chars;
+        private int reads;
+
+        CancellableChars(CharSequence chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int length() {
+            return chars.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == CANCEL_CHECK_INTERVAL) {
+                reads = 0;
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+            }
+            return chars.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return chars.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return chars.toString();
+        }
+    }
+}
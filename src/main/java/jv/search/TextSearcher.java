@@ -0,0 +1,241 @@
+package jv.search;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.util.Arrays;
+
+/**
+ * Finds a fixed string in a {@link Document} with the Boyer-Moore-Horspool
+ * algorithm, optionally ignoring case.
+ * The search reads the document's storage directly through a partial-return
+ * {@link Segment}, so it costs time proportional to the distance to the match
+ * and allocates nothing however large the document is.
+ * <p>
+ * A searcher is compiled once per query and may be reused for any number of
+ * searches, but only by one thread at a time.
+ */
+public final class TextSearcher {
+
+    private static final int SKIP_TABLE_SIZE = 256;
+
+    private final String query;
+    private final boolean ignoreCase;
+    private final char[] pattern;
+    private final int[] skip;
+
+    private final Segment segment;
+    private Document document;
+    private int limit;
+    private int runStart;
+    private int runEnd;
+
+    /**
+     * Compiles a searcher for a query.
+     *
+     * @param query      The text to search for
+     * @param ignoreCase Whether upper and lower case letters match each other
+     */
+    public TextSearcher(String query, boolean ignoreCase) {
+        this.query = query;
+        this.ignoreCase = ignoreCase;
+        this.pattern = new char[query.length()];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = fold(query.charAt(i));
+        }
+
+        // Characters sharing a low byte share a slot, which keeps the smallest
+        // of their shifts; that only shortens some skips and stays correct
+        int m = pattern.length;
+        this.skip = new int[SKIP_TABLE_SIZE];
+        Arrays.fill(skip, Math.max(m, 1));
+        for (int i = 0; i < m - 1; i++) {
+            skip[pattern[i] & (SKIP_TABLE_SIZE - 1)] = m - 1 - i;
+        }
+
+        this.segment = new Segment();
+        this.segment.setPartialReturn(true);
+    }
+
+    /**
+     * Gets the query this searcher was compiled for.
+     *
+     * @return The query
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Checks if this searcher ignores case.
+     *
+     * @return true if the search is case-insensitive
+     */
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Gets the number of characters a match spans.
+     *
+     * @return The query length
+     */
+    public int length() {
+        return pattern.length;
+    }
+
+    /**
+     * Checks if this searcher was compiled for the given query and mode, so it
+     * can be reused instead of compiling a new one.
+     *
+     * @param query      The query
+     * @param ignoreCase The case mode
+     * @return true if the searcher matches the same text
+     */
+    public boolean isFor(String query, boolean ignoreCase) {
+        return this.ignoreCase == ignoreCase && this.query.equals(query);
+    }
+
+    /**
+     * Finds the first match at or after a position.
+     *
+     * @param doc  The document to search
+     * @param from The position to start at
+     * @return The start of the match, or -1 if there is none
+     */
+    public int find(Document doc, int from) {
+        return find(doc, from, doc.getLength());
+    }
+
+    /**
+     * Finds the first match lying entirely inside a range.
+     *
+     * @param doc  The document to search
+     * @param from The first position a match may start at
+     * @param to   The position no match may extend past
+     * @return The start of the match, or -1 if there is none
+     */
+    public int find(Document doc, int from, int to) {
+        int m = pattern.length;
+        to = Math.min(to, doc.getLength());
+        from = Math.max(from, 0);
+        if (m == 0 || to - from < m) {
+            return -1;
+        }
+
+        begin(doc, to);
+        try {
+            return scan(from);
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Finds the next match after a position, wrapping around to the start of
+     * the document when there is none before the end.
+     *
+     * @param doc  The document to search
+     * @param from The position to start at
+     * @return The start of the match, or -1 if the document has none
+     */
+    public int findWrapped(Document doc, int from) {
+        int found = find(doc, from);
+        if (found < 0 && from > 0) {
+            found = find(doc, 0, Math.min(doc.getLength(), from + pattern.length - 1));
+        }
+        return found;
+    }
+
+    /**
+     * Finds every match in the document. Matches do not overlap: the search
+     * continues after the end of each one.
+     *
+     * @param doc The document to search
+     * @return The starts of the matches in ascending order
+     */
+    public int[] findAll(Document doc) {
+        int[] starts = new int[16];
+        int count = 0;
+        int m = pattern.length;
+        if (m == 0) {
+            return new int[0];
+        }
+        begin(doc, doc.getLength());
+        try {
+            // The storage run stays cached from one match to the next
+            for (int found = scan(0); found >= 0; found = scan(found + m)) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count + (count >> 1));
+                }
+                starts[count++] = found;
+            }
+        } finally {
+            end();
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    private void begin(Document doc, int to) {
+        document = doc;
+        limit = to;
+        runStart = 0;
+        runEnd = 0;
+    }
+
+    private void end() {
+        document = null;
+        segment.array = null;
+    }
+
+    /**
+     * Runs the Boyer-Moore-Horspool scan from a position up to the current
+     * limit.
+     */
+    private int scan(int from) {
+        int m = pattern.length;
+        try {
+            int position = from;
+            int last = limit - m;
+            while (position <= last) {
+                int i = m - 1;
+                char c = fold(charAt(position + i));
+                if (c == pattern[i]) {
+                    while (i > 0 && fold(charAt(position + i - 1)) == pattern[i - 1]) {
+                        i--;
+                    }
+                    if (i == 0) {
+                        return position;
+                    }
+                }
+                position += skip[c & (SKIP_TABLE_SIZE - 1)];
+            }
+            return -1;
+        } catch (BadLocationException e) {
+            return -1; // Positions stay within the validated range, so this cannot happen
+        }
+    }
+
+    /**
+     * Gets a character of the document, fetching the storage run holding it
+     * when it lies outside the current one.
+     */
+    private char charAt(int index) throws BadLocationException {
+        if (index < runStart || index >= runEnd) {
+            document.getText(index, limit - index, segment);
+            runStart = index;
+            runEnd = index + segment.count;
+        }
+        return segment.array[segment.offset + index - runStart];
+    }
+
+    private char fold(char c) {
+        if (!ignoreCase) {
+            return c;
+        }
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -0,0 +1,115 @@
+package jv.syntax;
+
+import java.util.Set;
+
+/**
+ * Lexes Java source: comments, string, character and text block literals,
+ * numbers, keywords and annotations. Block comments and text blocks may span
+ * lines, which the state keeps track of.
+ */
+final class JavaLexer implements Lexer {
+
+    private static final int NORMAL = INITIAL_STATE;
+    private static final int BLOCK_COMMENT = 1;
+    private static final int TEXT_BLOCK = 2;
+
+    private static final Set<String> KEYWORDS = Set.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp",
+            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void",
+            "volatile", "while", "true", "false", "null", "var", "record", "yield", "sealed", "permits");
+
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, TokenSink sink) {
+        int i = start;
+        if (state == BLOCK_COMMENT) {
+            int close = LexerUtils.indexOf(text, i, end, "*/");
+            if (close < 0) {
+                LexerUtils.emit(sink, start, end, TokenType.COMMENT);
+                return BLOCK_COMMENT;
+            }
+            i = close + 2;
+            LexerUtils.emit(sink, start, i, TokenType.COMMENT);
+        } else if (state == TEXT_BLOCK) {
+            int close = findTextBlockEnd(text, i, end);
+            if (close < 0) {
+                LexerUtils.emit(sink, start, end, TokenType.STRING);
+                return TEXT_BLOCK;
+            }
+            i = close + 3;
+            LexerUtils.emit(sink, start, i, TokenType.STRING);
+        }
+        while (i < end) {
+            char c = text[i];
+            char next = i + 1 < end ? text[i + 1] : 0;
+            if (c == '/' && next == '/') {
+                LexerUtils.emit(sink, i, end, TokenType.COMMENT);
+                return NORMAL;
+            } else if (c == '/' && next == '*') {
+                int close = LexerUtils.indexOf(text, i + 2, end, "*/");
+                if (close < 0) {
+                    LexerUtils.emit(sink, i, end, TokenType.COMMENT);
+                    return BLOCK_COMMENT;
+                }
+                LexerUtils.emit(sink, i, close + 2, TokenType.COMMENT);
+                i = close + 2;
+            } else if (c == '"' && next == '"' && i + 2 < end && text[i + 2] == '"') {
+                int close = findTextBlockEnd(text, i + 3, end);
+                if (close < 0) {
+                    LexerUtils.emit(sink, i, end, TokenType.STRING);
+                    return TEXT_BLOCK;
+                }
+                LexerUtils.emit(sink, i, close + 3, TokenType.STRING);
+                i = close + 3;
+            } else if (c == '"' || c == '\'') {
+                int close = LexerUtils.findQuoteEnd(text, i + 1, end, c);
+                LexerUtils.emit(sink, i, close, TokenType.STRING);
+                i = close;
+            } else if (Character.isDigit(c) || (c == '.' && Character.isDigit(next))) {
+                int to = LexerUtils.scanNumber(text, i, end);
+                LexerUtils.emit(sink, i, to, TokenType.NUMBER);
+                i = to;
+            } else if (c == '@' && Character.isJavaIdentifierStart(next)) {
+                int to = scanIdentifier(text, i + 1, end);
+                LexerUtils.emit(sink, i, to, TokenType.ANNOTATION);
+                i = to;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int to = scanIdentifier(text, i, end);
+                if (sink != null && KEYWORDS.contains(new String(text, i, to - i))) {
+                    sink.token(i, to - i, TokenType.KEYWORD);
+                }
+                i = to;
+            } else {
+                i++;
+            }
+        }
+        return NORMAL;
+    }
+
+    private static int scanIdentifier(char[] text, int i, int end) {
+        while (i < end && Character.isJavaIdentifierPart(text[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Finds the closing delimiter of a text block, skipping escaped quotes.
+     *
+     * @return The index of the delimiter, or -1 if the line does not have one
+     */
+    private static int findTextBlockEnd(char[] text, int i, int end) {
+        while (i < end) {
+            if (text[i] == '\\') {
+                i += 2;
+            } else if (text[i] == '"' && i + 2 < end && text[i + 1] == '"' && text[i + 2] == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+}
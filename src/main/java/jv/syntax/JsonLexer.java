@@ -0,0 +1,46 @@
+package jv.syntax;
+
+/**
+ * Lexes JSON: member names, strings, numbers and the literals {@code true},
+ * {@code false} and {@code null}. No token spans lines, so the state is
+ * always the initial one.
+ */
+final class JsonLexer implements Lexer {
+
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, TokenSink sink) {
+        if (sink == null) {
+            return INITIAL_STATE;
+        }
+        int i = start;
+        while (i < end) {
+            char c = text[i];
+            if (c == '"') {
+                int close = LexerUtils.findQuoteEnd(text, i + 1, end, '"');
+                int next = close;
+                while (next < end && Character.isWhitespace(text[next])) {
+                    next++;
+                }
+                sink.token(i, close - i, next < end && text[next] == ':' ? TokenType.KEY : TokenType.STRING);
+                i = close;
+            } else if (Character.isDigit(c) || c == '-') {
+                int to = LexerUtils.scanNumber(text, i + 1, end);
+                sink.token(i, to - i, TokenType.NUMBER);
+                i = to;
+            } else if (Character.isLetter(c)) {
+                int to = i + 1;
+                while (to < end && Character.isLetter(text[to])) {
+                    to++;
+                }
+                if (LexerUtils.matches(text, i, to, "true") || LexerUtils.matches(text, i, to, "false")
+                        || LexerUtils.matches(text, i, to, "null")) {
+                    sink.token(i, to - i, TokenType.KEYWORD);
+                }
+                i = to;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL_STATE;
+    }
+}
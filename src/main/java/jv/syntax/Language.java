@@ -0,0 +1,58 @@
+package jv.syntax;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * The languages the editor highlights, chosen by the extension of the file
+ * being edited.
+ */
+public enum Language {
+    PLAIN(null),
+    JAVA(new JavaLexer()),
+    JSON(new JsonLexer()),
+    XML(new XmlLexer()),
+    YAML(new YamlLexer()),
+    LOG(new LogLexer());
+
+    private final Lexer lexer;
+
+    Language(Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /**
+     * Gets the lexer of the language.
+     *
+     * @return The lexer, or null for plain text
+     */
+    public Lexer getLexer() {
+        return lexer;
+    }
+
+    /**
+     * Chooses the language of a file by its extension.
+     *
+     * @param file The file, or null for a new document
+     * @return The language, {@link #PLAIN} if it is not known
+     */
+    public static Language forFile(File file) {
+        if (file == null) {
+            return PLAIN;
+        }
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return PLAIN;
+        }
+        String extension = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return switch (extension) {
+            case "java" -> JAVA;
+            case "json" -> JSON;
+            case "xml", "xsd", "xsl", "xslt", "pom", "svg", "xhtml", "fxml" -> XML;
+            case "yml", "yaml" -> YAML;
+            case "log" -> LOG;
+            default -> PLAIN;
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package jv.syntax;
+
+/**
+ * Splits the text of a language into tokens one line at a time.
+ * <p>
+ * Everything a lexer needs to know about the lines before, such as being
+ * inside a block comment, is kept in an {@code int} state: lexing a line
+ * starts from the state the previous line ended in and returns the state the
+ * line ends in. That makes lexing restartable at any line whose start state
+ * is known, and lets a highlighter stop re-lexing after an edit as soon as a
+ * line ends in the same state as before. Lexers keep no other state, so one
+ * instance may be used by several threads at once.
+ */
+public interface Lexer {
+
+    /**
+     * The state at the start of a document.
+     */
+    int INITIAL_STATE = 0;
+
+    /**
+     * Receives the tokens of a line in order.
+     */
+    @FunctionalInterface
+    interface TokenSink {
+        /**
+         * Receives one token. Text between tokens is plain.
+         *
+         * @param start  The index of the first character of the token
+         * @param length The number of characters of the token
+         * @param type   The type of the token
+         */
+        void token(int start, int length, TokenType type);
+    }
+
+    /**
+     * Lexes one line, without its line separator.
+     *
+     * @param text  The characters, which must not be modified
+     * @param start The index of the first character of the line
+     * @param end   The index after the last character of the line
+     * @param state The state the previous line ended in
+     * @param sink  Receives the tokens, or null when only the end state is
+     *              wanted
+     * @return The state the line ends in
+     */
+    int lexLine(char[] text, int start, int end, int state, TokenSink sink);
+}
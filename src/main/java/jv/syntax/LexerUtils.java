@@ -0,0 +1,93 @@
+package jv.syntax;
+
+/**
+ * Scanning helpers shared by the lexers.
+ */
+final class LexerUtils {
+
+    /**
+     * Passes a token to a sink, if there is one and the token is not empty.
+     */
+    static void emit(Lexer.TokenSink sink, int from, int to, TokenType type) {
+        if (sink != null && to > from) {
+            sink.token(from, to - from, type);
+        }
+    }
+
+    /**
+     * Finds a string in a range of characters.
+     *
+     * @return The index where it starts, or -1 if it is not found
+     */
+    static int indexOf(char[] text, int from, int end, String s) {
+        int last = end - s.length();
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int k = 0; k < s.length(); k++) {
+                if (text[i + k] != s.charAt(k)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the end of a quoted literal on one line, skipping escapes.
+     *
+     * @return The index after the closing quote, or the end of the line if
+     *         there is none
+     */
+    static int findQuoteEnd(char[] text, int i, int end, char quote) {
+        while (i < end) {
+            char c = text[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Scans a number, including its sign of exponent, radix prefix and
+     * suffix.
+     *
+     * @return The index after the number
+     */
+    static int scanNumber(char[] text, int i, int end) {
+        while (i < end) {
+            char c = text[i];
+            if (Character.isLetterOrDigit(c) || c == '.' || c == '_') {
+                i++;
+            } else if ((c == '+' || c == '-') && (text[i - 1] == 'e' || text[i - 1] == 'E')) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Checks if a range of characters equals a string.
+     */
+    static boolean matches(char[] text, int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (text[from + k] != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private LexerUtils() {
+    }
+}
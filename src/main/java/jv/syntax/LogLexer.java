@@ -0,0 +1,86 @@
+package jv.syntax;
+
+/**
+ * Lexes log files: the timestamp a line starts with, log levels and quoted
+ * strings. Levels are colored by severity, so errors and warnings stand out
+ * when scrolling through a log. The state is always the initial one.
+ */
+final class LogLexer implements Lexer {
+
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, TokenSink sink) {
+        if (sink == null) {
+            return INITIAL_STATE;
+        }
+        int i = scanTimestamp(text, start, end, sink);
+        while (i < end) {
+            char c = text[i];
+            if (c == '"') {
+                int close = LexerUtils.findQuoteEnd(text, i + 1, end, '"');
+                sink.token(i, close - i, TokenType.STRING);
+                i = close;
+            } else if (Character.isLetter(c)) {
+                int to = i + 1;
+                while (to < end && Character.isLetter(text[to])) {
+                    to++;
+                }
+                TokenType level = levelOf(text, i, to);
+                if (level != null) {
+                    sink.token(i, to - i, level);
+                }
+                i = to;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL_STATE;
+    }
+
+    /**
+     * Marks a timestamp at the start of a line, such as
+     * {@code 2024-05-01 12:00:00,123} or {@code [12:00:00.123]}.
+     *
+     * @return The index after the timestamp, or the start if there is none
+     */
+    private static int scanTimestamp(char[] text, int start, int end, TokenSink sink) {
+        int from = start < end && text[start] == '[' ? start + 1 : start;
+        int i = from;
+        boolean separated = false;
+        while (i < end) {
+            char c = text[i];
+            if (Character.isDigit(c)) {
+                i++;
+            } else if (i > from && (c == '-' || c == ':' || c == '.' || c == ',' || c == '/' || c == 'T'
+                    || c == 'Z' || c == '+' || c == ' ') && i + 1 < end && Character.isDigit(text[i + 1])) {
+                separated |= c == '-' || c == ':';
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (!separated || i - from < 5) {
+            return start;
+        }
+        if (from > start && i < end && text[i] == ']') {
+            i++;
+        }
+        sink.token(start, i - start, TokenType.TIMESTAMP);
+        return i;
+    }
+
+    private static TokenType levelOf(char[] text, int from, int to) {
+        if (LexerUtils.matches(text, from, to, "ERROR") || LexerUtils.matches(text, from, to, "FATAL")
+                || LexerUtils.matches(text, from, to, "SEVERE")) {
+            return TokenType.ERROR;
+        }
+        if (LexerUtils.matches(text, from, to, "WARN") || LexerUtils.matches(text, from, to, "WARNING")) {
+            return TokenType.WARNING;
+        }
+        if (LexerUtils.matches(text, from, to, "DEBUG") || LexerUtils.matches(text, from, to, "TRACE")
+                || LexerUtils.matches(text, from, to, "FINE") || LexerUtils.matches(text, from, to, "FINER")
+                || LexerUtils.matches(text, from, to, "FINEST")) {
+            return TokenType.DEBUG;
+        }
+        return null;
+    }
+}
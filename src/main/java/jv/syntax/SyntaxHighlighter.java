@@ -0,0 +1,393 @@
+package jv.syntax;
+
+import jv.model.DocumentModel;
+import jv.model.PieceTable;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Keeps the lexer state at the start of every line of a document, so that
+ * any line can be highlighted on its own by lexing it from that state.
+ * <p>
+ * The states are computed on a virtual thread from an immutable snapshot of
+ * the text, starting at the first line whose state is not known and going
+ * down. The lines up to the end of the viewport are delivered first, the rest
+ * in larger chunks. An edit marks its lines as changed and restarts lexing at
+ * the first of them; lexing stops again as soon as a line after the edit
+ * starts in the same state as before, because from there on nothing changed.
+ * Typing therefore re-lexes a handful of lines, while opening a comment
+ * re-lexes up to where it closes. Lines not reached yet keep the state they
+ * had, or the state of the line above when they are new, until the lexer
+ * gets there.
+ * <p>
+ * All methods must be called on the Event Dispatch Thread.
+ */
+public class SyntaxHighlighter implements DocumentListener {
+
+    // Lines delivered with the first results, at least
+    private static final int FIRST_CHUNK_LINES = 64;
+    // Lines delivered with each later result
+    private static final int CHUNK_LINES = 4096;
+    // Lines lexed between checks whether the task is still wanted
+    private static final int CANCEL_CHECK_LINES = 256;
+    private static final Cancelled CANCELLED = new Cancelled();
+
+    private final DocumentModel model;
+    private final JTextComponent component;
+    private Language language = Language.PLAIN;
+
+    // states[i] is the state at the start of line i, for the lines before
+    // lineCount. The states up to validUpTo are correct; the ones after it up
+    // to knownEnd were computed for an older text, which differs from the
+    // current one only in the lines up to dirtyEnd.
+    private int[] states = new int[16];
+    private int lineCount;
+    private int validUpTo;
+    private int knownEnd;
+    private int dirtyEnd = -1;
+
+    // Changed for every edit, so that lexing tasks on older text stop
+    private volatile int generation;
+    private boolean scheduled;
+
+    /**
+     * Creates a highlighter for the document shown in a text component. It
+     * highlights nothing until a language is set.
+     *
+     * @param model     The document model
+     * @param component The component showing the document
+     */
+    public SyntaxHighlighter(DocumentModel model, JTextComponent component) {
+        this.model = model;
+        this.component = component;
+        model.getDocument().addDocumentListener(this);
+    }
+
+    /**
+     * Gets the language being highlighted.
+     *
+     * @return The language
+     */
+    public Language getLanguage() {
+        return language;
+    }
+
+    /**
+     * Sets the language to highlight and lexes the whole document again.
+     *
+     * @param language The language, {@link Language#PLAIN} to highlight
+     *                 nothing
+     */
+    public void setLanguage(Language language) {
+        if (language == this.language) {
+            return;
+        }
+        this.language = language;
+        relexAll();
+    }
+
+    /**
+     * Forgets the states of all lines and lexes the document from the start.
+     */
+    private void relexAll() {
+        generation++;
+        lineCount = model.getDocument().getDefaultRootElement().getElementCount();
+        ensureCapacity(lineCount);
+        Arrays.fill(states, 0, lineCount, Lexer.INITIAL_STATE);
+        validUpTo = 0;
+        knownEnd = 0;
+        dirtyEnd = -1;
+        schedule();
+        component.repaint();
+    }
+
+    /**
+     * Gets the lexer of the language being highlighted.
+     *
+     * @return The lexer, or null if nothing is highlighted
+     */
+    public Lexer getLexer() {
+        return language.getLexer();
+    }
+
+    /**
+     * Gets the state to lex a line from. It may be a guess while the lexer
+     * has not reached the line yet; the line is repainted once it does.
+     *
+     * @param line The index of the line
+     * @return The state at the start of the line
+     */
+    public int getLineState(int line) {
+        return line >= 0 && line < lineCount ? states[line] : Lexer.INITIAL_STATE;
+    }
+
+    /**
+     * Checks if the states of all lines are known.
+     *
+     * @return true if no lexing is pending
+     */
+    public boolean isComplete() {
+        return getLexer() == null || validUpTo >= lineCount - 1;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        linesChanged(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        linesChanged(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes leave the text alone
+    }
+
+    /**
+     * Moves the states of the lines after an edit along with their lines and
+     * marks the edited lines as changed.
+     */
+    private void linesChanged(DocumentEvent e) {
+        if (getLexer() == null) {
+            return;
+        }
+        Element root = model.getDocument().getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        int count = root.getElementCount();
+        int index;
+        int removed;
+        int added;
+        if (change != null) {
+            index = change.getIndex();
+            removed = change.getChildrenRemoved().length;
+            added = change.getChildrenAdded().length;
+        } else {
+            index = root.getElementIndex(e.getOffset());
+            removed = 1;
+            added = 1;
+        }
+        if (lineCount - removed + added != count) {
+            relexAll();
+            return;
+        }
+
+        ensureCapacity(count);
+        int delta = added - removed;
+        System.arraycopy(states, index + removed, states, index + added, lineCount - index - removed);
+        if (added > 1) {
+            Arrays.fill(states, index + 1, index + added, states[index]);
+        }
+        lineCount = count;
+
+        int lastChanged = index + added - 1;
+        knownEnd = knownEnd >= index + removed ? knownEnd + delta : Math.min(knownEnd, lastChanged);
+        dirtyEnd = dirtyEnd >= index + removed ? dirtyEnd + delta : Math.min(dirtyEnd, lastChanged);
+        dirtyEnd = Math.max(dirtyEnd, lastChanged);
+        validUpTo = Math.min(validUpTo, index);
+        generation++;
+        schedule();
+    }
+
+    private void ensureCapacity(int lines) {
+        if (states.length < lines) {
+            states = Arrays.copyOf(states, Math.max(lines, states.length * 2));
+        }
+    }
+
+    /**
+     * Starts lexing once the current event is handled, so that the events of
+     * one edit start a single task.
+     */
+    private void schedule() {
+        if (!scheduled && !isComplete()) {
+            scheduled = true;
+            SwingUtilities.invokeLater(this::startLexing);
+        }
+    }
+
+    private void startLexing() {
+        scheduled = false;
+        Lexer lexer = getLexer();
+        if (lexer == null || isComplete()) {
+            return;
+        }
+        int current = ++generation;
+        int firstLine = validUpTo;
+        int offset = model.getDocument().getDefaultRootElement().getElement(firstLine).getStartOffset();
+        int firstChunk = Math.max(FIRST_CHUNK_LINES, lastVisibleLine() - firstLine + 1);
+        LexTask task = new LexTask(current, lexer, firstLine, states[firstLine], firstChunk);
+        PieceTable text = model.snapshot();
+        Thread.ofVirtual().name("syntax-lexer").start(() -> task.run(text, offset));
+    }
+
+    /**
+     * Stores the states computed by a lexing task and repaints the lines
+     * whose state changed. Stops the task once the states agree with the
+     * ones computed before.
+     *
+     * @param current   The generation the task was started in
+     * @param firstLine The line whose start state is the first result
+     * @param results   The start states of consecutive lines
+     * @param count     The number of results
+     */
+    private void apply(int current, int firstLine, int[] results, int count) {
+        if (current != generation) {
+            return;
+        }
+        int firstChanged = Integer.MAX_VALUE;
+        int lastChanged = -1;
+        for (int k = 0; k < count; k++) {
+            int line = firstLine + k;
+            if (line >= lineCount) {
+                break;
+            }
+            int state = results[k];
+            if (line > dirtyEnd && line <= knownEnd && states[line] == state) {
+                // Converged: the states after this line are still right
+                validUpTo = knownEnd;
+                generation++;
+                schedule();
+                break;
+            }
+            if (states[line] != state) {
+                states[line] = state;
+                firstChanged = Math.min(firstChanged, line);
+                lastChanged = line;
+            }
+            validUpTo = line;
+            knownEnd = Math.max(knownEnd, line);
+        }
+        if (validUpTo >= dirtyEnd) {
+            dirtyEnd = -1;
+        }
+        if (lastChanged >= 0 && lastChanged >= firstVisibleLine() && firstChanged <= lastVisibleLine()) {
+            component.repaint(component.getVisibleRect());
+        }
+    }
+
+    private int firstVisibleLine() {
+        return lineAt(component.getVisibleRect().y);
+    }
+
+    private int lastVisibleLine() {
+        Rectangle visible = component.getVisibleRect();
+        return lineAt(visible.y + visible.height);
+    }
+
+    private int lineAt(int y) {
+        if (!component.isShowing()) {
+            return 0;
+        }
+        int offset = component.viewToModel2D(new Point(0, y));
+        return model.getDocument().getDefaultRootElement().getElementIndex(Math.max(offset, 0));
+    }
+
+    /**
+     * Thrown out of the piece walk to stop a task that is no longer wanted.
+     */
+    private static final class Cancelled extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Lexes the lines of a snapshot from a given line on, passing the start
+     * state of each following line to {@link #apply} in chunks. Lines lying
+     * within one piece are lexed in place; only lines that span pieces are
+     * copied together.
+     */
+    private final class LexTask implements PieceTable.PieceVisitor {
+
+        private final int current;
+        private final Lexer lexer;
+        private int state;
+        private int line;
+        private char[] buffer = new char[256];
+        private int buffered;
+        private int[] results;
+        private int resultCount;
+        private int resultLine;
+
+        LexTask(int current, Lexer lexer, int firstLine, int state, int firstChunk) {
+            this.current = current;
+            this.lexer = lexer;
+            this.state = state;
+            line = firstLine;
+            resultLine = firstLine + 1;
+            results = new int[firstChunk];
+        }
+
+        void run(PieceTable text, int offset) {
+            try {
+                text.forEachPiece(offset, text.length(), this);
+                flush();
+            } catch (Cancelled e) {
+                // An edit or a converged result made the task obsolete
+            }
+        }
+
+        @Override
+        public void visit(char[] array, int offset, int length) {
+            int from = offset;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                if (array[i] == '\n') {
+                    if (buffered == 0) {
+                        endLine(array, from, i);
+                    } else {
+                        append(array, from, i);
+                        endLine(buffer, 0, buffered);
+                        buffered = 0;
+                    }
+                    from = i + 1;
+                }
+            }
+            append(array, from, offset + length);
+        }
+
+        private void append(char[] array, int from, int to) {
+            int length = to - from;
+            if (buffered + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffered + length, buffer.length * 2));
+            }
+            System.arraycopy(array, from, buffer, buffered, length);
+            buffered += length;
+        }
+
+        private void endLine(char[] text, int start, int end) {
+            state = lexer.lexLine(text, start, end, state, null);
+            line++;
+            results[resultCount++] = state;
+            if (resultCount == results.length) {
+                flush();
+                results = new int[CHUNK_LINES];
+            }
+            if (line % CANCEL_CHECK_LINES == 0 && generation != current) {
+                throw CANCELLED;
+            }
+        }
+
+        private void flush() {
+            if (resultCount == 0) {
+                return;
+            }
+            int[] chunk = results;
+            int first = resultLine;
+            int count = resultCount;
+            SwingUtilities.invokeLater(() -> apply(current, first, chunk, count));
+            resultLine += resultCount;
+            resultCount = 0;
+        }
+    }
+}
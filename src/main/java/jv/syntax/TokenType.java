@@ -0,0 +1,38 @@
+package jv.syntax;
+
+import java.awt.*;
+
+/**
+ * The kinds of tokens the lexers tell apart, with the color each is painted
+ * in. Plain text keeps the foreground color of the editor.
+ */
+public enum TokenType {
+    PLAIN(null),
+    KEYWORD(new Color(0, 0, 160)),
+    STRING(new Color(0, 128, 0)),
+    COMMENT(new Color(128, 128, 128)),
+    NUMBER(new Color(160, 80, 0)),
+    ANNOTATION(new Color(128, 128, 0)),
+    TAG(new Color(0, 0, 160)),
+    ATTRIBUTE(new Color(128, 0, 128)),
+    KEY(new Color(128, 0, 128)),
+    TIMESTAMP(new Color(0, 110, 140)),
+    ERROR(new Color(200, 0, 0)),
+    WARNING(new Color(190, 120, 0)),
+    DEBUG(new Color(150, 150, 150));
+
+    private final Color color;
+
+    TokenType(Color color) {
+        this.color = color;
+    }
+
+    /**
+     * Gets the color to paint tokens of this type in.
+     *
+     * @return The color, or null to use the foreground color
+     */
+    public Color getColor() {
+        return color;
+    }
+}
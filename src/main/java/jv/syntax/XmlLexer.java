@@ -0,0 +1,123 @@
+package jv.syntax;
+
+/**
+ * Lexes XML: tags, attribute names and values, comments, CDATA sections and
+ * entity references. Comments, CDATA sections, tags and attribute values may
+ * span lines, which the state keeps track of.
+ */
+final class XmlLexer implements Lexer {
+
+    private static final int TEXT = INITIAL_STATE;
+    private static final int COMMENT = 1;
+    private static final int TAG = 2;
+    private static final int CDATA = 3;
+    private static final int DOUBLE_QUOTED = 4;
+    private static final int SINGLE_QUOTED = 5;
+
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, TokenSink sink) {
+        int i = start;
+        int tokenStart = start;
+        while (i < end) {
+            switch (state) {
+                case COMMENT -> {
+                    int close = LexerUtils.indexOf(text, i, end, "-->");
+                    if (close < 0) {
+                        LexerUtils.emit(sink, tokenStart, end, TokenType.COMMENT);
+                        return COMMENT;
+                    }
+                    i = close + 3;
+                    LexerUtils.emit(sink, tokenStart, i, TokenType.COMMENT);
+                    state = TEXT;
+                }
+                case CDATA -> {
+                    int close = LexerUtils.indexOf(text, i, end, "]]>");
+                    if (close < 0) {
+                        return CDATA;
+                    }
+                    LexerUtils.emit(sink, close, close + 3, TokenType.TAG);
+                    i = close + 3;
+                    state = TEXT;
+                }
+                case DOUBLE_QUOTED, SINGLE_QUOTED -> {
+                    int close = LexerUtils.indexOf(text, i, end, state == DOUBLE_QUOTED ? "\"" : "'");
+                    if (close < 0) {
+                        LexerUtils.emit(sink, tokenStart, end, TokenType.STRING);
+                        return state;
+                    }
+                    i = close + 1;
+                    LexerUtils.emit(sink, tokenStart, i, TokenType.STRING);
+                    state = TAG;
+                }
+                case TAG -> {
+                    char c = text[i];
+                    if (c == '>') {
+                        LexerUtils.emit(sink, i, i + 1, TokenType.TAG);
+                        i++;
+                        state = TEXT;
+                    } else if ((c == '/' || c == '?') && i + 1 < end && text[i + 1] == '>') {
+                        LexerUtils.emit(sink, i, i + 2, TokenType.TAG);
+                        i += 2;
+                        state = TEXT;
+                    } else if (c == '"' || c == '\'') {
+                        tokenStart = i;
+                        i++;
+                        state = c == '"' ? DOUBLE_QUOTED : SINGLE_QUOTED;
+                    } else if (isNameChar(c)) {
+                        int to = scanName(text, i, end);
+                        LexerUtils.emit(sink, i, to, TokenType.ATTRIBUTE);
+                        i = to;
+                    } else {
+                        i++;
+                    }
+                }
+                default -> {
+                    char c = text[i];
+                    if (c == '&') {
+                        int to = i + 1;
+                        while (to < end && (isNameChar(text[to]) || text[to] == '#')) {
+                            to++;
+                        }
+                        if (to < end && text[to] == ';') {
+                            LexerUtils.emit(sink, i, to + 1, TokenType.KEYWORD);
+                            i = to + 1;
+                        } else {
+                            i++;
+                        }
+                    } else if (c != '<') {
+                        i++;
+                    } else if (LexerUtils.indexOf(text, i, Math.min(end, i + 4), "<!--") == i) {
+                        tokenStart = i;
+                        i += 4;
+                        state = COMMENT;
+                    } else if (LexerUtils.indexOf(text, i, Math.min(end, i + 9), "<![CDATA[") == i) {
+                        LexerUtils.emit(sink, i, i + 9, TokenType.TAG);
+                        i += 9;
+                        state = CDATA;
+                    } else {
+                        int to = i + 1;
+                        if (to < end && (text[to] == '/' || text[to] == '?' || text[to] == '!')) {
+                            to++;
+                        }
+                        to = scanName(text, to, end);
+                        LexerUtils.emit(sink, i, to, TokenType.TAG);
+                        i = to;
+                        state = TAG;
+                    }
+                }
+            }
+        }
+        return state;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == ':' || c == '_' || c == '-' || c == '.';
+    }
+
+    private static int scanName(char[] text, int i, int end) {
+        while (i < end && isNameChar(text[i])) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,139 @@
+package jv.syntax;
+
+/**
+ * Lexes YAML: keys, comments, quoted strings, booleans, nulls and numbers,
+ * document markers, anchors, aliases and tags. A literal or folded block
+ * scalar continues on the following lines while they are indented deeper
+ * than the line that opened it, so the state holds that indent plus one, or
+ * 0 outside of block scalars.
+ */
+final class YamlLexer implements Lexer {
+
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, TokenSink sink) {
+        int i = start;
+        while (i < end && text[i] == ' ') {
+            i++;
+        }
+        int indent = i - start;
+        if (state != INITIAL_STATE) {
+            if (i == end || indent >= state) {
+                LexerUtils.emit(sink, i, end, TokenType.STRING);
+                return state;
+            }
+        }
+        if (indent == 0 && (startsMarker(text, i, end, '-') || startsMarker(text, i, end, '.'))) {
+            LexerUtils.emit(sink, i, i + 3, TokenType.KEYWORD);
+            i += 3;
+        }
+        while (i < end && text[i] == '-' && (i + 1 == end || text[i + 1] == ' ')) {
+            i = skipSpaces(text, i + 1, end);
+        }
+        i = lexKey(text, i, end, sink);
+        boolean afterSpace = true;
+        while (i < end) {
+            char c = text[i];
+            if (c == '#' && afterSpace) {
+                LexerUtils.emit(sink, i, end, TokenType.COMMENT);
+                return INITIAL_STATE;
+            } else if (c == '"' || c == '\'') {
+                int close = LexerUtils.findQuoteEnd(text, i + 1, end, c);
+                LexerUtils.emit(sink, i, close, TokenType.STRING);
+                i = close;
+            } else if ((c == '|' || c == '>') && afterSpace && isBlockIndicator(text, i + 1, end)) {
+                // The content starts on the next line, deeper than this one
+                return indent + 1;
+            } else if ((c == '&' || c == '*' || c == '!') && afterSpace) {
+                int to = scanScalar(text, i + 1, end);
+                LexerUtils.emit(sink, i, to, TokenType.ANNOTATION);
+                i = to;
+            } else if (!Character.isWhitespace(c) && afterSpace && ",[]{}".indexOf(c) < 0) {
+                int to = scanScalar(text, i, end);
+                if (sink != null) {
+                    TokenType type = classify(text, i, to);
+                    if (type != null) {
+                        sink.token(i, to - i, type);
+                    }
+                }
+                i = to;
+            } else {
+                i++;
+            }
+            afterSpace = i > start && (Character.isWhitespace(text[i - 1]) || ",[{".indexOf(text[i - 1]) >= 0);
+        }
+        return INITIAL_STATE;
+    }
+
+    /**
+     * Marks the key of a mapping entry: a plain or quoted scalar followed by
+     * a colon and a space or the end of the line.
+     *
+     * @return The index after the colon, or the given index if there is no
+     *         key
+     */
+    private static int lexKey(char[] text, int i, int end, TokenSink sink) {
+        int to;
+        if (i < end && (text[i] == '"' || text[i] == '\'')) {
+            to = LexerUtils.findQuoteEnd(text, i + 1, end, text[i]);
+        } else {
+            to = i;
+            while (to < end && !(text[to] == ':' && (to + 1 == end || text[to + 1] == ' '))) {
+                if (text[to] == '#' && to > i && text[to - 1] == ' ') {
+                    return i;
+                }
+                to++;
+            }
+        }
+        if (to >= end || text[to] != ':' || to == i || (to + 1 < end && text[to + 1] != ' ')) {
+            return i;
+        }
+        LexerUtils.emit(sink, i, to, TokenType.KEY);
+        return to + 1;
+    }
+
+    private static boolean startsMarker(char[] text, int i, int end, char c) {
+        return i + 3 <= end && text[i] == c && text[i + 1] == c && text[i + 2] == c
+                && (i + 3 == end || text[i + 3] == ' ');
+    }
+
+    /**
+     * Checks if the rest of a line after a {@code |} or {@code >} holds only
+     * chomping and indentation indicators, and maybe a comment.
+     */
+    private static boolean isBlockIndicator(char[] text, int i, int end) {
+        while (i < end && (text[i] == '+' || text[i] == '-' || Character.isDigit(text[i]))) {
+            i++;
+        }
+        i = skipSpaces(text, i, end);
+        return i == end || text[i] == '#';
+    }
+
+    private static int skipSpaces(char[] text, int i, int end) {
+        while (i < end && text[i] == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int scanScalar(char[] text, int i, int end) {
+        while (i < end && !Character.isWhitespace(text[i]) && ",[]{}".indexOf(text[i]) < 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private static TokenType classify(char[] text, int from, int to) {
+        for (String word : new String[] { "true", "false", "True", "False", "TRUE", "FALSE", "null", "Null",
+                "NULL", "~", "yes", "no", "on", "off" }) {
+            if (LexerUtils.matches(text, from, to, word)) {
+                return TokenType.KEYWORD;
+            }
+        }
+        char c = text[from];
+        if (Character.isDigit(c) || ((c == '-' || c == '+' || c == '.') && to - from > 1
+                && Character.isDigit(text[from + 1]))) {
+            return LexerUtils.scanNumber(text, from + 1, to) == to ? TokenType.NUMBER : null;
+        }
+        return null;
+    }
+}
@@ -11,6 +11,7 @@ public class Constants {
     public static final float APP_VERSION = 1.0f;
     public static final String AUTHOR_EMAIL = "hmaniac28@yahoo.de";
     public static final String AUTHOR_NAME = "hmaniac28";
+    public static final boolean STARTUP_LOG = Boolean.getBoolean("javitor.startupLog"); // Print how long startup took
 
     // UI Configuration
     public static final String DEFAULT_FONT_NAME = "Century Gothic";
@@ -19,10 +20,21 @@ public class Constants {
 
     public static final int DEFAULT_WINDOW_WIDTH = 1000;
     public static final int DEFAULT_WINDOW_HEIGHT = 700;
+    public static final int STATUS_REFRESH_INTERVAL_MS = 16; // The status bar follows edits at most once per frame
+    public static final long LINE_IMAGE_CACHE_BUDGET = Long.getLong("javitor.render.cacheBudget", 64L * 1024 * 1024); // Bytes of rendered lines kept to repaint scrolled text quickly
+
+    // Editing
+    public static final long UNDO_MEMORY_BUDGET = 32L * 1024 * 1024; // Bytes the undo history may keep alive
+    public static final String JOURNAL_DIRECTORY = ".javitor/journal"; // Under the user's home directory
+    public static final long JOURNAL_FLUSH_INTERVAL_MS = 300; // Edits are forced to disk in batches this far apart
+    public static final long JOURNAL_EXIT_WAIT_MS = 2000; // Longest wait on exit for closed journals to be deleted
+    public static final long TAB_MEMORY_BUDGET = Long.getLong("javitor.tabs.memoryBudget", Runtime.getRuntime().maxMemory() / 4); // Bytes the documents of all tabs may hold before background tabs are evicted
 
     // Window titles
     public static final String TITLE_UNTITLED = "Untitled - " + APP_NAME;
     public static final String TITLE_MODIFIED_MARKER = "*";
+    public static final String TITLE_READ_ONLY_MARKER = " [read-only]";
+    public static final String TITLE_FOLLOWING_MARKER = " [following]";
 
     // Icon paths (relative to classpath)
     public static final String ICON_NEW = "icons/new.png";
@@ -44,11 +56,15 @@ public class Constants {
 
     public static final String MENU_ITEM_NEW = "New";
     public static final String MENU_ITEM_OPEN = "Open";
+    public static final String MENU_ITEM_OPEN_LARGE = "Open Large File...";
+    public static final String MENU_ITEM_FOLLOW = "Follow File...";
     public static final String MENU_ITEM_SAVE = "Save";
+    public static final String MENU_ITEM_CLOSE_TAB = "Close Tab";
     public static final String MENU_ITEM_CLOSE = "Close";
     public static final String MENU_ITEM_CLEAR = "Clear";
     public static final String MENU_ITEM_UNDO = "Undo";
     public static final String MENU_ITEM_REDO = "Redo";
+    public static final String MENU_ITEM_GO_TO_LINE = "Go to Line...";
     public static final String MENU_ITEM_FIND = "Find";
     public static final String MENU_ITEM_ABOUT_AUTHOR = "About the author";
     public static final String MENU_ITEM_ABOUT_SOFTWARE = "About the software";
@@ -68,25 +84,51 @@ public class Constants {
     // Dialog messages
     public static final String MSG_UNSAVED_CHANGES_TITLE = "Unsaved Changes";
     public static final String MSG_UNSAVED_CHANGES = "You have unsaved changes. Do you want to save before continuing?";
+    public static final String MSG_UNSAVED_CHANGES_UNREADABLE = "The unsaved changes of %s could not be read back, so they cannot be saved. Close it anyway and recover them on the next start?";
     public static final String MSG_FILE_NOT_FOUND_TITLE = "File Not Found";
     public static final String MSG_FILE_NOT_FOUND = "The selected file could not be found.";
     public static final String MSG_FILE_READ_ERROR_TITLE = "Error Reading File";
     public static final String MSG_FILE_READ_ERROR = "An error occurred while reading the file: ";
     public static final String MSG_FILE_WRITE_ERROR_TITLE = "Error Saving File";
     public static final String MSG_FILE_WRITE_ERROR = "An error occurred while saving the file: ";
+    public static final String MSG_UNMAPPABLE_TITLE = "Characters Not Supported by Encoding";
+    public static final String MSG_UNMAPPABLE = "%s cannot store the character '%s' (U+%04X) on line %d. Save the file as UTF-8 instead?";
     public static final String MSG_SEARCH_NOT_FOUND = "Could not find: ";
+    public static final String MSG_FIND = "Find: ";
+    public static final String MSG_GO_TO_LINE_TITLE = "Go to Line";
+    public static final String MSG_GO_TO_LINE = "Line[:column]: ";
+    public static final String MSG_INVALID_LINE = "Not a valid line[:column]: ";
+    public static final String MSG_RECOVER_TITLE = "Recover Unsaved Changes";
+    public static final String MSG_FILE_CHANGED_TITLE = "File Changed on Disk";
+    public static final String MSG_FILE_CHANGED = "%s was changed by another program. Reload it?";
+    public static final String MSG_FILE_CHANGED_LOSE_EDITS = "%s was changed by another program. Reload it and lose your changes?";
+    public static final String MSG_FILE_GREW = "%s has grown by %,d bytes. Load the added text?";
+    public static final String MSG_FILE_DELETED = "%s was deleted by another program";
+    public static final String MSG_FOLLOWING = "Following %s";
+    public static final String MSG_FOLLOW_STOPPED = "Stopped following %s";
+    public static final String MSG_RECOVER = "Javitor did not exit cleanly. Recover %,d unsaved edit(s) to %s made until %tc?";
 
     // File operations
     public static final String DEFAULT_CHARSET = "UTF-8";
+    public static final long LARGE_FILE_THRESHOLD = 256L * 1024 * 1024; // Opened memory-mapped and read-only
+    public static final long IN_PLACE_SAVE_THRESHOLD = 32L * 1024 * 1024; // Saved in place from the first change on
+    public static final long FILE_WATCH_DEBOUNCE_MS = 250; // A file is checked once its changes pause this long
+    public static final int FOLLOW_MAX_LINES = Integer.getInteger("javitor.follow.maxLines", 100_000); // Lines kept while following a file
+    public static final long FOLLOW_POLL_INTERVAL_MS = 100; // A followed file is checked for new text this often
+    public static final long FOLLOW_FRAME_INTERVAL_MS = 33; // New text of a followed file is shown at most once per frame
 
     // Action keys (for ActionManager)
     public static final String ACTION_NEW = "new";
     public static final String ACTION_OPEN = "open";
+    public static final String ACTION_OPEN_LARGE = "open-large";
+    public static final String ACTION_FOLLOW = "follow";
     public static final String ACTION_SAVE = "save";
+    public static final String ACTION_CLOSE_TAB = "close-tab";
     public static final String ACTION_CLOSE = "close";
     public static final String ACTION_CLEAR = "clear";
     public static final String ACTION_UNDO = "undo";
     public static final String ACTION_REDO = "redo";
+    public static final String ACTION_GO_TO_LINE = "go-to-line";
     public static final String ACTION_FIND = "find";
     public static final String ACTION_ABOUT_AUTHOR = "about-author";
     public static final String ACTION_ABOUT_SOFTWARE = "about-software";
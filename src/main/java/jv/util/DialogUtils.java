@@ -72,6 +72,28 @@ public class DialogUtils {
                 JOptionPane.WARNING_MESSAGE);
     }
 
+    /**
+     * Asks the user whether to recover the edits a crashed session left in a
+     * journal.
+     * 
+     * @param parent     The parent component for the dialog
+     * @param name       The name of the document
+     * @param editCount  The number of edits recovered
+     * @param lastEdited The time of the last edit, in milliseconds since the
+     *                   epoch
+     * @return JOptionPane.YES_OPTION to recover, JOptionPane.NO_OPTION to
+     *         discard the edits, or JOptionPane.CANCEL_OPTION to ask again
+     *         on the next start
+     */
+    public static int confirmRecovery(Component parent, String name, int editCount, long lastEdited) {
+        return JOptionPane.showConfirmDialog(
+                parent,
+                String.format(Constants.MSG_RECOVER, editCount, name, lastEdited),
+                Constants.MSG_RECOVER_TITLE,
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.WARNING_MESSAGE);
+    }
+
     /**
      * Shows a yes/no confirmation dialog with a custom message.
      * 
@@ -102,6 +124,22 @@ public class DialogUtils {
         return JOptionPane.showInputDialog(parent, message, title, JOptionPane.QUESTION_MESSAGE);
     }
 
+    /**
+     * Shows an input dialog requesting text from the user, pre-filled with a
+     * value.
+     * 
+     * @param parent       The parent component for the dialog
+     * @param title        The dialog title
+     * @param message      The prompt message
+     * @param initialValue The text initially shown in the input field
+     * @return The user's input, or null if cancelled
+     */
+    public static String showInputDialog(Component parent, String title, String message, String initialValue) {
+        Object input = JOptionPane.showInputDialog(parent, message, title, JOptionPane.QUESTION_MESSAGE, null, null,
+                initialValue);
+        return input == null ? null : input.toString();
+    }
+
     // Private constructor to prevent instantiation
     private DialogUtils() {
         throw new AssertionError("DialogUtils class should not be instantiated");
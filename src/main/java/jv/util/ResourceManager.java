@@ -2,16 +2,26 @@ package jv.util;
 
 import javax.swing.*;
 import java.net.URL;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages loading and caching of application resources (icons, images, etc.).
  * Provides reliable resource loading with fallback mechanisms.
+ * <p>
+ * Icons can be preloaded in parallel on virtual threads while the window is
+ * being built; {@link #getIcon(String)} then only waits for the ones still
+ * loading.
  */
 public class ResourceManager {
 
-    private static final Map<String, ImageIcon> iconCache = new HashMap<>();
+    private static final String[] APPLICATION_ICONS = { Constants.ICON_NEW, Constants.ICON_OPEN,
+            Constants.ICON_SAVE, Constants.ICON_CLOSE, Constants.ICON_CLEAR, Constants.ICON_FIND,
+            Constants.ICON_UNDO, Constants.ICON_REDO, Constants.ICON_ABOUT_ME, Constants.ICON_ABOUT };
+
+    // Icons loaded or being loaded; a failed load completes with null
+    private static final Map<String, CompletableFuture<ImageIcon>> iconCache = new ConcurrentHashMap<>();
 
     /**
      * Loads an icon from the classpath.
@@ -21,17 +31,19 @@ public class ResourceManager {
      * @return The loaded ImageIcon, or null if loading failed
      */
     public static ImageIcon getIcon(String path) {
-        // Check cache first
-        if (iconCache.containsKey(path)) {
-            return iconCache.get(path);
+        // Check cache first; an icon being preloaded is waited for
+        CompletableFuture<ImageIcon> icon = iconCache.get(path);
+        if (icon == null) {
+            icon = iconCache.computeIfAbsent(path, p -> CompletableFuture.completedFuture(loadIcon(p)));
         }
+        return icon.join();
+    }
 
+    private static ImageIcon loadIcon(String path) {
         try {
             URL resourceUrl = ResourceManager.class.getClassLoader().getResource(path);
             if (resourceUrl != null) {
-                ImageIcon icon = new ImageIcon(resourceUrl);
-                iconCache.put(path, icon);
-                return icon;
+                return new ImageIcon(resourceUrl);
             } else {
                 System.err.println("Warning: Could not find icon resource: " + path);
                 return null;
@@ -63,18 +75,16 @@ public class ResourceManager {
     }
 
     /**
-     * Pre-loads all application icons into the cache.
-     * Call this during application startup for better performance.
+     * Starts loading all application icons into the cache, each on a virtual
+     * thread of its own, and returns at once.
+     * Call this first thing during application startup, so the icons load
+     * while the window is being built.
      */
     public static void preloadIcons() {
-        getIcon(Constants.ICON_NEW);
-        getIcon(Constants.ICON_OPEN);
-        getIcon(Constants.ICON_SAVE);
-        getIcon(Constants.ICON_CLOSE);
-        getIcon(Constants.ICON_CLEAR);
-        getIcon(Constants.ICON_FIND);
-        getIcon(Constants.ICON_ABOUT_ME);
-        getIcon(Constants.ICON_ABOUT);
+        for (String path : APPLICATION_ICONS) {
+            iconCache.computeIfAbsent(path, p -> CompletableFuture.supplyAsync(() -> loadIcon(p),
+                    task -> Thread.ofVirtual().name("icon-loader").start(task)));
+        }
     }
 
     // Private constructor to prevent instantiation
@@ -0,0 +1,31 @@
+package jv.util;
+
+import java.time.Instant;
+
+/**
+ * Measures how long the editor takes to start. Each milestone, such as the
+ * first paint of the window, is printed with the time since the JVM started
+ * when the {@code javitor.startupLog} system property is true.
+ */
+public final class StartupTimer {
+
+    private static final long JVM_START_MILLIS = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli).orElse(System.currentTimeMillis());
+
+    /**
+     * Records that startup reached a milestone.
+     *
+     * @param milestone What was reached, such as "first paint"
+     */
+    public static void mark(String milestone) {
+        if (Constants.STARTUP_LOG) {
+            System.err.println("Startup: " + milestone + " after "
+                    + (System.currentTimeMillis() - JVM_START_MILLIS) + " ms");
+        }
+    }
+
+    // Private constructor to prevent instantiation
+    private StartupTimer() {
+        throw new AssertionError("StartupTimer class should not be instantiated");
+    }
+}
@@ -0,0 +1,52 @@
+#!/bin/sh
+# Compares how long Javitor takes to show its first frame with and without
+# the class data sharing archive of the appcds profile.
+#
+# Each launch exits as soon as the window is interactive and reports the
+# time since the JVM started. Without a display no window can be shown, so
+# the headless training run is timed instead.
+#
+# Usage: sh benchmark-startup.sh [launches]
+DIR=$(cd "$(dirname "$0")" && pwd)
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+JAR="$DIR/@project.build.finalName@.jar"
+ARCHIVE="$DIR/@project.artifactId@.jsa"
+LAUNCHES=${1:-5}
+
+if [ "$(uname)" = Linux ] && [ -z "$DISPLAY" ] && [ -z "$WAYLAND_DISPLAY" ]; then
+    MODE="--training-run"
+    OPTIONS="-Djava.awt.headless=true"
+    MILESTONE="ready"
+else
+    MODE="--exit-when-interactive"
+    OPTIONS=""
+    MILESTONE="first paint"
+fi
+
+if [ ! -f "$ARCHIVE" ]; then
+    echo "No archive at $ARCHIVE; build it with: mvn -Pappcds package" >&2
+    exit 1
+fi
+
+# Prints the average time to the milestone over all launches
+measure() {
+    total=0
+    i=0
+    while [ "$i" -lt "$LAUNCHES" ]; do
+        ms=$("$JAVA" "$@" $OPTIONS -Djavitor.startupLog=true -jar "$JAR" $MODE 2>&1 \
+            | awk -v m="Startup: $MILESTONE after" 'index($0, m) == 1 { print $(NF - 1); exit }')
+        if [ -z "$ms" ]; then
+            echo "A launch did not report its startup time" >&2
+            exit 1
+        fi
+        total=$((total + ms))
+        i=$((i + 1))
+    done
+    echo $((total / LAUNCHES))
+}
+
+without=$(measure -Xshare:auto) || exit 1
+with=$(measure -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto -Xlog:cds=off) || exit 1
+echo "Time to $MILESTONE, average of $LAUNCHES launches:"
+echo "  without archive: $without ms"
+echo "  with archive:    $with ms"
@@ -0,0 +1,16 @@
+@echo off
+rem Starts Javitor with the class data sharing archive recorded by the
+rem training run of the appcds profile. Without the archive Javitor starts
+rem as usual.
+setlocal
+set "DIR=%~dp0"
+set "JAVA=java"
+if defined JAVA_HOME set "JAVA=%JAVA_HOME%\bin\java"
+set "JAR=%DIR%@project.build.finalName@.jar"
+set "ARCHIVE=%DIR%@project.artifactId@.jsa"
+
+if exist "%ARCHIVE%" (
+    "%JAVA%" -XX:SharedArchiveFile="%ARCHIVE%" -Xshare:auto -Xlog:cds=off -jar "%JAR%" %*
+) else (
+    "%JAVA%" -jar "%JAR%" %*
+)
@@ -0,0 +1,15 @@
+#!/bin/sh
+# Starts Javitor with the class data sharing archive recorded by the
+# training run of the appcds profile, so the JVM maps the classes the
+# editor needs instead of loading them one by one. Without the archive, or
+# with a different JVM than the one that recorded it, Javitor starts as
+# usual.
+DIR=$(cd "$(dirname "$0")" && pwd)
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+JAR="$DIR/@project.build.finalName@.jar"
+ARCHIVE="$DIR/@project.artifactId@.jsa"
+
+if [ -f "$ARCHIVE" ]; then
+    exec "$JAVA" -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto -Xlog:cds=off -jar "$JAR" "$@"
+fi
+exec "$JAVA" -jar "$JAR" "$@"